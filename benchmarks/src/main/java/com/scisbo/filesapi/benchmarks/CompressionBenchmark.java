@@ -0,0 +1,92 @@
+package com.scisbo.filesapi.benchmarks;
+
+import com.scisbo.filesapi.config.Compression;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.source.ContentSource;
+import com.scisbo.filesapi.multipart.MultipartBodyPublisher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes one 4 MiB file part with and without compression, to weigh encoding time against bytes on the wire.
+ * {@code TEXT} is CSV-like log data; {@code RANDOM} is incompressible and shows the cost of deciding to skip
+ * it. The compression ratio of each level is listed in the README.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+    
+    /**
+     * {@code NONE}, or gzip at the given level
+     */
+    @Param({"NONE", "GZIP_1", "GZIP_6", "GZIP_9"})
+    private String encoding;
+    
+    @Param({"TEXT", "RANDOM"})
+    private String content;
+    
+    @Param({"4194304"})
+    private int fileSize;
+    
+    private byte[] bytes;
+    private Compression compression;
+    private int level;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        bytes = content.equals("TEXT") ? csv(fileSize) : random(fileSize);
+        compression = encoding.equals("NONE") ? Compression.NONE : Compression.GZIP;
+        level = encoding.equals("NONE") ? 0 : Integer.parseInt(encoding.substring(encoding.indexOf('_') + 1));
+    }
+    
+    @Benchmark
+    public long encode() throws IOException {
+        MultipartBodyPublisher publisher = new MultipartBodyPublisher(64 * 1024, compression, level);
+        publisher.addFile("files", new FileData("data.log", null, ContentSource.of(new ByteArrayInputStream(bytes))));
+        
+        CountingSubscriber subscriber = new CountingSubscriber();
+        publisher.build().subscribe(subscriber);
+        if (subscriber.getError() != null) {
+            throw new IOException(subscriber.getError());
+        }
+        return subscriber.getBytes();
+    }
+    
+    private static byte[] csv(int size) {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(size + 128);
+        for (int row = 0; text.length() < size; row++) {
+            text.append("2024-05-17T08:21:").append(String.format("%02d", row % 60)).append(".123Z,")
+                    .append(random.nextInt(64)).append(",INFO,worker-").append(random.nextInt(16))
+                    .append(",upload completed,").append(random.nextInt(1_000_000)).append('\n');
+        }
+        text.setLength(size);
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+    
+    private static byte[] random(int size) {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,105 @@
+package com.scisbo.filesapi.benchmarks;
+
+import com.scisbo.filesapi.api.FilesApiClient;
+import com.scisbo.filesapi.builder.FileDataBuilder;
+import com.scisbo.filesapi.builder.FileUploadRequestBuilder;
+import com.scisbo.filesapi.config.ExecutionMode;
+import com.scisbo.filesapi.config.FilesApiConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues {@code uploads} blocking {@code uploadFiles} calls at once, each on its own caller task, against a
+ * loopback server with simulated service latency.
+ * <p>
+ * {@code PLATFORM} runs callers on a bounded platform thread pool, as a blocking service would; {@code VIRTUAL}
+ * runs one virtual thread per call and switches the client to {@link ExecutionMode#VIRTUAL}. The virtual
+ * variant needs a Java 21 runtime and fails its setup on older ones.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@State(Scope.Benchmark)
+public class ConcurrentUploadBenchmark {
+    
+    @Param({"PLATFORM", "VIRTUAL"})
+    private ExecutionMode mode;
+    
+    @Param({"1000", "10000"})
+    private int uploads;
+    
+    @Param({"200"})
+    private int platformThreads;
+    
+    @Param({"20"})
+    private long latencyMillis;
+    
+    private final byte[] content = new byte[4096];
+    private LoopbackServer server;
+    private FilesApiClient client;
+    private ExecutorService callers;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, ReflectiveOperationException {
+        server = new LoopbackServer(1, latencyMillis);
+        client = new FilesApiClient(FilesApiConfig.builder()
+                .apiKey("benchmark")
+                .baseUrl(server.baseUrl())
+                .executionMode(mode)
+                .build());
+        callers = mode == ExecutionMode.VIRTUAL
+                ? (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null)
+                : Executors.newFixedThreadPool(platformThreads);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        callers.shutdownNow();
+        server.close();
+    }
+    
+    @Benchmark
+    public int uploadConcurrently() throws InterruptedException, ExecutionException {
+        List<Future<Boolean>> results = new ArrayList<>(uploads);
+        for (int i = 0; i < uploads; i++) {
+            String filename = "file-" + i + ".bin";
+            results.add(callers.submit(() -> client.uploadFiles(FileUploadRequestBuilder.builder()
+                    .path("/benchmark")
+                    .addFile(FileDataBuilder.builder()
+                            .filename(filename)
+                            .content(new ByteArrayInputStream(content))
+                            .build())
+                    .build()).isSuccess()));
+        }
+        int succeeded = 0;
+        for (Future<Boolean> result : results) {
+            if (result.get()) {
+                succeeded++;
+            }
+        }
+        return succeeded;
+    }
+}
@@ -0,0 +1,41 @@
+package com.scisbo.filesapi.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+
+/**
+ * Requests everything up front and counts the bytes it is handed; the multipart publisher emits on the calling
+ * thread, so the counts are final once {@code subscribe} returns
+ */
+final class CountingSubscriber implements Flow.Subscriber<ByteBuffer> {
+    
+    private long bytes;
+    private Throwable error;
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+    
+    @Override
+    public void onNext(ByteBuffer item) {
+        bytes += item.remaining();
+    }
+    
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+    }
+    
+    @Override
+    public void onComplete() {
+    }
+    
+    long getBytes() {
+        return bytes;
+    }
+    
+    Throwable getError() {
+        return error;
+    }
+}
@@ -0,0 +1,107 @@
+package com.scisbo.filesapi.benchmarks;
+
+import com.scisbo.filesapi.api.FilesApiClient;
+import com.scisbo.filesapi.builder.FileDataBuilder;
+import com.scisbo.filesapi.builder.FileUploadRequestBuilder;
+import com.scisbo.filesapi.config.FilesApiConfig;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts {@code uploads} async uploads at once against a loopback server with simulated service latency, over
+ * HTTP/1.1 or HTTP/2, with at most {@code maxPerHost} in flight.
+ * <p>
+ * Over HTTP/1.1 every in-flight upload needs its own connection; over HTTP/2 they are multiplexed as streams
+ * on one connection. The setup sends one bodiless request first, so the cleartext connection is upgraded to
+ * HTTP/2 before any upload is measured.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Http2UploadBenchmark {
+    
+    @Param({"HTTP_1_1", "HTTP_2"})
+    private HttpClient.Version httpVersion;
+    
+    @Param({"2000"})
+    private int uploads;
+    
+    @Param({"100"})
+    private int maxPerHost;
+    
+    @Param({"5"})
+    private long latencyMillis;
+    
+    private final byte[] content = new byte[4096];
+    private JettyLoopbackServer server;
+    private FilesApiClient client;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new JettyLoopbackServer(1, latencyMillis, maxPerHost);
+        HttpClient httpClient = HttpClient.newBuilder().version(httpVersion).build();
+        HttpResponse<Void> upgrade = httpClient.send(HttpRequest.newBuilder(URI.create(server.baseUrl())).GET().build(),
+                HttpResponse.BodyHandlers.discarding());
+        if (upgrade.version() != httpVersion) {
+            throw new IllegalStateException("Negotiated " + upgrade.version() + " instead of " + httpVersion);
+        }
+        client = new FilesApiClient(FilesApiConfig.builder()
+                .apiKey("benchmark")
+                .baseUrl(server.baseUrl())
+                .httpClient(httpClient)
+                .maxConcurrentRequestsPerHost(maxPerHost)
+                .enableLogging(false)
+                .build());
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.close();
+    }
+    
+    @Benchmark
+    public int uploadConcurrently() {
+        List<CompletableFuture<FileUploadResponse>> results = new ArrayList<>(uploads);
+        for (int i = 0; i < uploads; i++) {
+            results.add(client.uploadFilesAsync(FileUploadRequestBuilder.builder()
+                    .path("/benchmark")
+                    .addFile(FileDataBuilder.builder()
+                            .filename("file-" + i + ".bin")
+                            .content(new ByteArrayInputStream(content))
+                            .build())
+                    .build()));
+        }
+        int succeeded = 0;
+        for (CompletableFuture<FileUploadResponse> result : results) {
+            if (result.join().isSuccess()) {
+                succeeded++;
+            }
+        }
+        return succeeded;
+    }
+}
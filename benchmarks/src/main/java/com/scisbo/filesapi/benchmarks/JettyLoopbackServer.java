@@ -0,0 +1,97 @@
+package com.scisbo.filesapi.benchmarks;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loopback stand-in for the Files API upload endpoint that speaks HTTP/1.1 and cleartext HTTP/2 (h2c) on the
+ * same port, so both protocols are measured against the same server.
+ * <p>
+ * Request bodies are drained and discarded. The simulated service latency is served asynchronously, so no
+ * server thread is held while a response is pending and the thread pool never caps concurrency.
+ */
+final class JettyLoopbackServer implements AutoCloseable {
+    
+    private static final String API_PATH = "/api/files";
+    
+    private final Server server;
+    private final ServerConnector connector;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "jetty-loopback-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long latencyMillis;
+    private final byte[] uploadResponse;
+    
+    JettyLoopbackServer(int filesPerResponse, long latencyMillis, int maxConcurrentStreams) throws Exception {
+        this.latencyMillis = latencyMillis;
+        this.uploadResponse = Responses.upload(filesPerResponse).getBytes(StandardCharsets.UTF_8);
+        HttpConfiguration http = new HttpConfiguration();
+        HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(http);
+        h2c.setMaxConcurrentStreams(maxConcurrentStreams);
+        this.server = new Server();
+        this.connector = new ServerConnector(server, new HttpConnectionFactory(http), h2c);
+        connector.setHost("127.0.0.1");
+        connector.setPort(0);
+        connector.setAcceptQueueSize(4096);
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                JettyLoopbackServer.this.handle(request, response);
+            }
+        });
+        server.start();
+    }
+    
+    String baseUrl() {
+        return "http://127.0.0.1:" + connector.getLocalPort() + API_PATH;
+    }
+    
+    private void handle(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        drain(request.getInputStream());
+        AsyncContext async = request.startAsync();
+        timer.schedule(() -> {
+            try {
+                response.setContentType("application/json");
+                response.setContentLength(uploadResponse.length);
+                response.getOutputStream().write(uploadResponse);
+            } catch (IOException e) {
+                response.setStatus(500);
+            } finally {
+                async.complete();
+            }
+        }, latencyMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    private static void drain(InputStream body) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        while (body.read(buffer) != -1) {
+            // Discard
+        }
+    }
+    
+    @Override
+    public void close() throws Exception {
+        server.stop();
+        timer.shutdownNow();
+    }
+}
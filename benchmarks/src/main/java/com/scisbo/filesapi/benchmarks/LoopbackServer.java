@@ -0,0 +1,100 @@
+package com.scisbo.filesapi.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the Files API on the loopback interface.
+ * <p>
+ * Serves the multipart upload and access token endpoints as well as the resumable upload session protocol.
+ * Request bodies are drained and discarded; every call answers with a canned response after an optional
+ * simulated service latency. Benchmarks using it fork with {@code -Dsun.net.httpserver.nodelay=true}; with
+ * Nagle's algorithm on, small responses wait for delayed ACKs and every call measures tens of milliseconds.
+ */
+final class LoopbackServer implements AutoCloseable {
+    
+    private static final String API_PATH = "/api/files";
+    
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final byte[] uploadResponse;
+    private final byte[] accessTokenResponse = Responses.accessToken().getBytes(StandardCharsets.UTF_8);
+    private final AtomicLong sessions = new AtomicLong();
+    
+    LoopbackServer(int filesPerResponse, long latencyMillis) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.uploadResponse = Responses.upload(filesPerResponse).getBytes(StandardCharsets.UTF_8);
+        this.executor = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "loopback-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4096);
+        server.createContext(API_PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+    
+    String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + API_PATH;
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            drain(exchange.getRequestBody());
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.endsWith("/access-tokens")) {
+                respond(exchange, accessTokenResponse);
+            } else if (path.endsWith("/uploads") && method.equals("POST")) {
+                respond(exchange, Responses.uploadSession("session-" + sessions.incrementAndGet())
+                        .getBytes(StandardCharsets.UTF_8));
+            } else if (path.contains("/parts/") && method.equals("PUT")) {
+                respond(exchange, new byte[0]);
+            } else {
+                respond(exchange, uploadResponse);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static void drain(InputStream body) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        while (body.read(buffer) != -1) {
+            // Discard
+        }
+    }
+    
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+    
+    @Override
+    public void close() throws InterruptedException {
+        server.stop(0);
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,106 @@
+package com.scisbo.filesapi.benchmarks;
+
+import com.scisbo.filesapi.buffer.BufferPool;
+import com.scisbo.filesapi.config.Compression;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.source.ContentSource;
+import com.scisbo.filesapi.multipart.MultipartBodyPublisher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes multipart bodies into a discarding subscriber. Run with {@code -prof gc} for the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MultipartEncodingBenchmark {
+    
+    @Param({"1024", "65536", "4194304"})
+    private int fileSize;
+    
+    @Param({"1", "16"})
+    private int fileCount;
+    
+    /**
+     * {@code STREAM} encodes in-memory streams, {@code PATH} encodes files on disk
+     */
+    @Param({"STREAM", "PATH"})
+    private String source;
+    
+    @Param({"65536"})
+    private int chunkSize;
+    
+    /**
+     * Bytes one body may lease from a {@link BufferPool}, which gets its chunks back once the body has been
+     * consumed; -1 encodes without a pool
+     */
+    @Param({"-1", "1048576", "134217728"})
+    private long poolBytesPerBody;
+    
+    private BufferPool pool;
+    private byte[] content;
+    private Path directory;
+    private Path[] files;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        pool = poolBytesPerBody >= 0 ? new BufferPool(256L * 1024 * 1024, poolBytesPerBody) : null;
+        content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+        directory = Files.createTempDirectory("multipart-bench");
+        files = new Path[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            files[i] = Files.write(directory.resolve("file-" + i + ".bin"), content);
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(directory);
+    }
+    
+    @Benchmark
+    public long encode() throws IOException {
+        MultipartBodyPublisher publisher = new MultipartBodyPublisher(chunkSize, Compression.NONE, 0, pool);
+        for (int i = 0; i < fileCount; i++) {
+            ContentSource contentSource = source.equals("PATH")
+                    ? ContentSource.of(files[i])
+                    : ContentSource.of(new ByteArrayInputStream(content));
+            publisher.addFile("files", new FileData("file-" + i + ".bin", "application/octet-stream", contentSource));
+        }
+        publisher.addPart("owner", "benchmark");
+        
+        CountingSubscriber subscriber = new CountingSubscriber();
+        publisher.build().subscribe(subscriber);
+        publisher.release(subscriber.getError() == null);
+        if (subscriber.getError() != null) {
+            throw new IOException(subscriber.getError());
+        }
+        return subscriber.getBytes();
+    }
+}
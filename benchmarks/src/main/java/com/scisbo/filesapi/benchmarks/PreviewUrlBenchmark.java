@@ -0,0 +1,76 @@
+package com.scisbo.filesapi.benchmarks;
+
+import com.scisbo.filesapi.api.FilesApiClient;
+import com.scisbo.filesapi.config.FilesApiConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds preview URLs for a page of files sharing one token: with {@code String.format} as the client used to,
+ * one call per file, and in bulk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PreviewUrlBenchmark {
+    
+    private static final String BASE_URL = "https://api.example.com/api/files";
+    
+    @Param({"false", "true"})
+    private boolean encoded;
+    
+    private FilesApiClient client;
+    private List<String> fileIds;
+    private String token;
+    
+    @Setup
+    public void setUp() {
+        client = new FilesApiClient(FilesApiConfig.builder()
+                .apiKey("benchmark")
+                .baseUrl(BASE_URL)
+                .previewUrlEncoding(encoded)
+                .build());
+        fileIds = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            fileIds.add(UUID.randomUUID().toString());
+        }
+        token = "eyJhbGciOiJIUzI1NiJ9." + UUID.randomUUID() + UUID.randomUUID() + ".c2lnbmF0dXJl";
+    }
+    
+    @Benchmark
+    public void format(Blackhole blackhole) {
+        for (String fileId : fileIds) {
+            blackhole.consume(String.format("%s/%s/download?access_token=%s", BASE_URL, fileId, token));
+        }
+    }
+    
+    @Benchmark
+    public void single(Blackhole blackhole) {
+        for (String fileId : fileIds) {
+            blackhole.consume(client.generatePreviewUrl(fileId, token));
+        }
+    }
+    
+    @Benchmark
+    public List<String> bulk() {
+        return client.generatePreviewUrls(fileIds, token);
+    }
+}
@@ -0,0 +1,73 @@
+package com.scisbo.filesapi.benchmarks;
+
+import com.google.gson.Gson;
+import com.scisbo.filesapi.data.response.AccessTokenResponse;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import com.scisbo.filesapi.exception.AccessTokenException;
+import com.scisbo.filesapi.exception.FileUploadException;
+import com.scisbo.filesapi.parse.ResponseParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses upload responses of increasing size and a token response. The stream variants parse the raw UTF-8
+ * bytes as the client receives them; the callback variant never builds the file list.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseParsingBenchmark {
+    
+    @Param({"1", "100", "10000"})
+    private int fileCount;
+    
+    private ResponseParser parser;
+    private String uploadBody;
+    private byte[] uploadBytes;
+    private String accessTokenBody;
+    
+    @Setup
+    public void setUp() {
+        parser = new ResponseParser(new Gson());
+        uploadBody = Responses.upload(fileCount);
+        uploadBytes = uploadBody.getBytes(StandardCharsets.UTF_8);
+        accessTokenBody = Responses.accessToken();
+    }
+    
+    @Benchmark
+    public FileUploadResponse parseUploadResponse() throws FileUploadException {
+        return parser.parseUploadResponse(uploadBody);
+    }
+    
+    @Benchmark
+    public FileUploadResponse parseUploadResponseStream() throws FileUploadException {
+        return parser.parseUploadResponse(new ByteArrayInputStream(uploadBytes));
+    }
+    
+    @Benchmark
+    public FileUploadResponse parseUploadResponseCallback(Blackhole blackhole) throws FileUploadException {
+        return parser.parseUploadResponse(new ByteArrayInputStream(uploadBytes), blackhole::consume);
+    }
+    
+    @Benchmark
+    public AccessTokenResponse parseAccessTokenResponse() throws AccessTokenException {
+        return parser.parseAccessTokenResponse(accessTokenBody);
+    }
+}
@@ -0,0 +1,102 @@
+package com.scisbo.filesapi.benchmarks;
+
+import com.scisbo.filesapi.api.FilesApiClient;
+import com.scisbo.filesapi.api.ResumableUploader;
+import com.scisbo.filesapi.builder.FileDataBuilder;
+import com.scisbo.filesapi.builder.FileUploadRequestBuilder;
+import com.scisbo.filesapi.config.FilesApiConfig;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import com.scisbo.filesapi.exception.FileUploadException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a single multipart request with a resumable part-by-part upload of the same file on disk
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@State(Scope.Benchmark)
+public class ResumableUploadBenchmark {
+    
+    @Param({"67108864", "268435456"})
+    private long fileSize;
+    
+    @Param({"8388608"})
+    private long partSize;
+    
+    @Param({"1", "4"})
+    private int parallelism;
+    
+    private Path directory;
+    private Path file;
+    private LoopbackServer server;
+    private FilesApiClient client;
+    private ResumableUploader uploader;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("resumable-bench");
+        file = directory.resolve("large.bin");
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < fileSize; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, fileSize - written));
+            }
+        }
+        server = new LoopbackServer(1, 0);
+        client = new FilesApiClient(FilesApiConfig.builder()
+                .apiKey("benchmark")
+                .baseUrl(server.baseUrl())
+                .build());
+        uploader = new ResumableUploader(client, directory.resolve("journal"), partSize, parallelism);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        server.close();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory.resolve("journal"));
+        Files.deleteIfExists(directory);
+    }
+    
+    @Benchmark
+    public FileUploadResponse singleRequest() throws FileUploadException {
+        return client.uploadFiles(FileUploadRequestBuilder.builder()
+                .path("/benchmark")
+                .addFile(fileData())
+                .build());
+    }
+    
+    @Benchmark
+    public FileUploadResponse resumable() throws FileUploadException {
+        return uploader.upload("/benchmark", fileData(), Map.of());
+    }
+    
+    private FileData fileData() {
+        return FileDataBuilder.builder().file(file).build();
+    }
+}
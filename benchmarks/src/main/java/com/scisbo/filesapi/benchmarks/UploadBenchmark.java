@@ -0,0 +1,83 @@
+package com.scisbo.filesapi.benchmarks;
+
+import com.scisbo.filesapi.api.FilesApiClient;
+import com.scisbo.filesapi.builder.FileDataBuilder;
+import com.scisbo.filesapi.builder.FileUploadRequestBuilder;
+import com.scisbo.filesapi.config.FilesApiConfig;
+import com.scisbo.filesapi.data.response.AccessTokenResponse;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import com.scisbo.filesapi.exception.AccessTokenException;
+import com.scisbo.filesapi.exception.FileUploadException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end {@code uploadFiles} and {@code requestAccessToken} calls against a loopback server
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@State(Scope.Benchmark)
+public class UploadBenchmark {
+    
+    @Param({"1024", "1048576"})
+    private int fileSize;
+    
+    @Param({"1", "8"})
+    private int fileCount;
+    
+    private byte[] content;
+    private LoopbackServer server;
+    private FilesApiClient client;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+        server = new LoopbackServer(fileCount, 0);
+        client = new FilesApiClient(FilesApiConfig.builder()
+                .apiKey("benchmark")
+                .baseUrl(server.baseUrl())
+                .build());
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        server.close();
+    }
+    
+    @Benchmark
+    public FileUploadResponse uploadFiles() throws FileUploadException {
+        FileUploadRequestBuilder request = FileUploadRequestBuilder.builder().path("/benchmark");
+        for (int i = 0; i < fileCount; i++) {
+            request.addFile(FileDataBuilder.builder()
+                    .filename("file-" + i + ".bin")
+                    .content(new ByteArrayInputStream(content))
+                    .build());
+        }
+        return client.uploadFiles(request.build());
+    }
+    
+    @Benchmark
+    public AccessTokenResponse requestAccessToken() throws AccessTokenException {
+        return client.requestAccessToken("file-id");
+    }
+}
@@ -0,0 +1,139 @@
+package com.scisbo.filesapi.api;
+
+import com.scisbo.filesapi.data.response.AccessTokenResponse;
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects single-file access token requests into multi-file requests.
+ * <p>
+ * Requests with the same user ID and duration that arrive within {@code window} of the first one, up to
+ * {@code maxBatchSize} file IDs, are sent as one access token request. Every caller's future completes with
+ * the shared response, whose token covers all files of the batch.
+ */
+public class AccessTokenBatcher {
+    
+    private final BatchLoader loader;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final Executor flushExecutor;
+    private final Map<BatchKey, Batch> open = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    
+    /**
+     * Creates a batcher that sends batches whose window has closed on {@code executor}
+     */
+    public AccessTokenBatcher(BatchLoader loader, Duration window, int maxBatchSize, Executor executor) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.loader = loader;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.flushExecutor = CompletableFuture.delayedExecutor(windowNanos, TimeUnit.NANOSECONDS, executor);
+    }
+    
+    /**
+     * Sends one access token request for a batch of file IDs
+     */
+    @FunctionalInterface
+    public interface BatchLoader {
+        CompletableFuture<AccessTokenResponse> load(List<String> fileIds, String userId, Duration duration);
+    }
+    
+    /**
+     * Queues a file ID for the next batch of its user ID and duration
+     */
+    public CompletableFuture<AccessTokenResponse> request(String fileId, String userId, Duration duration) {
+        BatchKey key = new BatchKey(userId, duration);
+        CompletableFuture<AccessTokenResponse> future = new CompletableFuture<>();
+        Batch full = null;
+        boolean schedule = false;
+        Batch batch;
+        
+        lock.lock();
+        try {
+            batch = open.get(key);
+            if (batch == null) {
+                batch = new Batch();
+                open.put(key, batch);
+                schedule = true;
+            }
+            batch.fileIds.add(fileId);
+            batch.waiters.add(future);
+            if (batch.fileIds.size() >= maxBatchSize) {
+                open.remove(key);
+                full = batch;
+            }
+        } finally {
+            lock.unlock();
+        }
+        
+        if (full != null) {
+            send(key, full);
+        } else if (schedule) {
+            Batch scheduled = batch;
+            flushExecutor.execute(() -> flush(key, scheduled));
+        }
+        return future;
+    }
+    
+    /**
+     * Sends a batch when its window closes, unless it was already sent for being full
+     */
+    private void flush(BatchKey key, Batch batch) {
+        boolean removed;
+        lock.lock();
+        try {
+            removed = open.remove(key, batch);
+        } finally {
+            lock.unlock();
+        }
+        if (removed) {
+            send(key, batch);
+        }
+    }
+    
+    private void send(BatchKey key, Batch batch) {
+        CompletableFuture<AccessTokenResponse> response;
+        try {
+            response = loader.load(new ArrayList<>(batch.fileIds), key.userId, key.duration);
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((result, error) -> {
+            for (CompletableFuture<AccessTokenResponse> waiter : batch.waiters) {
+                if (error != null) {
+                    waiter.completeExceptionally(error);
+                } else {
+                    waiter.complete(result);
+                }
+            }
+        });
+    }
+    
+    @Value
+    private static class BatchKey {
+        String userId;
+        Duration duration;
+    }
+    
+    /**
+     * File IDs and callers of one pending request; guarded by the batcher lock while it is in the open map
+     */
+    private static final class Batch {
+        private final Set<String> fileIds = new LinkedHashSet<>();
+        private final List<CompletableFuture<AccessTokenResponse>> waiters = new ArrayList<>();
+    }
+}
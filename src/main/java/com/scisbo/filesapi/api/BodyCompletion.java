@@ -0,0 +1,69 @@
+package com.scisbo.filesapi.api;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Runs a callback once a response body has been fully received, has failed or was abandoned by its reader.
+ * The callback may run more than once and must be idempotent.
+ */
+final class BodyCompletion {
+    
+    private BodyCompletion() {
+    }
+    
+    static <T> HttpResponse.BodyHandler<T> onDone(HttpResponse.BodyHandler<T> handler, Runnable done) {
+        return responseInfo -> new Subscriber<>(handler.apply(responseInfo), done);
+    }
+    
+    private static final class Subscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> delegate;
+        private final Runnable done;
+        
+        Subscriber(HttpResponse.BodySubscriber<T> delegate, Runnable done) {
+            this.delegate = delegate;
+            this.done = done;
+        }
+        
+        @Override
+        public CompletionStage<T> getBody() {
+            return delegate.getBody();
+        }
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            delegate.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    subscription.request(n);
+                }
+                
+                @Override
+                public void cancel() {
+                    done.run();
+                    subscription.cancel();
+                }
+            });
+        }
+        
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            delegate.onNext(items);
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            done.run();
+            delegate.onError(throwable);
+        }
+        
+        @Override
+        public void onComplete() {
+            done.run();
+            delegate.onComplete();
+        }
+    }
+}
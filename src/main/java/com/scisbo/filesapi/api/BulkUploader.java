@@ -0,0 +1,267 @@
+package com.scisbo.filesapi.api;
+
+import com.scisbo.filesapi.builder.FileDataBuilder;
+import com.scisbo.filesapi.builder.FileUploadRequestBuilder;
+import com.scisbo.filesapi.data.file.FileInfo;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.request.FileUploadRequest;
+import com.scisbo.filesapi.data.response.BulkUploadResult;
+import com.scisbo.filesapi.data.response.BulkUploadSummary;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import com.scisbo.filesapi.exception.FileUploadException;
+import com.scisbo.filesapi.exception.FilesApiException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Uploads large numbers of files by splitting them into requests and running a bounded number of requests at a time.
+ * <p>
+ * Files are pulled from the source only when a request slot is free, so open file handles and buffered data
+ * stay bounded by {@code (concurrency + 1) * maxFilesPerRequest} however many files are uploaded. A request
+ * is closed once it holds {@code maxFilesPerRequest} files or adding the next file would exceed
+ * {@code maxBytesPerRequest}; files of unknown length count against the file limit only.
+ */
+public class BulkUploader {
+    
+    private static final Logger logger = Logger.getLogger(BulkUploader.class.getName());
+    
+    private static final String UNKNOWN_RESULT = "No upload result returned for file";
+    
+    private final FilesApiClient client;
+    private final int maxFilesPerRequest;
+    private final long maxBytesPerRequest;
+    private final int concurrency;
+    
+    public BulkUploader(FilesApiClient client) {
+        this(client, 100, 64L * 1024 * 1024, 4);
+    }
+    
+    public BulkUploader(FilesApiClient client, int maxFilesPerRequest, long maxBytesPerRequest, int concurrency) {
+        if (maxFilesPerRequest <= 0 || maxBytesPerRequest <= 0 || concurrency <= 0) {
+            throw new IllegalArgumentException("Bulk upload limits must be positive");
+        }
+        this.client = client;
+        this.maxFilesPerRequest = maxFilesPerRequest;
+        this.maxBytesPerRequest = maxBytesPerRequest;
+        this.concurrency = concurrency;
+    }
+    
+    /**
+     * Uploads files from disk. Results are delivered one at a time, in completion order.
+     */
+    public BulkUploadSummary uploadPaths(String path, Stream<Path> files, Map<String, String> metadata,
+                                         Consumer<BulkUploadResult> onResult) throws FileUploadException {
+        return upload(path, files.map(BulkUploader::toFileData), metadata, onResult);
+    }
+    
+    /**
+     * Uploads a stream of files. Results are delivered one at a time, in completion order.
+     */
+    public BulkUploadSummary upload(String path, Stream<FileData> files, Map<String, String> metadata,
+                                    Consumer<BulkUploadResult> onResult) throws FileUploadException {
+        return upload(path, files.iterator(), metadata, onResult);
+    }
+    
+    /**
+     * Uploads files from an iterator and blocks until every request has finished. Results are delivered one
+     * at a time, in completion order; a failed request reports a failure for each of its files, including one
+     * that fails before it is sent. An exception thrown by {@code onResult} is logged and does not stop the
+     * upload. If {@code files} throws, the requests already started are waited for before the exception is
+     * rethrown, so no result is delivered after this method returns.
+     */
+    public BulkUploadSummary upload(String path, Iterator<FileData> files, Map<String, String> metadata,
+                                    Consumer<BulkUploadResult> onResult) throws FileUploadException {
+        Run run = new Run(path, metadata, onResult);
+        List<FileData> batch = new ArrayList<>();
+        long batchBytes = 0;
+        
+        try {
+            while (files.hasNext()) {
+                FileData file = files.next();
+                long length;
+                try {
+                    length = Math.max(0, file.getSource().length());
+                } catch (IOException e) {
+                    run.deliver(file, null, new FileUploadException("Failed to read size of " + file.getFilename(), e));
+                    continue;
+                }
+                if (!batch.isEmpty() && (batch.size() >= maxFilesPerRequest || batchBytes + length > maxBytesPerRequest)) {
+                    run.submit(batch);
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                }
+                batch.add(file);
+                batchBytes += length;
+            }
+            if (!batch.isEmpty()) {
+                run.submit(batch);
+            }
+            run.awaitAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileUploadException("Interrupted during bulk upload", e);
+        } catch (RuntimeException e) {
+            run.awaitAllUninterruptibly();
+            throw e;
+        }
+        
+        return new BulkUploadSummary(run.requests.sum(), run.succeeded.sum(), run.failed.sum());
+    }
+    
+    private static FileData toFileData(Path file) {
+        String contentType;
+        try {
+            contentType = Files.probeContentType(file);
+        } catch (IOException e) {
+            contentType = null;
+        }
+        return FileDataBuilder.builder()
+                .file(file)
+                .contentType(contentType)
+                .build();
+    }
+    
+    /**
+     * State of one bulk upload call
+     */
+    private final class Run {
+        private final String path;
+        private final Map<String, String> metadata;
+        private final Consumer<BulkUploadResult> onResult;
+        private final Semaphore slots = new Semaphore(concurrency);
+        private final ReentrantLock deliveryLock = new ReentrantLock();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        
+        Run(String path, Map<String, String> metadata, Consumer<BulkUploadResult> onResult) {
+            this.path = path;
+            this.metadata = metadata;
+            this.onResult = onResult;
+        }
+        
+        /**
+         * Starts a request, waiting for a free slot first. A request that cannot be started reports a failure
+         * for each of its files and frees its slot again.
+         */
+        void submit(List<FileData> batch) throws InterruptedException {
+            slots.acquire();
+            requests.increment();
+            CompletableFuture<FileUploadResponse> upload;
+            try {
+                FileUploadRequest request = FileUploadRequestBuilder.builder()
+                        .path(path)
+                        .addFiles(batch)
+                        .addMetadata(metadata)
+                        .build();
+                upload = client.uploadFilesAsync(request);
+            } catch (RuntimeException e) {
+                try {
+                    FilesApiException cause = toException(e);
+                    batch.forEach(file -> deliver(file, null, cause));
+                } finally {
+                    slots.release();
+                }
+                return;
+            }
+            upload.whenComplete((response, error) -> {
+                try {
+                    if (error != null) {
+                        FilesApiException cause = toException(error);
+                        batch.forEach(file -> deliver(file, null, cause));
+                    } else {
+                        deliverAll(batch, response);
+                    }
+                } finally {
+                    slots.release();
+                }
+            });
+        }
+        
+        void awaitAll() throws InterruptedException {
+            slots.acquire(concurrency);
+            slots.release(concurrency);
+        }
+        
+        void awaitAllUninterruptibly() {
+            slots.acquireUninterruptibly(concurrency);
+            slots.release(concurrency);
+        }
+        
+        private void deliverAll(List<FileData> batch, FileUploadResponse response) {
+            if (!response.isSuccess()) {
+                FileUploadException cause = new FileUploadException(response.getMessage());
+                batch.forEach(file -> deliver(file, null, cause));
+                return;
+            }
+            List<FileInfo> uploaded = new ArrayList<>(response.getUploadedFiles());
+            if (uploaded.size() == batch.size()) {
+                for (int i = 0; i < batch.size(); i++) {
+                    deliver(batch.get(i), uploaded.get(i), null);
+                }
+                return;
+            }
+            for (FileData file : batch) {
+                FileInfo match = takeByFilename(uploaded, file.getFilename());
+                deliver(file, match, match != null ? null : new FileUploadException(UNKNOWN_RESULT));
+            }
+        }
+        
+        void deliver(FileData file, FileInfo fileInfo, FilesApiException error) {
+            if (error == null) {
+                succeeded.increment();
+            } else {
+                failed.increment();
+            }
+            if (onResult == null) {
+                return;
+            }
+            deliveryLock.lock();
+            try {
+                onResult.accept(new BulkUploadResult(file, fileInfo, error));
+            } catch (RuntimeException e) {
+                // Usually runs on a completion thread, where the exception would be lost
+                logger.log(Level.WARNING, "Bulk upload result callback failed for " + file.getFilename(), e);
+            } finally {
+                deliveryLock.unlock();
+            }
+        }
+    }
+    
+    private static FileInfo takeByFilename(List<FileInfo> uploaded, String filename) {
+        Iterator<FileInfo> iterator = uploaded.iterator();
+        while (iterator.hasNext()) {
+            FileInfo fileInfo = iterator.next();
+            if (fileInfo.getOriginalFilename().equals(filename)) {
+                iterator.remove();
+                return fileInfo;
+            }
+        }
+        return null;
+    }
+    
+    private static FilesApiException toException(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof FilesApiException) {
+            return (FilesApiException) error;
+        }
+        return new FileUploadException("Failed to upload files", error);
+    }
+}
@@ -0,0 +1,100 @@
+package com.scisbo.filesapi.api;
+
+import com.scisbo.filesapi.trace.RequestTrace;
+import com.scisbo.filesapi.trace.TraceListener;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the phases of one client call while it runs and reports them once it has finished. Only created
+ * when tracing is enabled.
+ */
+final class CallTrace {
+    
+    private static final Logger logger = Logger.getLogger(CallTrace.class.getName());
+    
+    private final Operation operation;
+    private final TraceListener listener;
+    private final RequestEvent event;
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private volatile ExchangeMeter attempt;
+    private volatile long parseStartNanos;
+    
+    CallTrace(Operation operation, TraceListener listener, boolean jfrEvents) {
+        this.operation = operation;
+        this.listener = listener;
+        RequestEvent requestEvent = jfrEvents ? new RequestEvent() : null;
+        if (requestEvent != null && requestEvent.isEnabled()) {
+            requestEvent.begin();
+            this.event = requestEvent;
+        } else {
+            this.event = null;
+        }
+    }
+    
+    void attemptStarted() {
+        attempts.incrementAndGet();
+    }
+    
+    /**
+     * Keeps the phases of a finished attempt. An attempt that got a response is not replaced by a later one
+     * without, such as a cancelled hedge.
+     */
+    void attemptFinished(ExchangeMeter meter) {
+        ExchangeMeter current = attempt;
+        if (current == null || meter.statusCode() >= 0 || current.statusCode() < 0) {
+            attempt = meter;
+        }
+    }
+    
+    /**
+     * Marks the start of response parsing
+     */
+    void parsing() {
+        parseStartNanos = System.nanoTime();
+    }
+    
+    void finish(Throwable error) {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        long now = System.nanoTime();
+        long parseStart = parseStartNanos;
+        long parseNanos = parseStart != 0 && error == null ? now - parseStart : 0;
+        ExchangeMeter meter = attempt;
+        RequestTrace trace = meter != null
+                ? new RequestTrace(operation, meter.statusCode(), attempts.get(), meter.encodeNanos(),
+                        meter.sendNanos(), meter.timeToFirstByteNanos(), meter.receiveNanos(), parseNanos,
+                        now - startNanos, meter.bytesSent(), meter.bytesReceived(), error)
+                : new RequestTrace(operation, -1, attempts.get(), 0, 0, 0, 0, 0, now - startNanos, 0, 0, error);
+        if (listener != null) {
+            try {
+                listener.onTrace(trace);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Trace listener failed", e);
+            }
+        }
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation.name();
+                event.statusCode = trace.getStatusCode();
+                event.attempts = trace.getAttempts();
+                event.encode = trace.getEncodeNanos();
+                event.send = trace.getSendNanos();
+                event.timeToFirstByte = trace.getTimeToFirstByteNanos();
+                event.receive = trace.getReceiveNanos();
+                event.parse = trace.getParseNanos();
+                event.bytesSent = trace.getBytesSent();
+                event.bytesReceived = trace.getBytesReceived();
+                event.error = error != null ? error.toString() : null;
+                event.commit();
+            }
+        }
+    }
+}
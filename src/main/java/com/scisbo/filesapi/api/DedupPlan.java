@@ -0,0 +1,188 @@
+package com.scisbo.filesapi.api;
+
+import com.scisbo.filesapi.data.file.FileInfo;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.request.FileUploadRequest;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import com.scisbo.filesapi.dedup.ContentHash;
+import com.scisbo.filesapi.dedup.DedupIndex;
+import com.scisbo.filesapi.dedup.HashingSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Splits one upload request into files already known to the {@link DedupIndex} and files that must be sent.
+ * <p>
+ * Repeatable sources are hashed up front, so known content is never sent. One-shot streams cannot be looked
+ * up without consuming them; they are always sent, hashed while they are encoded, and recorded afterwards.
+ */
+final class DedupPlan {
+    
+    private static final Logger logger = Logger.getLogger(DedupPlan.class.getName());
+    
+    private final DedupIndex index;
+    private final FileUploadRequest request;
+    private final FileInfo[] known;
+    private final String[] hashes;
+    private final List<Integer> pending = new ArrayList<>();
+    private final List<FileData> uploads = new ArrayList<>();
+    
+    private DedupPlan(DedupIndex index, FileUploadRequest request) {
+        this.index = index;
+        this.request = request;
+        this.known = new FileInfo[request.getFiles().size()];
+        this.hashes = new String[known.length];
+    }
+    
+    /**
+     * Hashes repeatable files and looks them up; reads each file once
+     */
+    static DedupPlan prepare(DedupIndex index, FileUploadRequest request) throws IOException {
+        DedupPlan plan = new DedupPlan(index, request);
+        List<FileData> files = request.getFiles();
+        for (int i = 0; i < files.size(); i++) {
+            FileData file = files.get(i);
+            if (file.getSource().isRepeatable()) {
+                plan.hashes[i] = ContentHash.of(file.getSource());
+                plan.known[i] = plan.lookup(plan.hashes[i], file.getFilename());
+                if (plan.known[i] == null) {
+                    plan.pending.add(i);
+                    plan.uploads.add(file);
+                }
+            } else {
+                plan.pending.add(i);
+                plan.uploads.add(new FileData(file.getFilename(), file.getContentType(), new HashingSource(file.getSource())));
+            }
+        }
+        return plan;
+    }
+    
+    /**
+     * Whether every file is already known, so nothing needs to be sent
+     */
+    boolean isComplete() {
+        return pending.isEmpty();
+    }
+    
+    /**
+     * Returns the request carrying only the files that must be sent
+     */
+    FileUploadRequest uploadRequest() {
+        return new FileUploadRequest(request.getPath(), uploads, request.getMetadata());
+    }
+    
+    /**
+     * Answers a request whose files are all known, without any network I/O
+     */
+    FileUploadResponse completed(Consumer<FileInfo> onFile) {
+        List<FileInfo> files = List.of(known);
+        if (onFile == null) {
+            return new FileUploadResponse(true, "Upload successful", files);
+        }
+        files.forEach(onFile);
+        return new FileUploadResponse(true, "Upload successful", List.of());
+    }
+    
+    /**
+     * Delivers the known files to {@code onFile} now and returns a callback that records each uploaded file
+     * before passing it on
+     */
+    Consumer<FileInfo> streaming(Consumer<FileInfo> onFile) {
+        for (FileInfo fileInfo : known) {
+            if (fileInfo != null) {
+                onFile.accept(fileInfo);
+            }
+        }
+        boolean[] matched = new boolean[uploads.size()];
+        int[] next = {0};
+        return fileInfo -> {
+            int upload = match(fileInfo, next[0]++, matched);
+            if (upload >= 0) {
+                record(upload, fileInfo);
+            }
+            onFile.accept(fileInfo);
+        };
+    }
+    
+    /**
+     * Records the uploaded files and merges them with the known ones in request order; uploaded files that
+     * match no request file are appended
+     */
+    FileUploadResponse merge(FileUploadResponse response) {
+        if (!response.isSuccess()) {
+            return response;
+        }
+        List<FileInfo> uploaded = response.getUploadedFiles();
+        FileInfo[] results = known.clone();
+        boolean[] matched = new boolean[uploads.size()];
+        List<FileInfo> unmatched = new ArrayList<>();
+        for (int i = 0; i < uploaded.size(); i++) {
+            FileInfo fileInfo = uploaded.get(i);
+            int upload = match(fileInfo, i, matched);
+            if (upload < 0) {
+                unmatched.add(fileInfo);
+                continue;
+            }
+            record(upload, fileInfo);
+            results[pending.get(upload)] = fileInfo;
+        }
+        
+        List<FileInfo> merged = new ArrayList<>(results.length + unmatched.size());
+        for (FileInfo fileInfo : results) {
+            if (fileInfo != null) {
+                merged.add(fileInfo);
+            }
+        }
+        merged.addAll(unmatched);
+        return new FileUploadResponse(true, response.getMessage(), merged);
+    }
+    
+    /**
+     * Finds the upload a returned file belongs to: by position when the filename agrees, otherwise by the
+     * first unmatched upload with that filename
+     */
+    private int match(FileInfo fileInfo, int position, boolean[] matched) {
+        String filename = fileInfo.getOriginalFilename();
+        if (position < uploads.size() && !matched[position]
+                && uploads.get(position).getFilename().equals(filename)) {
+            matched[position] = true;
+            return position;
+        }
+        for (int i = 0; i < uploads.size(); i++) {
+            if (!matched[i] && uploads.get(i).getFilename().equals(filename)) {
+                matched[i] = true;
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private void record(int upload, FileInfo fileInfo) {
+        String hash = hashes[pending.get(upload)];
+        if (hash == null && uploads.get(upload).getSource() instanceof HashingSource) {
+            hash = ((HashingSource) uploads.get(upload).getSource()).getHash();
+        }
+        if (hash == null) {
+            return;
+        }
+        try {
+            index.put(hash, request.getPath(), fileInfo);
+        } catch (UncheckedIOException e) {
+            logger.warning("Failed to record upload in dedup index: " + e.getMessage());
+        }
+    }
+    
+    private FileInfo lookup(String hash, String filename) {
+        try {
+            return index.get(hash, request.getPath(), filename);
+        } catch (UncheckedIOException e) {
+            logger.warning("Failed to read dedup index: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.scisbo.filesapi.api;
+
+import com.scisbo.filesapi.metrics.FilesApiMetrics;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Measures one HTTP attempt: counts request and response body bytes as they pass through and reports the
+ * attempt as complete once the response body is fully received, has failed or was abandoned. With a
+ * {@link CallTrace} it also takes the time of each phase and hands itself to the trace when done.
+ */
+final class ExchangeMeter {
+    
+    private final FilesApiMetrics metrics;
+    private final Operation operation;
+    private final CallTrace trace;
+    private final long startNanos;
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private volatile long encodeNanos;
+    private volatile long requestSentNanos;
+    private volatile long headersNanos;
+    private volatile long receivedNanos;
+    private volatile long bytesSent;
+    private volatile long bytesReceived;
+    private volatile int statusCode = -1;
+    
+    ExchangeMeter(FilesApiMetrics metrics, Operation operation, CallTrace trace) {
+        this.metrics = metrics;
+        this.operation = operation;
+        this.trace = trace;
+        metrics.requestStarted(operation);
+        if (trace != null) {
+            trace.attemptStarted();
+        }
+        this.startNanos = System.nanoTime();
+    }
+    
+    /**
+     * Returns a copy of the request whose body is counted as it is sent
+     */
+    HttpRequest request(HttpRequest request) {
+        if (request.bodyPublisher().isEmpty()) {
+            return request;
+        }
+        HttpRequest.BodyPublisher body = request.bodyPublisher().get();
+        return HttpRequest.newBuilder(request, (name, value) -> true)
+                .method(request.method(), new CountingPublisher(body))
+                .build();
+    }
+    
+    <T> HttpResponse.BodyHandler<T> handler(HttpResponse.BodyHandler<T> handler) {
+        return responseInfo -> {
+            if (trace != null) {
+                headersNanos = System.nanoTime();
+            }
+            return new CountingSubscriber<>(handler.apply(responseInfo), responseInfo.statusCode());
+        };
+    }
+    
+    /**
+     * Records an attempt that got no response
+     */
+    void failed() {
+        finish(-1, -1);
+    }
+    
+    int statusCode() {
+        return statusCode;
+    }
+    
+    long encodeNanos() {
+        return encodeNanos;
+    }
+    
+    long sendNanos() {
+        long sent = requestSentNanos;
+        return sent != 0 ? sent - startNanos : 0;
+    }
+    
+    long timeToFirstByteNanos() {
+        long headers = headersNanos;
+        return headers != 0 ? headers - startNanos : 0;
+    }
+    
+    long receiveNanos() {
+        long headers = headersNanos;
+        long received = receivedNanos;
+        return headers != 0 && received != 0 ? received - headers : 0;
+    }
+    
+    long bytesSent() {
+        return bytesSent;
+    }
+    
+    long bytesReceived() {
+        return bytesReceived;
+    }
+    
+    private void finish(int statusCode, long bytesReceived) {
+        if (finished.compareAndSet(false, true)) {
+            long now = System.nanoTime();
+            if (bytesReceived >= 0) {
+                metrics.bytesReceived(operation, bytesReceived);
+            }
+            metrics.requestCompleted(operation, statusCode, now - startNanos);
+            if (trace != null) {
+                this.statusCode = statusCode;
+                this.bytesReceived = Math.max(0, bytesReceived);
+                if (statusCode >= 0) {
+                    receivedNanos = now;
+                }
+                trace.attemptFinished(this);
+            }
+        }
+    }
+    
+    private final class CountingPublisher implements HttpRequest.BodyPublisher {
+        private final HttpRequest.BodyPublisher delegate;
+        
+        CountingPublisher(HttpRequest.BodyPublisher delegate) {
+            this.delegate = delegate;
+        }
+        
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+        
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            delegate.subscribe(new Flow.Subscriber<ByteBuffer>() {
+                private final EncodeClock clock = trace != null ? new EncodeClock() : null;
+                private long bytes;
+                
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscriber.onSubscribe(clock != null ? clock.wrap(subscription) : subscription);
+                }
+                
+                @Override
+                public void onNext(ByteBuffer item) {
+                    bytes += item.remaining();
+                    if (clock != null) {
+                        clock.received();
+                    }
+                    subscriber.onNext(item);
+                    if (clock != null) {
+                        clock.delivered();
+                    }
+                }
+                
+                @Override
+                public void onError(Throwable throwable) {
+                    metrics.bytesSent(operation, bytes);
+                    subscriber.onError(throwable);
+                }
+                
+                @Override
+                public void onComplete() {
+                    metrics.bytesSent(operation, bytes);
+                    if (clock != null) {
+                        clock.received();
+                        bytesSent = bytes;
+                        requestSentNanos = System.nanoTime();
+                    }
+                    subscriber.onComplete();
+                }
+            });
+        }
+    }
+    
+    /**
+     * Adds up the time the HTTP client spends with unmet demand for request body chunks, which is the time the
+     * body publisher takes to produce them. Demand may be signalled from another thread than the one emitting.
+     */
+    private final class EncodeClock {
+        private final ReentrantLock lock = new ReentrantLock();
+        private long outstanding;
+        private long waitingSince;
+        
+        Flow.Subscription wrap(Flow.Subscription subscription) {
+            return new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    requested(n);
+                    subscription.request(n);
+                }
+                
+                @Override
+                public void cancel() {
+                    subscription.cancel();
+                }
+            };
+        }
+        
+        private void requested(long n) {
+            lock.lock();
+            try {
+                if (outstanding == 0 && n > 0) {
+                    waitingSince = System.nanoTime();
+                }
+                outstanding = outstanding + n < 0 ? Long.MAX_VALUE : outstanding + n;
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        /**
+         * Stops the clock when a chunk or the end of the body arrives
+         */
+        void received() {
+            lock.lock();
+            try {
+                if (waitingSince != 0) {
+                    encodeNanos += System.nanoTime() - waitingSince;
+                    waitingSince = 0;
+                }
+                if (outstanding > 0 && outstanding != Long.MAX_VALUE) {
+                    outstanding--;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        /**
+         * Restarts the clock after the client took a chunk, if it still wants more
+         */
+        void delivered() {
+            lock.lock();
+            try {
+                if (outstanding > 0 && waitingSince == 0) {
+                    waitingSince = System.nanoTime();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    private final class CountingSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> delegate;
+        private final int statusCode;
+        private long bytes;
+        
+        CountingSubscriber(HttpResponse.BodySubscriber<T> delegate, int statusCode) {
+            this.delegate = delegate;
+            this.statusCode = statusCode;
+        }
+        
+        @Override
+        public CompletionStage<T> getBody() {
+            return delegate.getBody();
+        }
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            delegate.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    subscription.request(n);
+                }
+                
+                @Override
+                public void cancel() {
+                    // The body was abandoned before the end, e.g. a closed response stream
+                    finish(statusCode, bytes);
+                    subscription.cancel();
+                }
+            });
+        }
+        
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            for (ByteBuffer item : items) {
+                bytes += item.remaining();
+            }
+            delegate.onNext(items);
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            finish(statusCode, bytes);
+            delegate.onError(throwable);
+        }
+        
+        @Override
+        public void onComplete() {
+            finish(statusCode, bytes);
+            delegate.onComplete();
+        }
+    }
+}
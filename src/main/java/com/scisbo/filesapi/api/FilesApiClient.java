@@ -1,39 +1,72 @@
 package com.scisbo.filesapi.api;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
 import com.scisbo.filesapi.builder.AccessTokenRequestBuilder;
+import com.scisbo.filesapi.cache.AccessTokenCache;
 import com.scisbo.filesapi.builder.FileDataBuilder;
 import com.scisbo.filesapi.builder.FileUploadRequestBuilder;
+import com.scisbo.filesapi.config.ExecutionMode;
 import com.scisbo.filesapi.config.FilesApiConfig;
 import com.scisbo.filesapi.data.file.FileInfo;
-import com.scisbo.filesapi.data.file.FileType;
 import com.scisbo.filesapi.data.request.AccessTokenRequest;
 import com.scisbo.filesapi.data.request.FileData;
 import com.scisbo.filesapi.data.request.FileUploadRequest;
 import com.scisbo.filesapi.data.response.AccessTokenResponse;
 import com.scisbo.filesapi.data.response.FileUploadResponse;
+import com.scisbo.filesapi.dedup.DedupIndex;
 import com.scisbo.filesapi.exception.AccessTokenException;
+import com.scisbo.filesapi.exception.AccessTokenRejectedException;
 import com.scisbo.filesapi.exception.FileUploadException;
+import com.scisbo.filesapi.exception.FilesApiException;
+import com.scisbo.filesapi.exception.UploadRejectedException;
+import com.scisbo.filesapi.hedge.Hedger;
+import com.scisbo.filesapi.limit.AdaptiveLimiter;
+import com.scisbo.filesapi.limit.ConcurrencyLimiter;
+import com.scisbo.filesapi.limit.HostConcurrencyLimiter;
+import com.scisbo.filesapi.metrics.FilesApiMetrics;
+import com.scisbo.filesapi.multipart.MultipartBodyPublisher;
+import com.scisbo.filesapi.parse.ResponseParser;
+import com.scisbo.filesapi.retry.Retrier;
+import com.scisbo.filesapi.retry.RetryBudget;
+import com.scisbo.filesapi.retry.RetryListener;
+import com.scisbo.filesapi.retry.RetryPolicy;
+import com.scisbo.filesapi.retry.RetryScope;
+import com.scisbo.filesapi.retry.RetryStats;
+import com.scisbo.filesapi.spill.StreamSpiller;
+import com.scisbo.filesapi.trace.TraceListener;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.*;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 /**
- * Production-ready Files API client with proper error handling, logging, and async support
+ * Production-ready Files API client with proper error handling, logging, and async support.
+ * <p>
+ * The client holds no monitors around blocking calls, so blocking methods can be called from virtual threads
+ * without pinning their carrier threads.
  */
 public class FilesApiClient {
     
@@ -42,76 +75,238 @@ public class FilesApiClient {
     private final FilesApiConfig config;
     private final HttpClient httpClient;
     private final Gson gson;
+    private final ResponseParser parser;
+    private final Executor executor;
+    private final Executor callbackExecutor;
+    private final boolean virtualThreads;
+    private final Retrier retrier;
+    private final AccessTokenCache tokenCache;
+    private final AccessTokenBatcher tokenBatcher;
+    private final Hedger tokenHedger;
+    private final FilesApiMetrics metrics;
+    private final DedupIndex dedupIndex;
+    private final StreamSpiller spiller;
+    private final PreviewUrls previewUrls;
+    private final HostConcurrencyLimiter hostLimiter;
+    private final Map<Operation, AdaptiveLimiter> operationLimiters = new EnumMap<>(Operation.class);
+    private final boolean metricsEnabled;
+    private final TraceListener traceListener;
+    private final boolean jfrEvents;
+    private final boolean tracingEnabled;
     
     public FilesApiClient(FilesApiConfig config) {
         this.config = config;
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(config.getConnectionTimeout())
-                .build();
+        this.virtualThreads = config.getExecutor() == null && config.getExecutionMode() == ExecutionMode.VIRTUAL;
+        this.executor = virtualThreads ? VirtualThreads.newExecutor() : config.getExecutor();
+        this.httpClient = config.getHttpClient() != null ? config.getHttpClient() : buildHttpClient(config, executor);
         this.gson = new Gson();
+        this.parser = new ResponseParser(gson, config.getZoneId());
+        this.callbackExecutor = executor != null ? executor : Runnable::run;
+        this.metrics = config.getMetrics();
+        this.dedupIndex = config.getDedupIndex();
+        this.spiller = config.isSpillEnabled()
+                ? new StreamSpiller(config.getSpillThreshold(), config.getSpillDirectory(), config.getBufferPool())
+                : null;
+        this.previewUrls = new PreviewUrls(config.getBaseUrl(), config.isPreviewUrlEncoding());
+        this.hostLimiter = config.getMaxConcurrentRequestsPerHost() > 0
+                ? new HostConcurrencyLimiter(config.getMaxConcurrentRequestsPerHost())
+                : null;
+        if (config.isAdaptiveConcurrencyEnabled()) {
+            for (Operation operation : new Operation[]{Operation.UPLOAD, Operation.ACCESS_TOKEN}) {
+                operationLimiters.put(operation, new AdaptiveLimiter(config.getAdaptiveConcurrencyInitialLimit(),
+                        config.getAdaptiveConcurrencyMinLimit(), config.getAdaptiveConcurrencyMaxLimit(),
+                        config.getAdaptiveConcurrencyQueueSize()));
+            }
+        }
+        this.metricsEnabled = metrics.isEnabled();
+        this.traceListener = config.getTraceListener();
+        this.jfrEvents = config.isJfrEventsEnabled();
+        this.tracingEnabled = traceListener != null || jfrEvents;
+        this.retrier = new Retrier(
+                new RetryPolicy(config.getMaxRetries(), config.getRetryBaseDelay(), config.getRetryMaxDelay()),
+                new RetryBudget(config.getRetryBudgetCapacity(), config.getRetryBudgetRatio()),
+                retryListener(config.getRetryListener()));
+        this.tokenCache = config.isTokenCacheEnabled()
+                ? new AccessTokenCache(config.getTokenCacheMaxSize(), config.getTokenCacheSafetyMargin())
+                : null;
+        this.tokenHedger = config.isTokenHedgingEnabled()
+                ? new Hedger(config.getTokenHedgePercentile(), config.getTokenHedgeMinDelay(),
+                        config.getTokenHedgeBudgetPercent(), callbackExecutor)
+                : null;
+        this.tokenBatcher = config.isTokenBatchingEnabled()
+                ? new AccessTokenBatcher(this::fetchAccessTokenAsync, config.getTokenBatchWindow(),
+                        config.getTokenBatchMaxSize(), callbackExecutor)
+                : null;
     }
     
     /**
      * Uploads files synchronously
      */
     public FileUploadResponse uploadFiles(FileUploadRequest request) throws FileUploadException {
+        return uploadFiles(request, null);
+    }
+    
+    /**
+     * Uploads files synchronously and hands each uploaded file to {@code onFile} while the response is read,
+     * so large results are never collected into one list. The returned response carries the outcome only.
+     */
+    public FileUploadResponse uploadFiles(FileUploadRequest request, Consumer<FileInfo> onFile) throws FileUploadException {
+        if (spiller == null) {
+            return uploadRepeatable(request, onFile);
+        }
+        FileUploadRequest spilled = spill(request);
+        boolean succeeded = false;
         try {
-            if (config.isLoggingEnabled()) {
-                logger.info("Starting file upload for " + request.getFiles().size() + " files");
-            }
-            
-            MultipartBodyPublisher bodyPublisher = new MultipartBodyPublisher();
-            
-            // Add files to multipart body
-            for (FileData file : request.getFiles()) {
-                bodyPublisher.addFile("files", file);
+            FileUploadResponse response = uploadRepeatable(spilled, onFile);
+            succeeded = true;
+            return response;
+        } finally {
+            StreamSpiller.release(spilled, succeeded);
+        }
+    }
+    
+    /**
+     * Deduplicates and uploads a request whose one-shot sources, if any, have been spilled already
+     */
+    private FileUploadResponse uploadRepeatable(FileUploadRequest request, Consumer<FileInfo> onFile)
+            throws FileUploadException {
+        DedupPlan plan = null;
+        if (dedupIndex != null) {
+            try {
+                plan = DedupPlan.prepare(dedupIndex, request);
+            } catch (IOException e) {
+                throw new FileUploadException("Failed to upload files", e);
             }
-            
-            // Add metadata
-            for (Map.Entry<String, String> entry : request.getMetadata().entrySet()) {
-                bodyPublisher.addPart(entry.getKey(), entry.getValue());
+            if (plan.isComplete()) {
+                return plan.completed(onFile);
             }
-            
-            HttpRequest httpRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(config.getBaseUrl() + "?path=" + request.getPath()))
-                    .header("Content-Type", "multipart/form-data; boundary=" + bodyPublisher.getBoundary())
-                    .header("API-KEY", config.getApiKey())
-                    .timeout(config.getReadTimeout())
-                    .POST(bodyPublisher.build())
-                    .build();
-            
-            HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-            
-            if (config.isLoggingEnabled()) {
-                logger.info("Upload response status: " + response.statusCode());
+            request = plan.uploadRequest();
+        }
+        ConcurrencyLimiter.Permit permit = admit(Operation.UPLOAD, UploadRejectedException::new);
+        try {
+            FileUploadResponse response = upload(request, plan, onFile);
+            finish(permit, null);
+            return response;
+        } catch (FileUploadException | RuntimeException e) {
+            finish(permit, e);
+            throw e;
+        }
+    }
+    
+    /**
+     * Sends an upload and handles its response; known files of {@code plan}, if any, are merged in
+     */
+    private FileUploadResponse upload(FileUploadRequest upload, DedupPlan plan, Consumer<FileInfo> onFile)
+            throws FileUploadException {
+        HttpRequest httpRequest;
+        try {
+            httpRequest = buildUploadRequest(upload);
+        } catch (IOException e) {
+            throw new FileUploadException("Failed to upload files", e);
+        }
+        CallTrace trace = startTrace(Operation.UPLOAD);
+        Throwable failure = null;
+        boolean succeeded = false;
+        try {
+            HttpResponse<InputStream> response = retrier.execute(Operation.UPLOAD, uploadScope(upload),
+                    () -> exchange(Operation.UPLOAD, httpRequest, HttpResponse.BodyHandlers.ofInputStream(), trace));
+            if (trace != null) {
+                trace.parsing();
             }
-            
-            if (response.statusCode() >= 200 && response.statusCode() < 300) {
-                return parseUploadResponse(response.body());
+            FileUploadResponse result;
+            if (plan == null) {
+                result = handleUploadResponse(response.statusCode(), response.body(), onFile);
             } else {
-                throw new FileUploadException(
-                    "File upload failed with status: " + response.statusCode(),
-                    response.statusCode(),
-                    response.body()
-                );
+                result = onFile != null
+                        ? handleUploadResponse(response.statusCode(), response.body(), plan.streaming(onFile))
+                        : plan.merge(handleUploadResponse(response.statusCode(), response.body(), null));
             }
+            succeeded = true;
+            return result;
             
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
+            failure = e;
             throw new FileUploadException("Failed to upload files", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+            throw new FileUploadException("Failed to upload files", e);
+        } catch (FileUploadException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            releaseBody(httpRequest, succeeded);
+            if (trace != null) {
+                trace.finish(failure);
+            }
         }
     }
     
     /**
-     * Uploads files asynchronously
+     * Uploads files asynchronously. No thread is held while the request is in flight; the returned future
+     * fails with a {@link FileUploadException}.
      */
     public CompletableFuture<FileUploadResponse> uploadFilesAsync(FileUploadRequest request) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                return uploadFiles(request);
-            } catch (FileUploadException e) {
-                throw new RuntimeException(e);
+        return uploadFilesAsync(request, null);
+    }
+    
+    /**
+     * Uploads files asynchronously and hands each uploaded file to {@code onFile} as the response is parsed.
+     * The returned response carries the outcome only. With spilling enabled, streams are read on the calling
+     * thread before this returns.
+     * <p>
+     * Unlike {@link #uploadFiles(FileUploadRequest, Consumer)}, the response is received in full before it is
+     * parsed, so that no thread waits for its bytes; {@code onFile} therefore runs only once the whole response
+     * has arrived, and the response is held on the heap while it is parsed.
+     */
+    public CompletableFuture<FileUploadResponse> uploadFilesAsync(FileUploadRequest request, Consumer<FileInfo> onFile) {
+        if (spiller == null) {
+            return uploadRepeatableAsync(request, onFile);
+        }
+        FileUploadRequest spilled;
+        try {
+            spilled = spill(request);
+        } catch (FileUploadException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<FileUploadResponse> future = uploadRepeatableAsync(spilled, onFile);
+        future.whenComplete((response, error) -> StreamSpiller.release(spilled, error == null));
+        return future;
+    }
+    
+    private CompletableFuture<FileUploadResponse> uploadRepeatableAsync(FileUploadRequest request,
+                                                                         Consumer<FileInfo> onFile) {
+        DedupPlan plan = null;
+        HttpRequest httpRequest;
+        try {
+            if (dedupIndex != null) {
+                plan = DedupPlan.prepare(dedupIndex, request);
+                if (plan.isComplete()) {
+                    return CompletableFuture.completedFuture(plan.completed(onFile));
+                }
+                request = plan.uploadRequest();
             }
-        });
+            httpRequest = buildUploadRequest(request);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new FileUploadException("Failed to upload files", e));
+        }
+        CompletableFuture<FileUploadResponse> future;
+        if (plan == null) {
+            future = sendAsync(Operation.UPLOAD, uploadScope(request), httpRequest,
+                    (statusCode, body) -> handleUploadResponse(statusCode, body, onFile),
+                    e -> new FileUploadException("Failed to upload files", e), UploadRejectedException::new);
+        } else {
+            DedupPlan dedup = plan;
+            Consumer<FileInfo> recorder = onFile != null ? dedup.streaming(onFile) : null;
+            future = sendAsync(Operation.UPLOAD, uploadScope(request), httpRequest,
+                    (statusCode, body) -> recorder != null
+                            ? handleUploadResponse(statusCode, body, recorder)
+                            : dedup.merge(handleUploadResponse(statusCode, body, null)),
+                    e -> new FileUploadException("Failed to upload files", e), UploadRejectedException::new);
+        }
+        // Not chained, so cancelling the returned future still reaches the call
+        future.whenComplete((response, error) -> releaseBody(httpRequest, error == null));
+        return future;
     }
     
     /**
@@ -133,31 +328,27 @@ public class FilesApiClient {
             throw new FileUploadException("File list is empty");
         }
         
-        try {
-            List<FileData> fileDataList = new ArrayList<>();
-            for (MultipartFile file : files) {
-                FileData fileData = FileDataBuilder.builder()
-                        .filename(file.getOriginalFilename())
-                        .contentType(file.getContentType())
-                        .content(file.getInputStream())
-                        .build();
-                fileDataList.add(fileData);
-            }
-            
-            FileUploadRequest request = FileUploadRequestBuilder.builder()
-                    .path(path)
-                    .addFiles(fileDataList)
-                    .addMetadata(metadata)
+        // Streams are opened one part at a time while the body is written, and closed after their part
+        List<FileData> fileDataList = new ArrayList<>();
+        for (MultipartFile file : files) {
+            FileData fileData = FileDataBuilder.builder()
+                    .filename(file.getOriginalFilename())
+                    .contentType(file.getContentType())
+                    .multipartFile(file)
                     .build();
-            
-            FileUploadResponse response = uploadFiles(request);
-            
-            if (response.isSuccess() && !response.getUploadedFiles().isEmpty()) {
-                onFinish.accept(response.getUploadedFiles());
-            }
-            
-        } catch (IOException e) {
-            throw new FileUploadException("Failed to process multipart files", e);
+            fileDataList.add(fileData);
+        }
+        
+        FileUploadRequest request = FileUploadRequestBuilder.builder()
+                .path(path)
+                .addFiles(fileDataList)
+                .addMetadata(metadata)
+                .build();
+        
+        FileUploadResponse response = uploadFiles(request);
+        
+        if (response.isSuccess() && !response.getUploadedFiles().isEmpty()) {
+            onFinish.accept(response.getUploadedFiles());
         }
     }
     
@@ -165,13 +356,16 @@ public class FilesApiClient {
      * Requests an access token for a file
      */
     public AccessTokenResponse requestAccessToken(String fileId) throws AccessTokenException {
-        return requestAccessToken(List.of(fileId));
+        return requestAccessToken(fileId, Duration.ofMinutes(15));
     }
-
+    
     /**
      * Requests an access token for a file
      */
     public AccessTokenResponse requestAccessToken(String fileId, Duration duration) throws AccessTokenException {
+        if (tokenBatcher != null) {
+            return await(requestAccessTokenAsync(fileId, null, duration));
+        }
         return requestAccessToken(List.of(fileId), null, duration);
     }
     
@@ -181,7 +375,7 @@ public class FilesApiClient {
     public AccessTokenResponse requestAccessToken(List<String> fileIds) throws AccessTokenException {
         return requestAccessToken(fileIds, null, Duration.ofMinutes(15));
     }
-
+    
     public AccessTokenResponse requestAccessToken(List<String> fileIds, Duration duration) throws AccessTokenException {
         return requestAccessToken(fileIds, null, duration);
     }
@@ -190,45 +384,36 @@ public class FilesApiClient {
      * Requests an access token for multiple files with optional userId
      */
     public AccessTokenResponse requestAccessToken(List<String> fileIds, String userId, Duration duration) throws AccessTokenException {
+        if (tokenCache != null || tokenHedger != null) {
+            return await(requestAccessTokenAsync(fileIds, userId, duration));
+        }
+        ConcurrencyLimiter.Permit permit = admit(Operation.ACCESS_TOKEN, AccessTokenRejectedException::new);
+        CallTrace trace = startTrace(Operation.ACCESS_TOKEN);
         try {
-            if (config.isLoggingEnabled()) {
-                logger.info("Requesting access token for " + fileIds.size() + " files");
-            }
-            
-            AccessTokenRequest request = AccessTokenRequestBuilder.builder()
-                    .addFileIds(fileIds)
-                    .userId(userId)
-                    .duration(duration)
-                    .build();
-            
-            String requestBody = gson.toJson(request);
-            
-            HttpRequest httpRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(config.getAccessTokenUrl()))
-                    .header("Content-Type", "application/json")
-                    .header("API-KEY", config.getApiKey())
-                    .timeout(config.getReadTimeout())
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                    .build();
-            
-            HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-            
-            if (config.isLoggingEnabled()) {
-                logger.info("Access token response status: " + response.statusCode());
-            }
-            
-            if (response.statusCode() == 200) {
-                return parseAccessTokenResponse(response.body());
-            } else {
-                throw new AccessTokenException(
-                    "Access token request failed with status: " + response.statusCode(),
-                    response.statusCode(),
-                    response.body()
-                );
+            HttpRequest httpRequest = buildAccessTokenRequest(fileIds, userId, duration);
+            HttpResponse<InputStream> response = retrier.execute(Operation.ACCESS_TOKEN, RetryScope.ALL,
+                    () -> exchange(Operation.ACCESS_TOKEN, httpRequest, HttpResponse.BodyHandlers.ofInputStream(), trace));
+            if (trace != null) {
+                trace.parsing();
             }
+            AccessTokenResponse result = handleAccessTokenResponse(response.statusCode(), response.body());
+            finish(permit, null);
+            finishTrace(trace, null);
+            return result;
             
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
+            finish(permit, e);
+            finishTrace(trace, e);
+            throw new AccessTokenException("Failed to request access token", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finish(permit, e);
+            finishTrace(trace, e);
             throw new AccessTokenException("Failed to request access token", e);
+        } catch (AccessTokenException | RuntimeException e) {
+            finish(permit, e);
+            finishTrace(trace, e);
+            throw e;
         }
     }
     
@@ -236,142 +421,642 @@ public class FilesApiClient {
      * Requests an access token asynchronously
      */
     public CompletableFuture<AccessTokenResponse> requestAccessTokenAsync(List<String> fileIds) {
-        return CompletableFuture.supplyAsync(() -> {
+        return requestAccessTokenAsync(fileIds, null, Duration.ofMinutes(15));
+    }
+    
+    /**
+     * Requests an access token for a single file asynchronously. With token batching enabled the file is
+     * combined with other single-file requests of the same user ID and duration.
+     */
+    public CompletableFuture<AccessTokenResponse> requestAccessTokenAsync(String fileId, String userId, Duration duration) {
+        if (tokenBatcher == null) {
+            return requestAccessTokenAsync(List.of(fileId), userId, duration);
+        }
+        if (tokenCache != null) {
+            return tokenCache.get(AccessTokenCache.Key.of(List.of(fileId), userId, duration),
+                    () -> tokenBatcher.request(fileId, userId, duration));
+        }
+        return tokenBatcher.request(fileId, userId, duration);
+    }
+    
+    /**
+     * Requests an access token asynchronously with optional userId. No thread is held while the request is
+     * in flight; the returned future fails with an {@link AccessTokenException}.
+     */
+    public CompletableFuture<AccessTokenResponse> requestAccessTokenAsync(List<String> fileIds, String userId, Duration duration) {
+        if (tokenCache != null) {
+            return tokenCache.get(AccessTokenCache.Key.of(fileIds, userId, duration),
+                    () -> fetchAccessTokenAsync(fileIds, userId, duration));
+        }
+        return fetchAccessTokenAsync(fileIds, userId, duration);
+    }
+    
+    private CompletableFuture<AccessTokenResponse> fetchAccessTokenAsync(List<String> fileIds, String userId, Duration duration) {
+        HttpRequest httpRequest;
+        try {
+            httpRequest = buildAccessTokenRequest(fileIds, userId, duration);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(new AccessTokenException("Failed to request access token", e));
+        }
+        return sendAsync(Operation.ACCESS_TOKEN, RetryScope.ALL, httpRequest, this::handleAccessTokenResponse,
+                e -> new AccessTokenException("Failed to request access token", e), AccessTokenRejectedException::new);
+    }
+    
+    /**
+     * Returns the access token cache, or null if caching is disabled
+     */
+    public AccessTokenCache getAccessTokenCache() {
+        return tokenCache;
+    }
+    
+    /**
+     * Returns the hedger for token requests, or null if hedging is disabled
+     */
+    public Hedger getAccessTokenHedger() {
+        return tokenHedger;
+    }
+    
+    /**
+     * Returns the adaptive concurrency limiter of an operation, or null if adaptive concurrency is disabled
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter(Operation operation) {
+        return operationLimiters.get(operation);
+    }
+    
+    /**
+     * Returns attempt and retry totals across all calls made by this client
+     */
+    public RetryStats getRetryStats() {
+        return retrier.getStats();
+    }
+    
+    /**
+     * Generates a preview URL for a file
+     */
+    public String generatePreviewUrl(String fileId, String accessToken) {
+        return previewUrls.build(fileId, accessToken);
+    }
+    
+    /**
+     * Generates preview URLs for files covered by one multi-file token, in the order of {@code fileIds}
+     */
+    public List<String> generatePreviewUrls(List<String> fileIds, String accessToken) {
+        return previewUrls.build(fileIds, accessToken);
+    }
+    
+    /**
+     * Lazily maps file IDs covered by one multi-file token to their preview URLs
+     */
+    public Stream<String> generatePreviewUrls(Stream<String> fileIds, String accessToken) {
+        return previewUrls.build(fileIds, accessToken);
+    }
+    
+    /**
+     * Requests one token for all files and returns their preview URLs, in the order of {@code fileIds}
+     */
+    public List<String> requestPreviewUrls(List<String> fileIds) throws AccessTokenException {
+        return requestPreviewUrls(fileIds, Duration.ofMinutes(15));
+    }
+    
+    public List<String> requestPreviewUrls(List<String> fileIds, Duration duration) throws AccessTokenException {
+        return generatePreviewUrls(fileIds, requireToken(requestAccessToken(fileIds, duration)));
+    }
+    
+    /**
+     * Requests one token for all files asynchronously and completes with their preview URLs
+     */
+    public CompletableFuture<List<String>> requestPreviewUrlsAsync(List<String> fileIds, Duration duration) {
+        return requestAccessTokenAsync(fileIds, null, duration).thenCompose(response -> {
             try {
-                return requestAccessToken(fileIds);
+                return CompletableFuture.completedFuture(generatePreviewUrls(fileIds, requireToken(response)));
             } catch (AccessTokenException e) {
-                throw new RuntimeException(e);
+                return CompletableFuture.failedFuture(e);
             }
         });
     }
     
+    private static String requireToken(AccessTokenResponse response) throws AccessTokenException {
+        if (!response.isSuccess() || response.getToken() == null) {
+            throw new AccessTokenException(response.getMessage());
+        }
+        return response.getToken();
+    }
+    
+    private static HttpClient buildHttpClient(FilesApiConfig config, Executor executor) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(config.getHttpVersion())
+                .connectTimeout(config.getConnectionTimeout());
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        return builder.build();
+    }
+    
+    FilesApiConfig config() {
+        return config;
+    }
+    
+    Gson gson() {
+        return gson;
+    }
+    
+    Retrier retrier() {
+        return retrier;
+    }
+    
+    Executor callbackExecutor() {
+        return callbackExecutor;
+    }
+    
+    private HttpRequest buildUploadRequest(FileUploadRequest request) throws IOException {
+        if (config.isLoggingEnabled()) {
+            log("Starting file upload for " + request.getFiles().size() + " files");
+        }
+        
+        MultipartBodyPublisher bodyPublisher = new MultipartBodyPublisher(config.getUploadChunkSize(),
+                config.getUploadCompression(), config.getUploadCompressionLevel(), config.getBufferPool());
+        
+        // Add files to multipart body
+        for (FileData file : request.getFiles()) {
+            bodyPublisher.addFile("files", file);
+        }
+        
+        // Add metadata
+        for (Map.Entry<String, String> entry : request.getMetadata().entrySet()) {
+            bodyPublisher.addPart(entry.getKey(), entry.getValue());
+        }
+        
+        return HttpRequest.newBuilder()
+                .uri(URI.create(config.getBaseUrl() + "?path=" + request.getPath()))
+                .header("Content-Type", "multipart/form-data; boundary=" + bodyPublisher.getBoundary())
+                .header("API-KEY", config.getApiKey())
+                .timeout(config.getReadTimeout())
+                .POST(bodyPublisher.build())
+                .build();
+    }
+    
     /**
-     * Generates a preview URL for a file
+     * Parses an upload response from its body stream and closes it. Uploaded files go to {@code onFile} if
+     * given, otherwise into the returned response.
      */
-    public String generatePreviewUrl(String fileId, String accessToken) {
-        return String.format("%s/%s/download?access_token=%s", 
-                config.getBaseUrl(), fileId, accessToken);
+    FileUploadResponse handleUploadResponse(int statusCode, InputStream body, Consumer<FileInfo> onFile)
+            throws FileUploadException {
+        if (config.isLoggingEnabled()) {
+            log("Upload response status: " + statusCode);
+        }
+        
+        try (body) {
+            if (statusCode >= 200 && statusCode < 300) {
+                long start = metricsEnabled ? System.nanoTime() : 0;
+                FileUploadResponse result = onFile != null
+                        ? parser.parseUploadResponse(body, onFile)
+                        : parser.parseUploadResponse(body);
+                if (metricsEnabled) {
+                    metrics.parsed(Operation.UPLOAD, System.nanoTime() - start);
+                }
+                return result;
+            } else {
+                throw new FileUploadException(
+                    "File upload failed with status: " + statusCode,
+                    statusCode,
+                    readString(body)
+                );
+            }
+        } catch (IOException e) {
+            throw new FileUploadException("Failed to read upload response", statusCode, null, e);
+        }
     }
     
-    private FileUploadResponse parseUploadResponse(String responseBody) throws FileUploadException {
-        try {
-            JsonObject responseData = gson.fromJson(responseBody, JsonObject.class);
-            
-            if (responseData.has("data") && !responseData.get("data").isJsonNull()) {
-                responseData = responseData.get("data").getAsJsonObject();
-                
-                if (responseData.has("uploadedFiles")) {
-                    JsonArray uploadedFiles = responseData.get("uploadedFiles").getAsJsonArray();
-                    List<FileInfo> fileInfos = new ArrayList<>();
-                    
-                    uploadedFiles.forEach(fileElement -> {
-                        JsonObject fileObj = fileElement.getAsJsonObject();
-                        JsonObject fileMetadata = fileObj.get("fileMetadata").getAsJsonObject();
-                        JsonObject fileType = fileMetadata.get("fileType").getAsJsonObject();
-                        
-                        FileInfo fileInfo = new FileInfo(
-                                fileMetadata.get("id").getAsString(),
-                                fileMetadata.get("storedFilename").getAsString(),
-                                fileMetadata.get("originalFilename").getAsString(),
-                                new FileType(
-                                        fileType.get("mimeType").getAsString(),
-                                        fileType.get("extension").getAsString()
-                                ),
-                                new HashMap<>(),
-                                LocalDateTime.parse(fileMetadata.get("createdAt").getAsString())
-                                        .atZone(ZoneId.systemDefault())
-                                        .toInstant()
-                                        .toEpochMilli()
-                        );
-                        
-                        fileInfos.add(fileInfo);
-                    });
-                    
-                    return new FileUploadResponse(true, "Upload successful", fileInfos);
+    private HttpRequest buildAccessTokenRequest(List<String> fileIds, String userId, Duration duration) {
+        if (config.isLoggingEnabled()) {
+            log("Requesting access token for " + fileIds.size() + " files");
+        }
+        
+        AccessTokenRequest request = AccessTokenRequestBuilder.builder()
+                .addFileIds(fileIds)
+                .userId(userId)
+                .duration(duration)
+                .build();
+        
+        String requestBody = gson.toJson(request);
+        
+        return HttpRequest.newBuilder()
+                .uri(URI.create(config.getAccessTokenUrl()))
+                .header("Content-Type", "application/json")
+                .header("API-KEY", config.getApiKey())
+                .timeout(config.getReadTimeout())
+                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
+                .build();
+    }
+    
+    private AccessTokenResponse handleAccessTokenResponse(int statusCode, InputStream body) throws AccessTokenException {
+        if (config.isLoggingEnabled()) {
+            log("Access token response status: " + statusCode);
+        }
+        
+        try (body) {
+            if (statusCode == 200) {
+                long start = metricsEnabled ? System.nanoTime() : 0;
+                AccessTokenResponse result = parser.parseAccessTokenResponse(body);
+                if (metricsEnabled) {
+                    metrics.parsed(Operation.ACCESS_TOKEN, System.nanoTime() - start);
                 }
+                return result;
+            } else {
+                throw new AccessTokenException(
+                    "Access token request failed with status: " + statusCode,
+                    statusCode,
+                    readString(body)
+                );
             }
-            
-            return new FileUploadResponse(false, "No files uploaded", new ArrayList<>());
-            
-        } catch (Exception e) {
-            throw new FileUploadException("Failed to parse upload response", e);
+        } catch (IOException e) {
+            throw new AccessTokenException("Failed to read access token response", statusCode, null, e);
         }
     }
     
-    private AccessTokenResponse parseAccessTokenResponse(String responseBody) throws AccessTokenException {
+    private static String readString(InputStream body) throws IOException {
+        return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Ends the chunk leases of an upload body. Chunks are only recycled after a successful response, since the
+     * server has then read every byte; after a failure the client may still be writing them.
+     */
+    private static void releaseBody(HttpRequest request, boolean recycle) {
+        request.bodyPublisher()
+                .filter(MultipartBodyPublisher.class::isInstance)
+                .ifPresent(body -> ((MultipartBodyPublisher) body).release(recycle));
+    }
+    
+    private FileUploadRequest spill(FileUploadRequest request) throws FileUploadException {
         try {
-            JsonObject data = gson.fromJson(responseBody, JsonObject.class);
-            
-            if (data.has("data") && !data.get("data").isJsonNull()) {
-                JsonObject dataObj = data.get("data").getAsJsonObject();
-                String token = dataObj.get("token").getAsString();
-                return new AccessTokenResponse(true, "Token generated successfully", token);
+            return spiller.spill(request);
+        } catch (IOException e) {
+            throw new FileUploadException("Failed to buffer upload content", e);
+        }
+    }
+    
+    /**
+     * Whether the upload body can be sent again for a retry
+     */
+    private static boolean isReplayable(FileUploadRequest request) {
+        for (FileData file : request.getFiles()) {
+            if (!file.getSource().isRepeatable()) {
+                return false;
             }
-            
-            return new AccessTokenResponse(false, "No token generated", null);
-            
-        } catch (Exception e) {
-            throw new AccessTokenException("Failed to parse access token response", e);
         }
+        return true;
+    }
+    
+    private RetryScope uploadScope(FileUploadRequest request) {
+        return isReplayable(request) ? uploadScope() : RetryScope.NONE;
     }
     
     /**
-     * Helper class for building multipart form data
+     * Uploads are not idempotent, so unless configured otherwise they are only retried when they cannot have
+     * reached the server
      */
-    private static class MultipartBodyPublisher {
-        private static final String BOUNDARY = "JavaBoundary" + System.currentTimeMillis();
-        private final StringBuilder body = new StringBuilder();
-        private final java.io.ByteArrayOutputStream outputStream = new java.io.ByteArrayOutputStream();
-        
-        public MultipartBodyPublisher addFile(String fieldName, FileData file) throws IOException {
-            String fileName = file.getFilename();
-            String contentType = file.getContentType();
-            
-            // Prepare the header for the file part
-            body.append("--").append(BOUNDARY).append("\r\n")
-                    .append("Content-Disposition: form-data; name=\"").append(fieldName)
-                    .append("\"; filename=\"").append(fileName).append("\"\r\n")
-                    .append("Content-Type: ").append(contentType != null ? contentType : "application/octet-stream")
-                    .append("\r\n\r\n");
-            
-            // Write the header to the output stream
-            outputStream.write(body.toString().getBytes());
-            
-            // Write the file content to the output stream
-            file.getContent().transferTo(outputStream);
-            
-            // Write the line break after the file content
-            outputStream.write("\r\n".getBytes());
-            
-            // Clear the StringBuilder for the next file
-            body.setLength(0);
-            
-            return this;
+    RetryScope uploadScope() {
+        return config.isRetryUploadsAfterSend() ? RetryScope.ALL : RetryScope.UNSENT;
+    }
+    
+    /**
+     * Sends a request once the operation's adaptive limit admits it. A full wait queue fails the returned future
+     * with the exception made by {@code rejected}; cancelling the future leaves the queue.
+     */
+    private <T, E extends FilesApiException> CompletableFuture<T> sendAsync(Operation operation, RetryScope scope,
+                                                                           HttpRequest httpRequest,
+                                                                           ResponseHandler<T, E> handler,
+                                                                           Function<Throwable, E> failure,
+                                                                           Function<String, E> rejected) {
+        ConcurrencyLimiter limiter = operationLimiters.get(operation);
+        if (limiter == null) {
+            return dispatchAsync(operation, scope, httpRequest, handler, failure);
         }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<ConcurrencyLimiter.Permit> slot = limiter.acquire();
+        slot.whenComplete((permit, error) -> {
+            if (error != null) {
+                Throwable cause = unwrap(error);
+                result.completeExceptionally(cause instanceof RejectedExecutionException
+                        ? rejected.apply(cause.getMessage())
+                        : failure.apply(cause));
+                return;
+            }
+            CompletableFuture<T> call = dispatchAsync(operation, scope, httpRequest, handler, failure);
+            call.whenComplete((value, callError) -> {
+                Throwable cause = callError != null ? unwrap(callError) : null;
+                finish(permit, cause);
+                if (cause != null) {
+                    result.completeExceptionally(cause);
+                } else {
+                    result.complete(value);
+                }
+            });
+            result.whenComplete((value, resultError) -> {
+                if (result.isCancelled()) {
+                    call.cancel(true);
+                }
+            });
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                slot.cancel(false);
+            }
+        });
+        return result;
+    }
+    
+    /**
+     * Sends a request without blocking, with retries, and handles the response on the callback executor.
+     * Transport failures are mapped through {@code failure}; cancelling the returned future aborts the exchange.
+     * The body is collected by a non-blocking subscriber and parsed from memory, because the callback executor
+     * may be the HTTP client's own, which must never wait for body bytes it is itself meant to deliver.
+     */
+    private <T, E extends FilesApiException> CompletableFuture<T> dispatchAsync(Operation operation,
+                                                                               RetryScope scope,
+                                                                               HttpRequest httpRequest,
+                                                                               ResponseHandler<T, E> handler,
+                                                                               Function<Throwable, E> failure) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CallTrace trace = startTrace(operation);
+        Supplier<CompletableFuture<HttpResponse<byte[]>>> attempt =
+                () -> exchangeAsync(operation, httpRequest, HttpResponse.BodyHandlers.ofByteArray(), trace);
+        Supplier<CompletableFuture<HttpResponse<byte[]>>> hedged =
+                operation == Operation.ACCESS_TOKEN && tokenHedger != null ? () -> tokenHedger.execute(attempt) : attempt;
+        CompletableFuture<HttpResponse<byte[]>> exchange = retrier.executeAsync(operation, scope, hedged,
+                callbackExecutor);
         
-        public MultipartBodyPublisher addPart(String fieldName, String value) throws IOException {
-            body.append("--").append(BOUNDARY).append("\r\n")
-                    .append("Content-Disposition: form-data; name=\"").append(fieldName).append("\"\r\n")
-                    .append("Content-Type: text/plain; charset=UTF-8").append("\r\n\r\n")
-                    .append(value).append("\r\n");
-            
-            outputStream.write(body.toString().getBytes());
-            body.setLength(0); // Clear the StringBuilder for the next part
-            
-            return this;
-        }
+        exchange.whenCompleteAsync((response, error) -> {
+            if (error != null) {
+                result.completeExceptionally(failure.apply(unwrap(error)));
+                return;
+            }
+            if (result.isDone()) {
+                return;
+            }
+            if (trace != null) {
+                trace.parsing();
+            }
+            try {
+                result.complete(handler.handle(response.statusCode(), new ByteArrayInputStream(response.body())));
+            } catch (FilesApiException e) {
+                result.completeExceptionally(e);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(failure.apply(e));
+            }
+        }, callbackExecutor);
         
-        public HttpRequest.BodyPublisher build() {
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                exchange.cancel(true);
+            }
+            finishTrace(trace, error != null ? unwrap(error) : null);
+        });
+        return result;
+    }
+    
+    /**
+     * Sends one attempt on the calling thread. With a per-host limit the attempt first waits for a slot, which
+     * is held until the response body has been read or abandoned.
+     */
+    <T> HttpResponse<T> exchange(Operation operation, HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        return exchange(operation, request, handler, null);
+    }
+    
+    private <T> HttpResponse<T> exchange(Operation operation, HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                         CallTrace trace) throws IOException, InterruptedException {
+        if (hostLimiter == null) {
+            return sendAttempt(operation, request, handler, trace);
+        }
+        ConcurrencyLimiter.Permit permit = hostLimiter.forHost(request.uri()).acquireBlocking();
+        try {
+            return sendAttempt(operation, request, BodyCompletion.onDone(handler, permit::release), trace);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            permit.release();
+            throw e;
+        }
+    }
+    
+    /**
+     * Sends one attempt without blocking. With a per-host limit the attempt is queued without holding a thread
+     * until a slot is free; cancelling the returned future leaves the queue or aborts the exchange.
+     */
+    <T> CompletableFuture<HttpResponse<T>> exchangeAsync(Operation operation, HttpRequest request,
+                                                         HttpResponse.BodyHandler<T> handler) {
+        return exchangeAsync(operation, request, handler, null);
+    }
+    
+    private <T> CompletableFuture<HttpResponse<T>> exchangeAsync(Operation operation, HttpRequest request,
+                                                                 HttpResponse.BodyHandler<T> handler, CallTrace trace) {
+        if (hostLimiter == null) {
+            return sendAttemptAsync(operation, request, handler, trace);
+        }
+        CompletableFuture<ConcurrencyLimiter.Permit> slot = hostLimiter.forHost(request.uri()).acquire();
+        CompletableFuture<HttpResponse<T>> response = new CompletableFuture<>();
+        slot.whenComplete((permit, error) -> {
+            if (error != null) {
+                response.completeExceptionally(error);
+                return;
+            }
+            CompletableFuture<HttpResponse<T>> sent;
             try {
-                outputStream.write(("--" + BOUNDARY + "--\r\n").getBytes());
-            } catch (IOException e) {
-                throw new RuntimeException("Error finishing multipart body", e);
+                sent = sendAttemptAsync(operation, request, BodyCompletion.onDone(handler, permit::release), trace);
+            } catch (RuntimeException e) {
+                permit.release();
+                response.completeExceptionally(e);
+                return;
+            }
+            sent.whenComplete((result, failure) -> {
+                if (failure != null) {
+                    permit.release();
+                    response.completeExceptionally(failure);
+                } else {
+                    response.complete(result);
+                }
+            });
+            response.whenComplete((result, failure) -> {
+                if (response.isCancelled()) {
+                    sent.cancel(true);
+                }
+            });
+        });
+        response.whenComplete((result, failure) -> {
+            if (response.isCancelled()) {
+                slot.cancel(false);
             }
-            return HttpRequest.BodyPublishers.ofByteArray(outputStream.toByteArray());
+        });
+        return response;
+    }
+    
+    /**
+     * Sends one attempt on the calling thread, measuring it when metrics are enabled or the call is traced
+     */
+    private <T> HttpResponse<T> sendAttempt(Operation operation, HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                            CallTrace trace) throws IOException, InterruptedException {
+        if (!metricsEnabled && trace == null) {
+            return httpClient.send(request, handler);
         }
-        
-        public String getBoundary() {
-            return BOUNDARY;
+        ExchangeMeter meter = new ExchangeMeter(metrics, operation, trace);
+        try {
+            return httpClient.send(meter.request(request), meter.handler(handler));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            meter.failed();
+            throw e;
         }
     }
+    
+    /**
+     * Sends one attempt without blocking, measuring it when metrics are enabled or the call is traced
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendAttemptAsync(Operation operation, HttpRequest request,
+                                                                    HttpResponse.BodyHandler<T> handler,
+                                                                    CallTrace trace) {
+        if (!metricsEnabled && trace == null) {
+            return httpClient.sendAsync(request, handler);
+        }
+        ExchangeMeter meter = new ExchangeMeter(metrics, operation, trace);
+        CompletableFuture<HttpResponse<T>> response;
+        try {
+            response = httpClient.sendAsync(meter.request(request), meter.handler(handler));
+        } catch (RuntimeException e) {
+            meter.failed();
+            throw e;
+        }
+        response.whenComplete((result, error) -> {
+            if (error != null) {
+                meter.failed();
+            }
+        });
+        return response;
+    }
+    
+    /**
+     * Waits for a slot of the operation's adaptive limit, if there is one. A full queue is reported through
+     * {@code rejected}, as is an interrupt while waiting.
+     */
+    private <E extends FilesApiException> ConcurrencyLimiter.Permit admit(Operation operation,
+                                                                         Function<String, E> rejected) throws E {
+        ConcurrencyLimiter limiter = operationLimiters.get(operation);
+        if (limiter == null) {
+            return null;
+        }
+        try {
+            return limiter.acquireBlocking();
+        } catch (RejectedExecutionException e) {
+            throw rejected.apply(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw rejected.apply("Interrupted while waiting for a free slot");
+        }
+    }
+    
+    /**
+     * Returns an adaptive limit slot, telling the limiter whether the call failed in a way that suggests overload:
+     * a transport failure or timeout, a 429 or a 5xx status
+     */
+    private static void finish(ConcurrencyLimiter.Permit permit, Throwable error) {
+        if (permit == null) {
+            return;
+        }
+        boolean overload = false;
+        if (error instanceof FilesApiException) {
+            int statusCode = ((FilesApiException) error).getStatusCode();
+            overload = statusCode == 429 || statusCode >= 500 || error.getCause() instanceof IOException;
+        } else if (error instanceof IOException) {
+            overload = true;
+        }
+        if (overload) {
+            permit.drop();
+        } else {
+            permit.release();
+        }
+    }
+    
+    /**
+     * Adds retry counting to the configured listener when metrics are enabled
+     */
+    private RetryListener retryListener(RetryListener configured) {
+        if (!metricsEnabled) {
+            return configured;
+        }
+        return attempt -> {
+            if (attempt.isRetrying()) {
+                metrics.retried(attempt.getOperation());
+            }
+            if (configured != null) {
+                configured.onAttempt(attempt);
+            }
+        };
+    }
+    
+    /**
+     * Starts tracing a call, or returns null when tracing is off
+     */
+    private CallTrace startTrace(Operation operation) {
+        return tracingEnabled ? new CallTrace(operation, traceListener, jfrEvents) : null;
+    }
+    
+    private static void finishTrace(CallTrace trace, Throwable error) {
+        if (trace != null) {
+            trace.finish(error);
+        }
+    }
+    
+    /**
+     * Logs an info message. On virtual threads the record is handed to a platform thread, because log handlers
+     * write under a monitor and would pin the carrier thread for the duration of the write.
+     */
+    private void log(String message) {
+        if (virtualThreads) {
+            LogDispatcher.EXECUTOR.execute(() -> logger.info(message));
+        } else {
+            logger.info(message);
+        }
+    }
+    
+    /**
+     * Waits for an async token request, rethrowing its failure
+     */
+    private static AccessTokenResponse await(CompletableFuture<AccessTokenResponse> future) throws AccessTokenException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AccessTokenException("Interrupted while waiting for access token", e);
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e.getCause());
+            if (cause instanceof AccessTokenException) {
+                throw (AccessTokenException) cause;
+            }
+            throw new AccessTokenException("Failed to request access token", cause);
+        }
+    }
+    
+    private static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+    
+    /**
+     * Single platform thread that publishes log records on behalf of virtual threads
+     */
+    private static final class LogDispatcher {
+        private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "files-api-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Maps a received response status and body to a result
+     */
+    @FunctionalInterface
+    private interface ResponseHandler<T, E extends FilesApiException> {
+        T handle(int statusCode, InputStream body) throws E;
+    }
 }
@@ -0,0 +1,22 @@
+package com.scisbo.filesapi.api;
+
+/**
+ * Remote operations performed by the client
+ */
+public enum Operation {
+    
+    /**
+     * Multipart file upload
+     */
+    UPLOAD,
+    
+    /**
+     * Single part of a resumable upload
+     */
+    UPLOAD_PART,
+    
+    /**
+     * Access token request
+     */
+    ACCESS_TOKEN
+}
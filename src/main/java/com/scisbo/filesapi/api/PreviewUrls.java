@@ -0,0 +1,71 @@
+package com.scisbo.filesapi.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Builds preview URLs of the form {@code <baseUrl>/<fileId>/download?access_token=<token>}.
+ * <p>
+ * For a list or stream of IDs sharing one token, the part after the file ID is built once, so each URL is a
+ * single concatenation into a string of the exact length. With encoding on, IDs and tokens are percent-encoded
+ * as UTF-8 while they are appended to a builder sized for the unencoded URL, so unreserved text is copied in
+ * runs and nothing is encoded twice.
+ */
+final class PreviewUrls {
+    
+    private static final String DOWNLOAD = "/download?access_token=";
+    
+    private final String prefix;
+    private final boolean encode;
+    
+    PreviewUrls(String baseUrl, boolean encode) {
+        this.prefix = baseUrl + "/";
+        this.encode = encode;
+    }
+    
+    String build(String fileId, String accessToken) {
+        Objects.requireNonNull(fileId, "File ID cannot be null");
+        Objects.requireNonNull(accessToken, "Access token cannot be null");
+        if (!encode) {
+            return prefix + fileId + DOWNLOAD + accessToken;
+        }
+        StringBuilder url = new StringBuilder(prefix.length() + fileId.length() + DOWNLOAD.length()
+                + accessToken.length()).append(prefix);
+        UriEncoding.append(url, fileId).append(DOWNLOAD);
+        return UriEncoding.append(url, accessToken).toString();
+    }
+    
+    List<String> build(List<String> fileIds, String accessToken) {
+        Function<String, String> url = forToken(accessToken);
+        List<String> urls = new ArrayList<>(fileIds.size());
+        for (String fileId : fileIds) {
+            urls.add(url.apply(fileId));
+        }
+        return urls;
+    }
+    
+    Stream<String> build(Stream<String> fileIds, String accessToken) {
+        return fileIds.map(forToken(accessToken));
+    }
+    
+    /**
+     * Returns a function from file ID to URL with the token part already built
+     */
+    private Function<String, String> forToken(String accessToken) {
+        Objects.requireNonNull(accessToken, "Access token cannot be null");
+        if (!encode) {
+            String suffix = DOWNLOAD + accessToken;
+            return fileId -> prefix + Objects.requireNonNull(fileId, "File ID cannot be null") + suffix;
+        }
+        StringBuilder token = new StringBuilder(DOWNLOAD.length() + accessToken.length()).append(DOWNLOAD);
+        String suffix = UriEncoding.append(token, accessToken).toString();
+        return fileId -> {
+            Objects.requireNonNull(fileId, "File ID cannot be null");
+            StringBuilder url = new StringBuilder(prefix.length() + fileId.length() + suffix.length()).append(prefix);
+            return UriEncoding.append(url, fileId).append(suffix).toString();
+        };
+    }
+}
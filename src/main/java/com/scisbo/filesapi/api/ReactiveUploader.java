@@ -0,0 +1,403 @@
+package com.scisbo.filesapi.api;
+
+import com.scisbo.filesapi.builder.FileUploadRequestBuilder;
+import com.scisbo.filesapi.data.file.FileInfo;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.request.FileUploadRequest;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import com.scisbo.filesapi.exception.FileUploadException;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Uploads files from a {@link Flow.Publisher} and publishes the uploaded {@link FileInfo}s, splitting the files
+ * into requests the same way {@link BulkUploader} does.
+ * <p>
+ * At most {@code (concurrency + 1) * maxFilesPerRequest} files are between the source and the subscriber at any
+ * time, counting files requested from the source, files waiting for a request, files being uploaded and results
+ * the subscriber has not asked for yet. A slow subscriber therefore stops the source and the network once that
+ * window is full. Files are sent as soon as a request slot is free, so requests carry more files the busier the
+ * client is. Results are published per request, in completion order.
+ * <p>
+ * A failed request stops the upload: the source is cancelled and files not yet sent are dropped, but requests
+ * already in flight are allowed to finish and their results are published before {@code onError}. Cancelling
+ * the subscription cancels the source and the requests in flight.
+ */
+public class ReactiveUploader {
+    
+    private final FilesApiClient client;
+    private final int maxFilesPerRequest;
+    private final long maxBytesPerRequest;
+    private final int concurrency;
+    
+    public ReactiveUploader(FilesApiClient client) {
+        this(client, 100, 64L * 1024 * 1024, 4);
+    }
+    
+    public ReactiveUploader(FilesApiClient client, int maxFilesPerRequest, long maxBytesPerRequest, int concurrency) {
+        if (maxFilesPerRequest <= 0 || maxBytesPerRequest <= 0 || concurrency <= 0) {
+            throw new IllegalArgumentException("Upload limits must be positive");
+        }
+        this.client = client;
+        this.maxFilesPerRequest = maxFilesPerRequest;
+        this.maxBytesPerRequest = maxBytesPerRequest;
+        this.concurrency = concurrency;
+    }
+    
+    /**
+     * Returns a publisher that, for each subscriber, subscribes to {@code files} and uploads what it emits
+     */
+    public Flow.Publisher<FileInfo> upload(String path, Flow.Publisher<FileData> files, Map<String, String> metadata) {
+        return subscriber -> {
+            Run run = new Run(path, metadata, subscriber);
+            subscriber.onSubscribe(run);
+            files.subscribe(run);
+        };
+    }
+    
+    /**
+     * State of one subscription. Every state change happens under {@code lock} and is followed by {@link #drain},
+     * which signals the subscriber, requests files and starts uploads from one thread at a time.
+     */
+    private final class Run implements Flow.Subscription, Flow.Subscriber<FileData> {
+        private final String path;
+        private final Map<String, String> metadata;
+        private final Flow.Subscriber<? super FileInfo> downstream;
+        private final int window = (int) Math.min(Integer.MAX_VALUE, (concurrency + 1L) * maxFilesPerRequest);
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final Deque<List<FileData>> ready = new ArrayDeque<>();
+        private final Deque<FileInfo> results = new ArrayDeque<>();
+        private final Set<CompletableFuture<?>> inFlight = new HashSet<>();
+        private Flow.Subscription upstream;
+        private List<FileData> batch = new ArrayList<>();
+        private long batchBytes;
+        private int queuedFiles;
+        private int inFlightFiles;
+        private int activeRequests;
+        private long requested;
+        private long demand;
+        private boolean upstreamDone;
+        private boolean upstreamCancelled;
+        private Throwable error;
+        private boolean cancelled;
+        private boolean terminated;
+        
+        Run(String path, Map<String, String> metadata, Flow.Subscriber<? super FileInfo> downstream) {
+            this.path = path;
+            this.metadata = metadata;
+            this.downstream = downstream;
+        }
+        
+        @Override
+        public void request(long n) {
+            lock.lock();
+            try {
+                if (n <= 0) {
+                    fail(new IllegalArgumentException("Demand must be positive: " + n));
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+        
+        @Override
+        public void cancel() {
+            List<CompletableFuture<?>> calls;
+            lock.lock();
+            try {
+                cancelled = true;
+                calls = new ArrayList<>(inFlight);
+                inFlight.clear();
+                ready.clear();
+                batch.clear();
+                results.clear();
+            } finally {
+                lock.unlock();
+            }
+            calls.forEach(call -> call.cancel(true));
+            drain();
+        }
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            lock.lock();
+            try {
+                if (upstream != null) {
+                    subscription.cancel();
+                    return;
+                }
+                upstream = subscription;
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+        
+        @Override
+        public void onNext(FileData file) {
+            FileUploadException sizeError = null;
+            long length = 0;
+            try {
+                length = Math.max(0, file.getSource().length());
+            } catch (IOException e) {
+                sizeError = new FileUploadException("Failed to read size of " + file.getFilename(), e);
+            }
+            lock.lock();
+            try {
+                requested--;
+                if (cancelled || error != null) {
+                    return;
+                }
+                if (sizeError != null) {
+                    fail(sizeError);
+                } else {
+                    add(file, length);
+                }
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+        
+        /**
+         * Adds a file to the open batch, closing the batch first when the file would not fit; called with the
+         * lock held
+         */
+        private void add(FileData file, long length) {
+            if (!batch.isEmpty() && (batch.size() >= maxFilesPerRequest || batchBytes + length > maxBytesPerRequest)) {
+                ready.add(batch);
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+            batch.add(file);
+            batchBytes += length;
+            queuedFiles++;
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            lock.lock();
+            try {
+                upstreamDone = true;
+                fail(throwable);
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+        
+        @Override
+        public void onComplete() {
+            lock.lock();
+            try {
+                upstreamDone = true;
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+        
+        /**
+         * Records the first error; called with the lock held
+         */
+        private void fail(Throwable throwable) {
+            if (error == null) {
+                error = throwable;
+                ready.clear();
+                batch.clear();
+                queuedFiles = 0;
+            }
+        }
+        
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                step();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+        
+        /**
+         * Works out what to do under the lock and does it outside
+         */
+        private void step() {
+            List<FileInfo> emit = new ArrayList<>();
+            List<List<FileData>> sends = new ArrayList<>();
+            Flow.Subscription source;
+            long more = 0;
+            boolean cancelSource = false;
+            Throwable failure = null;
+            boolean complete = false;
+            
+            lock.lock();
+            try {
+                if (terminated) {
+                    return;
+                }
+                source = upstream;
+                if (cancelled || error != null) {
+                    cancelSource = source != null && !upstreamDone && !upstreamCancelled;
+                    upstreamCancelled |= cancelSource;
+                }
+                if (cancelled) {
+                    terminated = true;
+                } else {
+                    while (demand > 0 && !results.isEmpty()) {
+                        emit.add(results.poll());
+                        demand--;
+                    }
+                    if (error == null) {
+                        while (activeRequests < concurrency && (!ready.isEmpty() || !batch.isEmpty())) {
+                            List<FileData> next = ready.isEmpty() ? batch : ready.poll();
+                            if (next == batch) {
+                                batch = new ArrayList<>();
+                                batchBytes = 0;
+                            }
+                            queuedFiles -= next.size();
+                            inFlightFiles += next.size();
+                            activeRequests++;
+                            sends.add(next);
+                        }
+                        long outstanding = requested + queuedFiles + inFlightFiles + results.size();
+                        if (source != null && !upstreamDone && outstanding < window) {
+                            more = window - outstanding;
+                            requested += more;
+                        }
+                    }
+                    if (results.isEmpty() && activeRequests == 0 && queuedFiles == 0) {
+                        if (error != null) {
+                            failure = error;
+                            terminated = true;
+                        } else if (upstreamDone) {
+                            complete = true;
+                            terminated = true;
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            
+            if (cancelSource) {
+                source.cancel();
+            }
+            for (FileInfo fileInfo : emit) {
+                if (isCancelled()) {
+                    return;
+                }
+                downstream.onNext(fileInfo);
+            }
+            for (List<FileData> files : sends) {
+                send(files);
+            }
+            if (more > 0) {
+                source.request(more);
+            }
+            if (failure != null) {
+                downstream.onError(failure);
+            } else if (complete) {
+                downstream.onComplete();
+            }
+        }
+        
+        /**
+         * Starts one request. A request that cannot be started fails the run like a failed upload.
+         */
+        private void send(List<FileData> files) {
+            CompletableFuture<FileUploadResponse> call;
+            try {
+                FileUploadRequest request = FileUploadRequestBuilder.builder()
+                        .path(path)
+                        .addFiles(files)
+                        .addMetadata(metadata)
+                        .build();
+                call = client.uploadFilesAsync(request);
+            } catch (RuntimeException e) {
+                lock.lock();
+                try {
+                    activeRequests--;
+                    inFlightFiles -= files.size();
+                    if (!cancelled) {
+                        fail(new FileUploadException("Failed to upload files", e));
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                drain();
+                return;
+            }
+            boolean abandon;
+            lock.lock();
+            try {
+                abandon = cancelled;
+                if (!abandon) {
+                    inFlight.add(call);
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (abandon) {
+                call.cancel(true);
+            }
+            call.whenComplete((response, throwable) -> completed(files, call, response, throwable));
+        }
+        
+        private boolean isCancelled() {
+            lock.lock();
+            try {
+                return cancelled;
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        private void completed(List<FileData> files, CompletableFuture<?> call, FileUploadResponse response,
+                               Throwable throwable) {
+            lock.lock();
+            try {
+                inFlight.remove(call);
+                activeRequests--;
+                inFlightFiles -= files.size();
+                if (cancelled) {
+                    return;
+                }
+                if (throwable != null) {
+                    fail(unwrap(throwable));
+                } else if (!response.isSuccess()) {
+                    fail(new FileUploadException(response.getMessage()));
+                } else {
+                    results.addAll(response.getUploadedFiles());
+                }
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+    }
+    
+    private static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
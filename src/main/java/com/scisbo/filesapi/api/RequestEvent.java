@@ -0,0 +1,61 @@
+package com.scisbo.filesapi.api;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one client call, spanning the call from start to result
+ */
+@Name("com.scisbo.filesapi.Request")
+@Label("Files API Request")
+@Category("Files API")
+@Description("Phase timing of an upload or access token call")
+@StackTrace(false)
+final class RequestEvent extends Event {
+    
+    @Label("Operation")
+    String operation;
+    
+    @Label("Status Code")
+    int statusCode;
+    
+    @Label("Attempts")
+    int attempts;
+    
+    @Label("Encode")
+    @Timespan(Timespan.NANOSECONDS)
+    long encode;
+    
+    @Label("Send")
+    @Timespan(Timespan.NANOSECONDS)
+    long send;
+    
+    @Label("Time to First Byte")
+    @Timespan(Timespan.NANOSECONDS)
+    long timeToFirstByte;
+    
+    @Label("Receive")
+    @Timespan(Timespan.NANOSECONDS)
+    long receive;
+    
+    @Label("Parse")
+    @Timespan(Timespan.NANOSECONDS)
+    long parse;
+    
+    @Label("Bytes Sent")
+    @DataAmount(DataAmount.BYTES)
+    long bytesSent;
+    
+    @Label("Bytes Received")
+    @DataAmount(DataAmount.BYTES)
+    long bytesReceived;
+    
+    @Label("Error")
+    String error;
+}
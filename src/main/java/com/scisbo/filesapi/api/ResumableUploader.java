@@ -0,0 +1,397 @@
+package com.scisbo.filesapi.api;
+
+import com.google.gson.JsonObject;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import com.scisbo.filesapi.data.source.PathSource;
+import com.scisbo.filesapi.exception.FileUploadException;
+import com.scisbo.filesapi.multipart.FileRegionPublisher;
+import com.scisbo.filesapi.retry.RetryScope;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Uploads large files in fixed-size parts that survive crashes and network drops.
+ * <p>
+ * The upload session protocol is:
+ * <ul>
+ *     <li>{@code POST {baseUrl}/uploads?path=...} with filename, content type, size, part size and metadata
+ *     returns {@code {"data": {"uploadId": "..."}}}</li>
+ *     <li>{@code PUT {baseUrl}/uploads/{uploadId}/parts/{partNumber}} sends one part (1-based)</li>
+ *     <li>{@code POST {baseUrl}/uploads/{uploadId}/complete} returns the regular upload response</li>
+ * </ul>
+ * Every acknowledged part is appended to a small journal in {@code journalDirectory}. Running the same upload
+ * again after a failure reuses the session and sends only the missing parts. Parts are read straight from
+ * memory-mapped regions of the file and retried like any other call.
+ */
+public class ResumableUploader {
+    
+    private final FilesApiClient client;
+    private final Path journalDirectory;
+    private final long partSize;
+    private final int parallelism;
+    
+    public ResumableUploader(FilesApiClient client, Path journalDirectory) {
+        this(client, journalDirectory, 8L * 1024 * 1024, 4);
+    }
+    
+    public ResumableUploader(FilesApiClient client, Path journalDirectory, long partSize, int parallelism) {
+        if (partSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Part size and parallelism must be positive");
+        }
+        this.client = client;
+        this.journalDirectory = journalDirectory;
+        this.partSize = partSize;
+        this.parallelism = parallelism;
+    }
+    
+    /**
+     * Uploads a file-backed {@link FileData}, resuming a previous attempt of the same upload if one was journaled
+     */
+    public FileUploadResponse upload(String path, FileData file, Map<String, String> metadata) throws FileUploadException {
+        if (!(file.getSource() instanceof PathSource)) {
+            throw new FileUploadException("Resumable uploads need a file-backed source: " + file.getFilename());
+        }
+        Path source = ((PathSource) file.getSource()).getPath();
+        String uploadPath = path != null ? path : "";
+        
+        try {
+            Files.createDirectories(journalDirectory);
+            long size = Files.size(source);
+            Path journalFile = journalDirectory.resolve(journalName(source, size, uploadPath));
+            
+            try (Journal journal = Journal.open(journalFile, size, partSize)) {
+                boolean resumed = journal.uploadId != null;
+                if (!resumed) {
+                    journal.start(createSession(uploadPath, file, size, metadata));
+                }
+                boolean sent = uploadParts(journal, source, size);
+                if (!sent && resumed) {
+                    // The server no longer knows the journaled session; start over once
+                    journal.reset();
+                    journal.start(createSession(uploadPath, file, size, metadata));
+                    sent = uploadParts(journal, source, size);
+                }
+                if (!sent) {
+                    throw new FileUploadException("Upload session " + journal.uploadId
+                            + " was not found while sending parts of " + file.getFilename(), 404, null);
+                }
+                FileUploadResponse response = complete(journal.uploadId);
+                journal.delete();
+                return response;
+            }
+        } catch (IOException e) {
+            throw new FileUploadException("Failed to upload " + file.getFilename(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileUploadException("Interrupted while uploading " + file.getFilename(), e);
+        }
+    }
+    
+    private String createSession(String uploadPath, FileData file, long size, Map<String, String> metadata)
+            throws IOException, InterruptedException, FileUploadException {
+        Map<String, Object> body = new HashMap<>();
+        body.put("filename", file.getFilename());
+        body.put("contentType", file.getContentType());
+        body.put("size", size);
+        body.put("partSize", partSize);
+        body.put("metadata", metadata != null ? metadata : Map.of());
+        
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(client.config().getUploadSessionUrl() + "?path="
+                        + URLEncoder.encode(uploadPath, StandardCharsets.UTF_8)))
+                .header("Content-Type", "application/json")
+                .header("API-KEY", client.config().getApiKey())
+                .timeout(client.config().getReadTimeout())
+                .POST(HttpRequest.BodyPublishers.ofString(client.gson().toJson(body)))
+                .build();
+        
+        HttpResponse<String> response = client.retrier().execute(Operation.UPLOAD, client.uploadScope(),
+                () -> client.exchange(Operation.UPLOAD, request, HttpResponse.BodyHandlers.ofString()));
+        if (response.statusCode() < 200 || response.statusCode() >= 300) {
+            throw new FileUploadException("Upload session creation failed with status: " + response.statusCode(),
+                    response.statusCode(), response.body());
+        }
+        try {
+            JsonObject data = client.gson().fromJson(response.body(), JsonObject.class).getAsJsonObject("data");
+            return data.get("uploadId").getAsString();
+        } catch (RuntimeException e) {
+            throw new FileUploadException("Failed to parse upload session response", e);
+        }
+    }
+    
+    /**
+     * Sends every part that is not journaled yet, at most {@code parallelism} at a time. Returns true once every
+     * part is acknowledged, or false if the server does not know the upload session.
+     */
+    private boolean uploadParts(Journal journal, Path source, long size)
+            throws InterruptedException, FileUploadException {
+        int partCount = (int) Math.max(1, (size + partSize - 1) / partSize);
+        String partsUrl = client.config().getUploadSessionUrl() + "/" + UriEncoding.encode(journal.uploadId) + "/parts/";
+        Semaphore slots = new Semaphore(parallelism);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        
+        for (int index = 0; index < partCount && failure.get() == null; index++) {
+            if (journal.isAcknowledged(index)) {
+                continue;
+            }
+            slots.acquire();
+            int part = index;
+            long offset = part * partSize;
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(partsUrl + (part + 1)))
+                    .header("Content-Type", "application/octet-stream")
+                    .header("API-KEY", client.config().getApiKey())
+                    .timeout(client.config().getReadTimeout())
+                    .PUT(new FileRegionPublisher(source, offset, Math.min(partSize, size - offset)))
+                    .build();
+            
+            client.retrier().executeAsync(Operation.UPLOAD_PART, RetryScope.ALL,
+                            () -> client.exchangeAsync(Operation.UPLOAD_PART, request, HttpResponse.BodyHandlers.ofString()),
+                            client.callbackExecutor())
+                    .thenAccept(response -> {
+                        if (response.statusCode() < 200 || response.statusCode() >= 300) {
+                            throw new CompletionException(new FileUploadException(
+                                    "Part " + (part + 1) + " failed with status: " + response.statusCode(),
+                                    response.statusCode(), response.body()));
+                        }
+                        try {
+                            journal.acknowledge(part);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .whenComplete((ignored, error) -> {
+                        if (error != null) {
+                            failure.compareAndSet(null, unwrap(error));
+                        }
+                        slots.release();
+                    });
+        }
+        slots.acquire(parallelism);
+        slots.release(parallelism);
+        
+        Throwable error = failure.get();
+        if (error == null) {
+            int missing = journal.missing(partCount);
+            if (missing > 0) {
+                throw new FileUploadException(missing + " of " + partCount + " parts were not acknowledged");
+            }
+            return true;
+        }
+        if (error instanceof FileUploadException && ((FileUploadException) error).getStatusCode() == 404) {
+            return false;
+        }
+        if (error instanceof FileUploadException) {
+            throw (FileUploadException) error;
+        }
+        throw new FileUploadException("Failed to upload parts", error);
+    }
+    
+    private FileUploadResponse complete(String uploadId) throws IOException, InterruptedException, FileUploadException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(client.config().getUploadSessionUrl() + "/" + UriEncoding.encode(uploadId) + "/complete"))
+                .header("API-KEY", client.config().getApiKey())
+                .timeout(client.config().getReadTimeout())
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        HttpResponse<InputStream> response = client.retrier().execute(Operation.UPLOAD, client.uploadScope(),
+                () -> client.exchange(Operation.UPLOAD, request, HttpResponse.BodyHandlers.ofInputStream()));
+        return client.handleUploadResponse(response.statusCode(), response.body(), null);
+    }
+    
+    /**
+     * Identifies an upload by file, size, modification time and target path
+     */
+    private static String journalName(Path source, long size, String uploadPath) throws IOException {
+        String identity = source.toAbsolutePath().normalize() + "|" + size + "|"
+                + Files.getLastModifiedTime(source).toMillis() + "|" + uploadPath;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(identity.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2 + 8);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.append(".journal").toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+    
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof UncheckedIOException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+    
+    /**
+     * Append-only checkpoint of one upload: an {@code upload <id> <size> <partSize>} header followed by one
+     * {@code part <index>} line per acknowledged part. Lines are forced to disk as they are written; only lines
+     * that end with a newline count, so a line torn by a crash is dropped.
+     */
+    static final class Journal implements AutoCloseable {
+        private final Path file;
+        private final long size;
+        private final long partSize;
+        private final BitSet acknowledged = new BitSet();
+        private final ReentrantLock lock = new ReentrantLock();
+        private FileChannel channel;
+        private String uploadId;
+        
+        private Journal(Path file, long size, long partSize) {
+            this.file = file;
+            this.size = size;
+            this.partSize = partSize;
+        }
+        
+        static Journal open(Path file, long size, long partSize) throws IOException {
+            Journal journal = new Journal(file, size, partSize);
+            if (Files.exists(file)) {
+                journal.load(Files.readAllBytes(file));
+            }
+            return journal;
+        }
+        
+        private void load(byte[] content) throws IOException {
+            int end = 0;
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < content.length; i++) {
+                if (content[i] == '\n') {
+                    lines.add(new String(content, end, i - end, StandardCharsets.UTF_8));
+                    end = i + 1;
+                }
+            }
+            if (lines.isEmpty() || !loadHeader(lines.get(0))) {
+                Files.delete(file);
+                return;
+            }
+            for (String line : lines.subList(1, lines.size())) {
+                String[] entry = line.split(" ");
+                if (entry.length == 2 && entry[0].equals("part")) {
+                    try {
+                        acknowledged.set(Integer.parseInt(entry[1]));
+                    } catch (NumberFormatException | IndexOutOfBoundsException ignored) {
+                        // A damaged entry; its part is sent again
+                    }
+                }
+            }
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            // Cut off a torn last line so the next entry starts on a line of its own
+            channel.truncate(end);
+            channel.position(end);
+        }
+        
+        /**
+         * Takes the session from a header written for this file size and part size; false if it is not one
+         */
+        private boolean loadHeader(String line) {
+            String[] header = line.split(" ");
+            if (header.length != 4 || !header[0].equals("upload") || header[1].isEmpty()) {
+                return false;
+            }
+            try {
+                if (Long.parseLong(header[2]) != size || Long.parseLong(header[3]) != partSize) {
+                    return false;
+                }
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            uploadId = header[1];
+            return true;
+        }
+        
+        String getUploadId() {
+            return uploadId;
+        }
+        
+        void start(String id) throws IOException {
+            uploadId = id;
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            append("upload " + id + " " + size + " " + partSize + "\n");
+        }
+        
+        /**
+         * Number of the first {@code partCount} parts that are not acknowledged yet
+         */
+        int missing(int partCount) {
+            lock.lock();
+            try {
+                return partCount - acknowledged.get(0, partCount).cardinality();
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        boolean isAcknowledged(int part) {
+            lock.lock();
+            try {
+                return acknowledged.get(part);
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        void acknowledge(int part) throws IOException {
+            lock.lock();
+            try {
+                acknowledged.set(part);
+                append("part " + part + "\n");
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        void reset() throws IOException {
+            close();
+            acknowledged.clear();
+            uploadId = null;
+            Files.deleteIfExists(file);
+        }
+        
+        void delete() throws IOException {
+            close();
+            Files.deleteIfExists(file);
+        }
+        
+        private void append(String line) throws IOException {
+            ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.scisbo.filesapi.api;
+
+/**
+ * Percent-encoding of URI path segments and query values as UTF-8
+ */
+final class UriEncoding {
+    
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    
+    private UriEncoding() {}
+    
+    /**
+     * Percent-encodes everything in {@code value} but RFC 3986 unreserved characters, for use as a path segment
+     */
+    static String encode(String value) {
+        return append(new StringBuilder(value.length()), value).toString();
+    }
+    
+    /**
+     * Appends {@code value} with everything but RFC 3986 unreserved characters percent-encoded
+     */
+    static StringBuilder append(StringBuilder out, String value) {
+        int run = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (isUnreserved(c)) {
+                continue;
+            }
+            out.append(value, run, i);
+            int codePoint = c;
+            if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                codePoint = Character.toCodePoint(c, value.charAt(++i));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates have no UTF-8 form; String.getBytes replaces them the same way
+                codePoint = '?';
+            }
+            appendUtf8(out, codePoint);
+            run = i + 1;
+        }
+        return out.append(value, run, value.length());
+    }
+    
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+    
+    private static void appendUtf8(StringBuilder out, int codePoint) {
+        if (codePoint < 0x80) {
+            appendByte(out, codePoint);
+        } else if (codePoint < 0x800) {
+            appendByte(out, 0xC0 | codePoint >> 6);
+            appendByte(out, 0x80 | codePoint & 0x3F);
+        } else if (codePoint < 0x10000) {
+            appendByte(out, 0xE0 | codePoint >> 12);
+            appendByte(out, 0x80 | codePoint >> 6 & 0x3F);
+            appendByte(out, 0x80 | codePoint & 0x3F);
+        } else {
+            appendByte(out, 0xF0 | codePoint >> 18);
+            appendByte(out, 0x80 | codePoint >> 12 & 0x3F);
+            appendByte(out, 0x80 | codePoint >> 6 & 0x3F);
+            appendByte(out, 0x80 | codePoint & 0x3F);
+        }
+    }
+    
+    private static void appendByte(StringBuilder out, int b) {
+        out.append('%').append(HEX[b >> 4 & 0xF]).append(HEX[b & 0xF]);
+    }
+}
@@ -0,0 +1,180 @@
+package com.scisbo.filesapi.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size-classed pool of direct buffers for request bodies.
+ * <p>
+ * Sizes are rounded up to a power of two between {@value #MIN_BUFFER_SIZE} bytes and {@value #MAX_BUFFER_SIZE}
+ * bytes, and each class keeps its own free list. Larger requests are served with plain heap buffers that are
+ * never pooled. At most {@code maxRetainedBytes} are kept on the free lists; buffers released beyond that are
+ * dropped and left to the garbage collector. Direct buffers count against {@code -XX:MaxDirectMemorySize}.
+ * <p>
+ * A request body leases at most {@code maxBytesPerBody} from the pool, {@value #DEFAULT_MAX_BYTES_PER_BODY} bytes
+ * unless configured, and allocates the rest of its chunks on the heap. Its leases only end with the exchange, so
+ * the limit times the number of concurrent uploads is the direct memory the pool may have out at once.
+ */
+public class BufferPool {
+    
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+    public static final int MAX_BUFFER_SIZE = 1024 * 1024;
+    public static final long DEFAULT_MAX_BYTES_PER_BODY = 1024 * 1024;
+    
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SHIFT + 1;
+    
+    private final long maxRetainedBytes;
+    private final long maxBytesPerBody;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<ArrayDeque<ByteBuffer>> free;
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private long retainedBytes;
+    
+    public BufferPool(long maxRetainedBytes) {
+        this(maxRetainedBytes, DEFAULT_MAX_BYTES_PER_BODY);
+    }
+    
+    /**
+     * Creates a pool that lets one request body lease up to {@code maxBytesPerBody}. Set it to the largest body
+     * that should be sent without heap chunks.
+     */
+    public BufferPool(long maxRetainedBytes, long maxBytesPerBody) {
+        if (maxRetainedBytes < 0 || maxBytesPerBody < 0) {
+            throw new IllegalArgumentException("Retained and leased bytes cannot be negative");
+        }
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.maxBytesPerBody = maxBytesPerBody;
+        this.free = new ArrayList<>(CLASSES);
+        for (int i = 0; i < CLASSES; i++) {
+            free.add(new ArrayDeque<>());
+        }
+    }
+    
+    /**
+     * Returns a cleared buffer with exactly {@code size} bytes remaining; its capacity may be larger
+     */
+    public ByteBuffer acquire(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        acquired.increment();
+        if (size > MAX_BUFFER_SIZE) {
+            return ByteBuffer.allocate(size);
+        }
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer;
+        lock.lock();
+        try {
+            buffer = free.get(sizeClass).pollFirst();
+            if (buffer != null) {
+                retainedBytes -= buffer.capacity();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (buffer != null) {
+            reused.increment();
+            return buffer.clear().limit(size);
+        }
+        int capacity = MIN_BUFFER_SIZE << sizeClass;
+        allocatedBytes.add(capacity);
+        return ByteBuffer.allocateDirect(capacity).limit(size);
+    }
+    
+    /**
+     * Returns a buffer obtained from {@link #acquire}. The caller must not touch it afterwards, and nothing else
+     * may still be reading it.
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || Integer.bitCount(capacity) != 1
+                || capacity < MIN_BUFFER_SIZE || capacity > MAX_BUFFER_SIZE) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (retainedBytes + capacity > maxRetainedBytes) {
+                dropped.increment();
+                return;
+            }
+            // Most recently used first, so hot buffers stay in cache
+            free.get(sizeClass(capacity)).addFirst(buffer);
+            retainedBytes += capacity;
+        } finally {
+            lock.unlock();
+        }
+        released.increment();
+    }
+    
+    /**
+     * Number of buffers handed out
+     */
+    public long getAcquired() {
+        return acquired.sum();
+    }
+    
+    /**
+     * Number of buffers handed out from a free list rather than newly allocated
+     */
+    public long getReused() {
+        return reused.sum();
+    }
+    
+    /**
+     * Direct memory allocated by the pool so far, in bytes
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+    
+    /**
+     * Number of buffers put back on a free list
+     */
+    public long getReleased() {
+        return released.sum();
+    }
+    
+    /**
+     * Number of released buffers dropped because the pool was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+    
+    /**
+     * Bytes currently held on the free lists
+     */
+    public long getRetainedBytes() {
+        lock.lock();
+        try {
+            return retainedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public long getMaxRetainedBytes() {
+        return maxRetainedBytes;
+    }
+    
+    /**
+     * Most bytes one request body may lease from the pool
+     */
+    public long getMaxBytesPerBody() {
+        return maxBytesPerBody;
+    }
+    
+    private static int sizeClass(int size) {
+        int rounded = Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(size - 1) << 1);
+        return Integer.numberOfTrailingZeros(rounded) - MIN_SHIFT;
+    }
+}
@@ -1,8 +1,11 @@
 package com.scisbo.filesapi.builder;
 
 import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.source.ContentSource;
+import org.springframework.web.multipart.MultipartFile;
 
 import java.io.InputStream;
+import java.nio.file.Path;
 
 /**
  * Builder for creating FileData objects
@@ -11,7 +14,7 @@ public class FileDataBuilder {
     
     private String filename;
     private String contentType;
-    private InputStream content;
+    private ContentSource source;
     
     private FileDataBuilder() {}
     
@@ -42,7 +45,41 @@ public class FileDataBuilder {
      * Sets the file content as InputStream
      */
     public FileDataBuilder content(InputStream content) {
-        this.content = content;
+        this.source = ContentSource.of(content);
+        return this;
+    }
+    
+    /**
+     * Sets the file content to a file on local disk; the filename defaults to the file's name
+     */
+    public FileDataBuilder file(Path file) {
+        this.source = ContentSource.of(file);
+        if (this.filename == null && file.getFileName() != null) {
+            this.filename = file.getFileName().toString();
+        }
+        return this;
+    }
+    
+    /**
+     * Sets the file content to a multipart file, which is only opened when the request body is sent; the
+     * filename and content type default to the multipart file's
+     */
+    public FileDataBuilder multipartFile(MultipartFile file) {
+        this.source = ContentSource.of(file);
+        if (this.filename == null) {
+            this.filename = file.getOriginalFilename();
+        }
+        if (this.contentType == null) {
+            this.contentType = file.getContentType();
+        }
+        return this;
+    }
+    
+    /**
+     * Sets the file content source
+     */
+    public FileDataBuilder source(ContentSource source) {
+        this.source = source;
         return this;
     }
     
@@ -50,6 +87,6 @@ public class FileDataBuilder {
      * Builds the FileData
      */
     public FileData build() {
-        return new FileData(filename, contentType, content);
+        return new FileData(filename, contentType, source);
     }
 }
@@ -0,0 +1,207 @@
+package com.scisbo.filesapi.cache;
+
+import com.scisbo.filesapi.data.response.AccessTokenResponse;
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Size-bounded LRU cache of access tokens keyed by file IDs, user ID and token duration.
+ * <p>
+ * Entries expire a safety margin before the token itself does. Once an entry has used up
+ * {@value #REFRESH_AFTER_PERCENT}% of its lifetime, the next read returns the cached token and starts a
+ * background refresh. Concurrent misses for the same key share one in-flight request.
+ */
+public class AccessTokenCache {
+    
+    private static final int REFRESH_AFTER_PERCENT = 80;
+    
+    private final int maxSize;
+    private final long safetyMarginNanos;
+    private final LongSupplier nanoClock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Key, Entry> entries;
+    private final Map<Key, CompletableFuture<AccessTokenResponse>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    
+    public AccessTokenCache(int maxSize, Duration safetyMargin) {
+        this(maxSize, safetyMargin, System::nanoTime);
+    }
+    
+    /**
+     * Creates a cache that reads the time from {@code nanoClock}, which counts like {@link System#nanoTime()}
+     */
+    AccessTokenCache(int maxSize, Duration safetyMargin, LongSupplier nanoClock) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxSize = maxSize;
+        this.safetyMarginNanos = safetyMargin.toNanos();
+        this.nanoClock = nanoClock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > AccessTokenCache.this.maxSize;
+            }
+        };
+    }
+    
+    /**
+     * Returns a cached token for the key, or loads one. Only successful responses are cached.
+     * <p>
+     * Each call gets its own future, so a caller that cancels or completes it does not affect
+     * other callers waiting on the same load.
+     */
+    public CompletableFuture<AccessTokenResponse> get(Key key, Supplier<CompletableFuture<AccessTokenResponse>> loader) {
+        long now = nanoClock.getAsLong();
+        Entry entry = lookup(key, now);
+        if (entry == null) {
+            misses.increment();
+            return load(key, loader);
+        }
+        hits.increment();
+        if (now - entry.refreshAt >= 0 && entry.refreshing.compareAndSet(false, true)) {
+            refreshes.increment();
+            load(key, loader).whenComplete((response, error) -> entry.refreshing.set(false));
+        }
+        return CompletableFuture.completedFuture(entry.response);
+    }
+    
+    /**
+     * Removes all cached tokens
+     */
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public long getHits() {
+        return hits.sum();
+    }
+    
+    public long getMisses() {
+        return misses.sum();
+    }
+    
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+    
+    private Entry lookup(Key key, long now) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null && now - entry.expiresAt >= 0) {
+                entries.remove(key);
+                return null;
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private CompletableFuture<AccessTokenResponse> load(Key key, Supplier<CompletableFuture<AccessTokenResponse>> loader) {
+        CompletableFuture<AccessTokenResponse> promise = new CompletableFuture<>();
+        CompletableFuture<AccessTokenResponse> existing = inFlight.putIfAbsent(key, promise);
+        if (existing != null) {
+            return existing.copy();
+        }
+        long issuedAt = nanoClock.getAsLong();
+        CompletableFuture<AccessTokenResponse> request;
+        try {
+            request = loader.get();
+        } catch (RuntimeException e) {
+            inFlight.remove(key, promise);
+            promise.completeExceptionally(e);
+            return promise.copy();
+        }
+        request.whenComplete((response, error) -> {
+            if (error == null && response.isSuccess()) {
+                store(key, response, issuedAt);
+            }
+            inFlight.remove(key, promise);
+            if (error != null) {
+                promise.completeExceptionally(error);
+            } else {
+                promise.complete(response);
+            }
+        });
+        return promise.copy();
+    }
+    
+    private void store(Key key, AccessTokenResponse response, long issuedAt) {
+        long ttl = key.duration.toNanos() - safetyMarginNanos;
+        if (ttl <= 0) {
+            return;
+        }
+        Entry entry = new Entry(response, issuedAt + ttl, issuedAt + ttl / 100 * REFRESH_AFTER_PERCENT);
+        lock.lock();
+        try {
+            entries.put(key, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Cache key; file IDs are compared regardless of order
+     */
+    @Value
+    public static class Key {
+        List<String> fileIds;
+        String userId;
+        Duration duration;
+        
+        public static Key of(List<String> fileIds, String userId, Duration duration) {
+            List<String> sorted = new ArrayList<>(fileIds.size());
+            for (String fileId : fileIds) {
+                if (fileId != null && !fileId.trim().isEmpty()) {
+                    sorted.add(fileId);
+                }
+            }
+            Collections.sort(sorted);
+            return new Key(List.copyOf(sorted), userId, duration);
+        }
+    }
+    
+    private static final class Entry {
+        private final AccessTokenResponse response;
+        private final long expiresAt;
+        private final long refreshAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        
+        Entry(AccessTokenResponse response, long expiresAt, long refreshAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.scisbo.filesapi.config;
+
+/**
+ * Encoding applied to compressible file parts of multipart uploads
+ */
+public enum Compression {
+    
+    /**
+     * Parts are sent as they are
+     */
+    NONE(null),
+    
+    /**
+     * gzip (RFC 1952), signalled with {@code Content-Encoding: gzip}
+     */
+    GZIP("gzip"),
+    
+    /**
+     * zlib-wrapped deflate (RFC 1950), signalled with {@code Content-Encoding: deflate}
+     */
+    DEFLATE("deflate");
+    
+    private final String contentEncoding;
+    
+    Compression(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+    
+    /**
+     * Returns the {@code Content-Encoding} token of this encoding, or null for {@link #NONE}
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+}
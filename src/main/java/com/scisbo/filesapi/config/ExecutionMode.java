@@ -0,0 +1,17 @@
+package com.scisbo.filesapi.config;
+
+/**
+ * Threads the client runs its internal work on
+ */
+public enum ExecutionMode {
+    
+    /**
+     * Platform threads from the HTTP client's default executor
+     */
+    PLATFORM,
+    
+    /**
+     * One virtual thread per task; requires Java 21 or newer at runtime
+     */
+    VIRTUAL
+}
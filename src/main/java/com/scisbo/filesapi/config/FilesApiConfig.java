@@ -1,10 +1,19 @@
 package com.scisbo.filesapi.config;
 
+import com.scisbo.filesapi.buffer.BufferPool;
+import com.scisbo.filesapi.dedup.DedupIndex;
+import com.scisbo.filesapi.metrics.FilesApiMetrics;
+import com.scisbo.filesapi.retry.RetryListener;
+import com.scisbo.filesapi.trace.TraceListener;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.NonNull;
 
+import java.net.http.HttpClient;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.time.ZoneId;
+import java.util.concurrent.Executor;
 
 /**
  * Configuration class for the Files API
@@ -28,13 +37,233 @@ public class FilesApiConfig {
     @Builder.Default
     private final int maxRetries = 3;
     
+    /**
+     * Upper bound of the backoff before the first retry; doubles with each further retry
+     */
+    @Builder.Default
+    private final Duration retryBaseDelay = Duration.ofMillis(200);
+    
+    /**
+     * Longest wait between attempts, including waits requested through Retry-After
+     */
+    @Builder.Default
+    private final Duration retryMaxDelay = Duration.ofSeconds(10);
+    
+    /**
+     * Retries that can be spent in a burst before the retry budget runs dry
+     */
+    @Builder.Default
+    private final int retryBudgetCapacity = 10;
+    
+    /**
+     * Retry tokens earned per call that completes without a retry
+     */
+    @Builder.Default
+    private final double retryBudgetRatio = 0.1;
+    
+    /**
+     * Also retry uploads on failures after the request was sent, such as timeouts and 500, 502 or 504 responses.
+     * The server may already have stored the files then, so a retry can create duplicates. By default uploads
+     * are only retried when they cannot have reached the server.
+     */
+    @Builder.Default
+    private final boolean retryUploadsAfterSend = false;
+    
+    /**
+     * Receives every attempt made by the client
+     */
+    private final RetryListener retryListener;
+    
     @Builder.Default
     private final boolean enableLogging = true;
-
+    
+    /**
+     * Caches access tokens per file IDs, user ID and duration, and coalesces concurrent identical requests
+     */
+    @Builder.Default
+    private final boolean tokenCacheEnabled = false;
+    
+    @Builder.Default
+    private final int tokenCacheMaxSize = 10_000;
+    
+    /**
+     * Cached tokens are dropped this long before they expire
+     */
+    @Builder.Default
+    private final Duration tokenCacheSafetyMargin = Duration.ofSeconds(30);
+    
+    /**
+     * Combines single-file token requests of the same user ID and duration into multi-file requests
+     */
+    @Builder.Default
+    private final boolean tokenBatchingEnabled = false;
+    
+    /**
+     * How long a batch stays open for more file IDs after its first request
+     */
+    @Builder.Default
+    private final Duration tokenBatchWindow = Duration.ofMillis(5);
+    
+    @Builder.Default
+    private final int tokenBatchMaxSize = 100;
+    
+    /**
+     * Percent-encodes file IDs and tokens in preview URLs
+     */
+    @Builder.Default
+    private final boolean previewUrlEncoding = false;
+    
+    /**
+     * Sends a second token request when the first is slower than {@code tokenHedgePercentile} of recent ones
+     */
+    @Builder.Default
+    private final boolean tokenHedgingEnabled = false;
+    
+    @Builder.Default
+    private final double tokenHedgePercentile = 95;
+    
+    /**
+     * Lower bound of the hedge delay, so a fast backend is not hedged on jitter
+     */
+    @Builder.Default
+    private final Duration tokenHedgeMinDelay = Duration.ofMillis(5);
+    
+    /**
+     * Hedges allowed per 100 token requests
+     */
+    @Builder.Default
+    private final double tokenHedgeBudgetPercent = 10;
+    
+    /**
+     * Size of the chunks the multipart encoder hands to the HTTP client; bounds heap use per upload
+     */
+    @Builder.Default
+    private final int uploadChunkSize = 64 * 1024;
+    
+    /**
+     * Encoding for compressible file parts, decided per part from its content type or first bytes; the server
+     * must decode parts by their {@code Content-Encoding} header
+     */
+    @Builder.Default
+    private final Compression uploadCompression = Compression.NONE;
+    
+    /**
+     * Deflate level from 1 (fastest) to 9 (smallest output)
+     */
+    @Builder.Default
+    private final int uploadCompressionLevel = 1;
+    
+    /**
+     * Zone in which the local {@code createdAt} timestamps of upload responses are interpreted; resolved once
+     */
+    @Builder.Default
+    private final ZoneId zoneId = ZoneId.systemDefault();
+    
+    /**
+     * Protocol the built HTTP client prefers; HTTP/2 falls back to HTTP/1.1 when the server does not support it
+     */
+    @Builder.Default
+    private final HttpClient.Version httpVersion = HttpClient.Version.HTTP_2;
+    
+    /**
+     * Shared HTTP client to send requests with instead of building one; {@link #connectionTimeout},
+     * {@link #httpVersion} and {@link #executor} are then not applied to it
+     */
+    private final HttpClient httpClient;
+    
+    /**
+     * Most requests in flight to one host; further requests wait for a free slot. Unlimited when 0
+     */
+    @Builder.Default
+    private final int maxConcurrentRequestsPerHost = 0;
+    
+    /**
+     * Limits concurrent uploads and token requests separately, adapting each limit to the observed latency
+     */
+    @Builder.Default
+    private final boolean adaptiveConcurrencyEnabled = false;
+    
+    @Builder.Default
+    private final int adaptiveConcurrencyInitialLimit = 20;
+    
+    @Builder.Default
+    private final int adaptiveConcurrencyMinLimit = 1;
+    
+    @Builder.Default
+    private final int adaptiveConcurrencyMaxLimit = 200;
+    
+    /**
+     * Calls that may wait for a free slot per operation; further calls are rejected. 0 rejects at the limit
+     */
+    @Builder.Default
+    private final int adaptiveConcurrencyQueueSize = 100;
+    
+    /**
+     * Executor for the HTTP client and for handling async responses; takes precedence over {@link #executionMode}
+     */
+    private final Executor executor;
+    
+    /**
+     * Threads used for internal work when no executor is supplied
+     */
+    @Builder.Default
+    private final ExecutionMode executionMode = ExecutionMode.PLATFORM;
+    
+    /**
+     * Receives latency, byte, status, retry and parse measurements; records nothing by default
+     */
+    @Builder.Default
+    private final FilesApiMetrics metrics = FilesApiMetrics.noop();
+    
+    /**
+     * Receives the phase timing of every upload and token call; calls are not traced when null
+     */
+    private final TraceListener traceListener;
+    
+    /**
+     * Records every upload and token call as a {@code com.scisbo.filesapi.Request} Flight Recorder event
+     */
+    @Builder.Default
+    private final boolean jfrEventsEnabled = false;
+    
+    /**
+     * Skips uploading content that was already uploaded to the same path under the same filename; off when null.
+     * A skipped file is answered with a copy of the {@code FileInfo} recorded when it was uploaded.
+     */
+    private final DedupIndex dedupIndex;
+    
+    /**
+     * Pool the multipart encoder leases its chunks from, which may be shared between clients; chunks are
+     * allocated per request when null
+     */
+    private final BufferPool bufferPool;
+    
+    /**
+     * Reads one-shot stream sources once before sending, so they can be retried, deduplicated and sent with a
+     * Content-Length
+     */
+    @Builder.Default
+    private final boolean spillEnabled = false;
+    
+    /**
+     * Streams up to this many bytes are kept in memory; longer ones are written to a temp file
+     */
+    @Builder.Default
+    private final long spillThreshold = 1024 * 1024;
+    
+    /**
+     * Directory for spill files; the default temp directory when null
+     */
+    private final Path spillDirectory;
+    
     public String getAccessTokenUrl() {
         return baseUrl + "/access-tokens";
     }
     
+    public String getUploadSessionUrl() {
+        return baseUrl + "/uploads";
+    }
+    
     public boolean isLoggingEnabled() {
         return enableLogging;
     }
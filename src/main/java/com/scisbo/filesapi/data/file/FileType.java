@@ -1,22 +1,22 @@
 package com.scisbo.filesapi.data.file;
 
 import com.google.gson.annotations.SerializedName;
-import lombok.AllArgsConstructor;
-import lombok.Data;
 import lombok.NonNull;
+import lombok.Value;
 
 /**
- * Represents file type information including MIME type and extension
+ * Represents file type information including MIME type and extension.
+ * <p>
+ * Immutable, since instances in upload responses are shared between all files of the same type.
  */
-@Data
-@AllArgsConstructor
+@Value
 public class FileType {
     
     @SerializedName("mimeType")
     @NonNull
-    private String mimeType;
+    String mimeType;
     
     @SerializedName("extension")
     @NonNull
-    private String extension;
+    String extension;
 }
@@ -1,12 +1,15 @@
 package com.scisbo.filesapi.data.request;
 
 import com.google.gson.annotations.SerializedName;
-import lombok.AllArgsConstructor;
+import com.scisbo.filesapi.data.source.ContentSource;
+import com.scisbo.filesapi.data.source.InputStreamSource;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 
 /**
  * Represents file data for upload requests
@@ -24,11 +27,37 @@ public class FileData {
     
     @SerializedName("content")
     @NonNull
-    private InputStream content;
+    private ContentSource source;
     
     public FileData(String filename, String contentType, InputStream content) {
+        this(filename, contentType, ContentSource.of(content));
+    }
+    
+    public FileData(String filename, String contentType, ContentSource source) {
         this.filename = filename;
         this.contentType = contentType != null ? contentType : "application/octet-stream";
-        this.content = content;
+        this.source = source;
+    }
+    
+    /**
+     * Returns the file content as a stream. Stream-backed content is returned as-is; other sources are opened
+     * on each call.
+     */
+    public InputStream getContent() {
+        if (source instanceof InputStreamSource) {
+            return ((InputStreamSource) source).getContent();
+        }
+        try {
+            return source.openStream();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open content of " + filename, e);
+        }
+    }
+    
+    /**
+     * Sets the file content as a one-shot stream
+     */
+    public void setContent(@NonNull InputStream content) {
+        this.source = ContentSource.of(content);
     }
 }
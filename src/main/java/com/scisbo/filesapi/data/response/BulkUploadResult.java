@@ -0,0 +1,29 @@
+package com.scisbo.filesapi.data.response;
+
+import com.scisbo.filesapi.data.file.FileInfo;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.exception.FilesApiException;
+import lombok.Value;
+
+/**
+ * Outcome of uploading one file as part of a bulk upload
+ */
+@Value
+public class BulkUploadResult {
+    
+    FileData file;
+    
+    /**
+     * Uploaded file information, or null if the upload failed
+     */
+    FileInfo fileInfo;
+    
+    /**
+     * Failure cause, or null if the upload succeeded
+     */
+    FilesApiException error;
+    
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
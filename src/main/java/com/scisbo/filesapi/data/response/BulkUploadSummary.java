@@ -0,0 +1,14 @@
+package com.scisbo.filesapi.data.response;
+
+import lombok.Value;
+
+/**
+ * Totals of a finished bulk upload
+ */
+@Value
+public class BulkUploadSummary {
+    
+    long requests;
+    long succeeded;
+    long failed;
+}
@@ -0,0 +1,49 @@
+package com.scisbo.filesapi.data.source;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Source of the bytes uploaded for a file
+ */
+public interface ContentSource {
+    
+    /**
+     * Opens a stream over the content
+     */
+    InputStream openStream() throws IOException;
+    
+    /**
+     * Returns the exact content length in bytes, or -1 if it is not known before reading
+     */
+    long length() throws IOException;
+    
+    /**
+     * Whether {@link #openStream()} may be called more than once
+     */
+    boolean isRepeatable();
+    
+    /**
+     * Wraps a one-shot stream
+     */
+    static ContentSource of(InputStream content) {
+        return new InputStreamSource(content);
+    }
+    
+    /**
+     * Reads content from a file on local disk
+     */
+    static ContentSource of(Path file) {
+        return new PathSource(file);
+    }
+    
+    /**
+     * Reads a multipart file lazily
+     */
+    static ContentSource of(MultipartFile file) {
+        return new MultipartFileSource(file);
+    }
+}
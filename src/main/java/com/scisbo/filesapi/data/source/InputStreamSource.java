@@ -0,0 +1,44 @@
+package com.scisbo.filesapi.data.source;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Content backed by a caller-supplied stream, which can only be read once
+ */
+public class InputStreamSource implements ContentSource {
+    
+    private final InputStream content;
+    private final AtomicBoolean opened = new AtomicBoolean();
+    
+    public InputStreamSource(InputStream content) {
+        this.content = Objects.requireNonNull(content, "Content stream cannot be null");
+    }
+    
+    @Override
+    public InputStream openStream() throws IOException {
+        if (!opened.compareAndSet(false, true)) {
+            throw new IOException("Content stream has already been consumed");
+        }
+        return content;
+    }
+    
+    /**
+     * Returns the wrapped stream without marking it as consumed
+     */
+    public InputStream getContent() {
+        return content;
+    }
+    
+    @Override
+    public long length() {
+        return -1;
+    }
+    
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+}
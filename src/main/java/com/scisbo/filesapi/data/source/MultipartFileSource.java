@@ -0,0 +1,40 @@
+package com.scisbo.filesapi.data.source;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+/**
+ * Content of a Spring {@link MultipartFile}. The stream is only opened when the part is written, and
+ * {@link MultipartFile#getSize()} gives the length up front, so a request can carry a Content-Length.
+ * Multipart files return a fresh stream on each {@code getInputStream()} call, so the content is repeatable.
+ */
+public class MultipartFileSource implements ContentSource {
+    
+    private final MultipartFile file;
+    
+    public MultipartFileSource(MultipartFile file) {
+        this.file = Objects.requireNonNull(file, "Multipart file cannot be null");
+    }
+    
+    public MultipartFile getFile() {
+        return file;
+    }
+    
+    @Override
+    public InputStream openStream() throws IOException {
+        return file.getInputStream();
+    }
+    
+    @Override
+    public long length() {
+        return file.getSize();
+    }
+    
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+}
@@ -0,0 +1,48 @@
+package com.scisbo.filesapi.data.source;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Content backed by a file on local disk. The file is read through a {@link FileChannel}, so it can be
+ * memory-mapped by the multipart encoder instead of being copied through the heap.
+ */
+public class PathSource implements ContentSource {
+    
+    private final Path path;
+    
+    public PathSource(Path path) {
+        this.path = Objects.requireNonNull(path, "Path cannot be null");
+    }
+    
+    public Path getPath() {
+        return path;
+    }
+    
+    /**
+     * Opens a read-only channel over the file
+     */
+    public FileChannel openChannel() throws IOException {
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+    
+    @Override
+    public InputStream openStream() throws IOException {
+        return Files.newInputStream(path);
+    }
+    
+    @Override
+    public long length() throws IOException {
+        return Files.size(path);
+    }
+    
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+}
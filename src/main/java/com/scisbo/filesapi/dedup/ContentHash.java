@@ -0,0 +1,66 @@
+package com.scisbo.filesapi.dedup;
+
+import com.scisbo.filesapi.data.source.ContentSource;
+import com.scisbo.filesapi.data.source.PathSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 content hashes, as lowercase hex
+ */
+public final class ContentHash {
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
+    private ContentHash() {
+    }
+    
+    /**
+     * Hashes a repeatable source by reading it once. Files are read through their channel into a direct buffer.
+     */
+    public static String of(ContentSource source) throws IOException {
+        MessageDigest digest = newDigest();
+        if (source instanceof PathSource) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            try (FileChannel channel = ((PathSource) source).openChannel()) {
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+        } else {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = source.openStream()) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+        return hex(digest.digest());
+    }
+    
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+    
+    static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,323 @@
+package com.scisbo.filesapi.dedup;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import com.scisbo.filesapi.data.file.FileInfo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded index from content hash, upload path and filename to the {@link FileInfo} the server returned for that
+ * content. The same bytes uploaded under another name are a miss, so a hit never reports a stale filename.
+ * {@code FileInfo}s are copied on the way in and out, so callers cannot change what later lookups return.
+ * <p>
+ * A disk-backed index keeps an append-only log of JSON lines. In memory it holds the log position of every
+ * live entry plus an LRU front of decoded {@code FileInfo}s, so hot entries are served without touching the
+ * disk. Past {@code maxEntries} the least recently used entries are dropped, and the log is compacted once
+ * it holds more than twice as many records as there are live entries. Appends are not forced to disk: the
+ * index is a cache, and losing its tail after a crash only costs a re-upload.
+ */
+public class DedupIndex implements Closeable {
+    
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 1024;
+    
+    private final Path file;
+    private final int maxEntries;
+    private final Gson gson = new Gson();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Location> locations;
+    private final Map<String, FileInfo> front;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private FileChannel channel;
+    private long records;
+    
+    private DedupIndex(Path file, int maxEntries, int cachedEntries) {
+        if (maxEntries <= 0 || cachedEntries <= 0) {
+            throw new IllegalArgumentException("Index sizes must be positive");
+        }
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.locations = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Location> eldest) {
+                if (size() > DedupIndex.this.maxEntries) {
+                    front.remove(eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.front = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FileInfo> eldest) {
+                return size() > cachedEntries;
+            }
+        };
+    }
+    
+    /**
+     * Creates an index that lives in memory only
+     */
+    public static DedupIndex inMemory(int maxEntries) {
+        return new DedupIndex(null, maxEntries, maxEntries);
+    }
+    
+    /**
+     * Opens or creates a disk-backed index. {@code cachedEntries} bounds the decoded entries kept in memory.
+     */
+    public static DedupIndex open(Path file, int maxEntries, int cachedEntries) throws IOException {
+        DedupIndex index = new DedupIndex(file, maxEntries, cachedEntries);
+        index.load();
+        return index;
+    }
+    
+    /**
+     * Returns a copy of the recorded file for this content, path and filename, or null
+     */
+    public FileInfo get(String contentHash, String path, String filename) {
+        String key = key(contentHash, path, filename);
+        lock.lock();
+        try {
+            Location location = locations.get(key);
+            FileInfo fileInfo = location != null ? front.get(key) : null;
+            if (fileInfo == null && location != null && channel != null) {
+                fileInfo = read(location).fileInfo;
+                front.put(key, fileInfo);
+            }
+            if (fileInfo == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return copy(fileInfo);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read dedup index", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Records the file the server returned for this content and path, under the file's original filename
+     */
+    public void put(String contentHash, String path, FileInfo fileInfo) {
+        FileInfo recorded = copy(fileInfo);
+        String key = key(contentHash, path, recorded.getOriginalFilename());
+        lock.lock();
+        try {
+            front.put(key, recorded);
+            if (channel == null) {
+                locations.put(key, Location.IN_MEMORY);
+                return;
+            }
+            locations.put(key, append(new Record(contentHash, path, recorded)));
+            records++;
+            if (records > MIN_RECORDS_BEFORE_COMPACTION && records > 2L * locations.size()) {
+                compact();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write dedup index", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public int size() {
+        lock.lock();
+        try {
+            return locations.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public long getHits() {
+        return hits.sum();
+    }
+    
+    public long getMisses() {
+        return misses.sum();
+    }
+    
+    /**
+     * Rewrites the log with live entries only and swaps it in atomically
+     */
+    public void compact() throws IOException {
+        lock.lock();
+        try {
+            if (channel == null) {
+                return;
+            }
+            Path temp = file.resolveSibling(file.getFileName() + ".compact");
+            Map<String, Location> compacted = new LinkedHashMap<>();
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                long position = 0;
+                for (Map.Entry<String, Location> entry : locations.entrySet()) {
+                    ByteBuffer line = readLine(entry.getValue());
+                    int length = line.remaining();
+                    while (line.hasRemaining()) {
+                        out.write(line);
+                    }
+                    compacted.put(entry.getKey(), new Location(position, length));
+                    position += length;
+                }
+                out.force(true);
+            }
+            channel.close();
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = openLog();
+            // Reinserted in iteration order, so the LRU order survives
+            locations.clear();
+            locations.putAll(compacted);
+            records = locations.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void load() throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        byte[] log = Files.exists(file) ? Files.readAllBytes(file) : new byte[0];
+        int start = 0;
+        for (int i = 0; i < log.length; i++) {
+            if (log[i] != '\n') {
+                continue;
+            }
+            Record record = decode(new String(log, start, i - start, StandardCharsets.UTF_8));
+            if (record == null) {
+                // A corrupt record ends the usable log
+                break;
+            }
+            locations.put(key(record.hash, record.path, record.fileInfo.getOriginalFilename()),
+                    new Location(start, i + 1 - start));
+            records++;
+            start = i + 1;
+        }
+        channel = openLog();
+        if (start < channel.size()) {
+            // Drop a record torn by a crash during append
+            channel.truncate(start);
+        }
+    }
+    
+    private FileChannel openLog() throws IOException {
+        FileChannel log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        log.position(log.size());
+        return log;
+    }
+    
+    private Location append(Record record) throws IOException {
+        byte[] line = (gson.toJson(record) + "\n").getBytes(StandardCharsets.UTF_8);
+        long position = channel.size();
+        ByteBuffer buffer = ByteBuffer.wrap(line);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        return new Location(position, line.length);
+    }
+    
+    private Record read(Location location) throws IOException {
+        ByteBuffer line = readLine(location);
+        Record record = decode(new String(line.array(), 0, line.remaining() - 1, StandardCharsets.UTF_8));
+        if (record == null) {
+            throw new IOException("Corrupt dedup index record at " + location.offset);
+        }
+        return record;
+    }
+    
+    private ByteBuffer readLine(Location location) throws IOException {
+        ByteBuffer line = ByteBuffer.allocate(location.length);
+        while (line.hasRemaining()) {
+            if (channel.read(line, location.offset + line.position()) < 0) {
+                throw new IOException("Dedup index ends inside a record at " + location.offset);
+            }
+        }
+        return line.flip();
+    }
+    
+    private Record decode(String json) {
+        try {
+            Record record = gson.fromJson(json, Record.class);
+            return record != null && record.hash != null && record.fileInfo != null
+                    && record.fileInfo.getOriginalFilename() != null ? record : null;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+    
+    private static String key(String contentHash, String path, String filename) {
+        return contentHash + '\n' + (path != null ? path : "") + '\n' + filename;
+    }
+    
+    private static FileInfo copy(FileInfo fileInfo) {
+        return new FileInfo(fileInfo.getId(), fileInfo.getStoredFilename(), fileInfo.getOriginalFilename(),
+                fileInfo.getFileType(), fileInfo.getMetadata(), fileInfo.getCreatedAt());
+    }
+    
+    /**
+     * Where an entry's record starts in the log and how long it is, including the newline
+     */
+    private static final class Location {
+        private static final Location IN_MEMORY = new Location(-1, 0);
+        
+        private final long offset;
+        private final int length;
+        
+        Location(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+    
+    /**
+     * One log line
+     */
+    private static final class Record {
+        @SerializedName("hash")
+        private final String hash;
+        
+        @SerializedName("path")
+        private final String path;
+        
+        @SerializedName("fileInfo")
+        private final FileInfo fileInfo;
+        
+        Record(String hash, String path, FileInfo fileInfo) {
+            this.hash = hash;
+            this.path = path;
+            this.fileInfo = fileInfo;
+        }
+    }
+}
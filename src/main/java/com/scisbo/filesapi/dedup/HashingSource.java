@@ -0,0 +1,78 @@
+package com.scisbo.filesapi.dedup;
+
+import com.scisbo.filesapi.data.source.ContentSource;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * Wraps a one-shot source and hashes its bytes while the multipart encoder reads them, so the content is only
+ * read once. The hash is available after the stream has been read to the end.
+ */
+public class HashingSource implements ContentSource {
+    
+    private final ContentSource delegate;
+    private final MessageDigest digest = ContentHash.newDigest();
+    private volatile String hash;
+    
+    public HashingSource(ContentSource delegate) {
+        this.delegate = delegate;
+    }
+    
+    /**
+     * Returns the SHA-256 of the content, or null if it has not been read completely
+     */
+    public String getHash() {
+        return hash;
+    }
+    
+    @Override
+    public InputStream openStream() throws IOException {
+        return new FilterInputStream(delegate.openStream()) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b == -1) {
+                    complete();
+                } else {
+                    digest.update((byte) b);
+                }
+                return b;
+            }
+            
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read == -1) {
+                    complete();
+                } else {
+                    digest.update(buffer, offset, read);
+                }
+                return read;
+            }
+            
+            @Override
+            public long skip(long n) throws IOException {
+                throw new IOException("Skipping is not supported while hashing");
+            }
+        };
+    }
+    
+    private void complete() {
+        if (hash == null) {
+            hash = ContentHash.hex(digest.digest());
+        }
+    }
+    
+    @Override
+    public long length() throws IOException {
+        return delegate.length();
+    }
+    
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+}
@@ -0,0 +1,12 @@
+package com.scisbo.filesapi.exception;
+
+/**
+ * Exception thrown when an access token request is not sent because the client is at its concurrency limit
+ * and its wait queue is full
+ */
+public class AccessTokenRejectedException extends AccessTokenException {
+    
+    public AccessTokenRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package com.scisbo.filesapi.exception;
+
+/**
+ * Exception thrown when an upload is not sent because the client is at its concurrency limit and its wait
+ * queue is full
+ */
+public class UploadRejectedException extends FileUploadException {
+    
+    public UploadRejectedException(String message) {
+        super(message);
+    }
+}
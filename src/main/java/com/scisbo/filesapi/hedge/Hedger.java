@@ -0,0 +1,231 @@
+package com.scisbo.filesapi.hedge;
+
+import com.scisbo.filesapi.metrics.LatencyHistogram;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Sends a second copy of a request when the first one is slower than most recent requests, and takes whichever
+ * answers first.
+ * <p>
+ * The hedge delay is the configured percentile of the last {@value #WINDOW_SAMPLES} latencies, but never less
+ * than {@code minDelay}; nothing is hedged until {@value #MIN_SAMPLES} latencies have been recorded. Hedges are
+ * paid from a token bucket that earns {@code budgetPercent / 100} tokens per request, so they add at most that
+ * share of extra requests even when the backend slows down as a whole.
+ * <p>
+ * The latency recorded for a hedged call is the one its caller saw, measured from the start of the original
+ * attempt whichever attempt wins, so slow originals stay in the window that the delay is taken from.
+ * <p>
+ * The first attempt to complete normally wins and the other one is cancelled. A failed attempt only fails the
+ * call once no other attempt is running, and a failure before the delay has passed is reported without
+ * hedging, so errors are left to the retry policy.
+ */
+public class Hedger {
+    
+    static final int WINDOW_SAMPLES = 256;
+    static final int MIN_SAMPLES = 32;
+    
+    private static final long SCALE = 1000;
+    private static final long BUDGET_CAPACITY = 10 * SCALE;
+    
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long deposit;
+    private final Executor executor;
+    private final AtomicLong tokens = new AtomicLong();
+    private final AtomicLong samples = new AtomicLong();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder wins = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private volatile LatencyHistogram window = new LatencyHistogram();
+    private volatile long delayNanos;
+    
+    /**
+     * Creates a hedger that starts hedges on {@code executor}
+     */
+    public Hedger(double percentile, Duration minDelay, double budgetPercent, Executor executor) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("Hedge percentile must be in (0, 100]");
+        }
+        if (minDelay.isNegative() || budgetPercent < 0) {
+            throw new IllegalArgumentException("Hedge delay and budget cannot be negative");
+        }
+        this.percentile = percentile;
+        this.minDelayNanos = minDelay.toNanos();
+        this.deposit = Math.round(budgetPercent / 100 * SCALE);
+        this.executor = executor;
+    }
+    
+    /**
+     * Runs {@code attempt} and, if it is still running after the hedge delay and the budget allows, runs it a
+     * second time. Cancelling the returned future cancels every attempt.
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> attempt) {
+        return execute(attempt, value -> { });
+    }
+    
+    /**
+     * Like {@link #execute(Supplier)}, and hands the result of an attempt that completes after the call is
+     * already decided to {@code discard}, so that what it holds can be released
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> attempt, Consumer<? super T> discard) {
+        tokens.getAndUpdate(current -> Math.min(BUDGET_CAPACITY, current + deposit));
+        long delay = delayNanos;
+        long start = System.nanoTime();
+        CompletableFuture<T> primary = attempt.get();
+        if (delay == 0) {
+            primary.whenComplete((value, error) -> {
+                if (error == null) {
+                    record(System.nanoTime() - start);
+                }
+            });
+            return primary;
+        }
+        return new Race<>(attempt, discard, primary, start, delay).result;
+    }
+    
+    /**
+     * Current hedge delay, or zero while too few latencies have been recorded
+     */
+    public Duration getDelay() {
+        return Duration.ofNanos(delayNanos);
+    }
+    
+    /**
+     * Number of hedges sent
+     */
+    public long getHedged() {
+        return hedged.sum();
+    }
+    
+    /**
+     * Number of hedges that answered before the attempt they were sent for
+     */
+    public long getWins() {
+        return wins.sum();
+    }
+    
+    /**
+     * Number of hedges not sent because the budget was used up
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+    
+    private void record(long nanos) {
+        LatencyHistogram current = window;
+        current.record(nanos);
+        long count = samples.incrementAndGet();
+        if (count % WINDOW_SAMPLES == 0) {
+            window = new LatencyHistogram();
+            delayNanos = delayFrom(current);
+        } else if (count < WINDOW_SAMPLES && count % MIN_SAMPLES == 0) {
+            delayNanos = delayFrom(current);
+        }
+    }
+    
+    private long delayFrom(LatencyHistogram latencies) {
+        return Math.max(1, Math.max(minDelayNanos, latencies.getValueAtPercentile(percentile)));
+    }
+    
+    private boolean tryWithdraw() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < SCALE) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - SCALE));
+        return true;
+    }
+    
+    /**
+     * One hedged call: the original attempt, a timer for the hedge and the hedge once it is sent
+     */
+    private final class Race<T> {
+        private final Supplier<CompletableFuture<T>> attempt;
+        private final Consumer<? super T> discard;
+        private final long start;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final CompletableFuture<Void> timer = new CompletableFuture<>();
+        private final AtomicInteger running = new AtomicInteger(1);
+        private volatile CompletableFuture<T> hedge;
+        
+        Race(Supplier<CompletableFuture<T>> attempt, Consumer<? super T> discard, CompletableFuture<T> primary,
+             long start, long delay) {
+            this.attempt = attempt;
+            this.discard = discard;
+            this.start = start;
+            watch(primary, false);
+            timer.completeOnTimeout(null, delay, TimeUnit.NANOSECONDS);
+            timer.thenRunAsync(this::fire, executor);
+            result.whenComplete((value, error) -> {
+                timer.cancel(false);
+                primary.cancel(true);
+                CompletableFuture<T> sent = hedge;
+                if (sent != null) {
+                    sent.cancel(true);
+                }
+            });
+        }
+        
+        private void fire() {
+            if (result.isDone()) {
+                return;
+            }
+            if (!tryWithdraw()) {
+                skipped.increment();
+                return;
+            }
+            // Joins the race only while the original attempt is still running
+            if (running.getAndUpdate(n -> n == 0 ? 0 : n + 1) == 0) {
+                return;
+            }
+            hedged.increment();
+            CompletableFuture<T> sent;
+            try {
+                sent = attempt.get();
+            } catch (RuntimeException e) {
+                settle(e);
+                return;
+            }
+            hedge = sent;
+            if (result.isDone()) {
+                sent.cancel(true);
+            }
+            watch(sent, true);
+        }
+        
+        private void watch(CompletableFuture<T> call, boolean isHedge) {
+            call.whenComplete((value, error) -> {
+                if (error != null) {
+                    settle(error);
+                } else if (result.complete(value)) {
+                    record(System.nanoTime() - start);
+                    if (isHedge) {
+                        wins.increment();
+                    }
+                } else {
+                    discard.accept(value);
+                }
+            });
+        }
+        
+        /**
+         * Counts a failed attempt; the call fails with the last error once no attempt is left running
+         */
+        private void settle(Throwable error) {
+            if (running.decrementAndGet() == 0) {
+                result.completeExceptionally(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.scisbo.filesapi.limit;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limiter whose limit follows the observed latency, after TCP Vegas.
+ * <p>
+ * The lowest latency seen so far stands for an unloaded server. For every completed call the limiter estimates
+ * how many calls are queued at the server, {@code limit * (1 - minLatency / latency)}. With almost no queue the
+ * limit grows quickly, with a short queue slowly, and with a long queue it shrinks; the thresholds scale with
+ * the logarithm of the limit. Calls that fail with a transport error, a 429 or a 5xx status cut the limit by a
+ * tenth. The limit does not grow while fewer than half of the permits are in use, so an idle client does not
+ * drift to the maximum.
+ * <p>
+ * The minimum latency creeps up by about 1% per 40 calls, so a server that became permanently slower is
+ * eventually taken as the new baseline. Until then, the lower limit keeps latency close to the old baseline.
+ */
+public class AdaptiveLimiter extends ConcurrencyLimiter {
+    
+    private static final double DROP_BACKOFF = 0.9;
+    private static final double BASELINE_DRIFT = 1.0 + 1.0 / 4096;
+    
+    private final int minLimit;
+    private final int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private double estimatedLimit;
+    private double minLatencyNanos = Double.MAX_VALUE;
+    
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueued) {
+        super(initialLimit, maxQueued);
+        if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 0 < min <= initial <= max");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimatedLimit = initialLimit;
+    }
+    
+    @Override
+    protected void onSample(long heldNanos, int inFlightWhenAcquired, boolean dropped) {
+        int newLimit;
+        lock.lock();
+        try {
+            if (dropped) {
+                estimatedLimit = Math.max(minLimit, estimatedLimit * DROP_BACKOFF);
+            } else {
+                long latency = Math.max(1, heldNanos);
+                minLatencyNanos = Math.min(latency, minLatencyNanos * BASELINE_DRIFT);
+                if (inFlightWhenAcquired < estimatedLimit / 2) {
+                    return;
+                }
+                double log = Math.max(1, Math.log10(estimatedLimit));
+                double queued = estimatedLimit * (1 - minLatencyNanos / latency);
+                if (queued <= log) {
+                    estimatedLimit += 6 * log;
+                } else if (queued < 3 * log) {
+                    estimatedLimit += log;
+                } else if (queued > 6 * log) {
+                    estimatedLimit -= log;
+                }
+                estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit));
+            }
+            newLimit = (int) estimatedLimit;
+        } finally {
+            lock.unlock();
+        }
+        if (newLimit != getLimit()) {
+            setLimit(newLimit);
+        }
+    }
+    
+    public int getMinLimit() {
+        return minLimit;
+    }
+    
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+}
@@ -0,0 +1,213 @@
+package com.scisbo.filesapi.limit;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caps the number of requests in flight. Callers over the limit wait in FIFO order; async callers wait on a
+ * future, so no thread is held while queued. When {@code maxQueued} callers are already waiting, further
+ * callers are rejected with a {@link RejectedExecutionException}.
+ */
+public class ConcurrencyLimiter {
+    
+    private final int maxQueued;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+    private volatile int limit;
+    private int inFlight;
+    
+    public ConcurrencyLimiter(int limit) {
+        this(limit, Integer.MAX_VALUE);
+    }
+    
+    public ConcurrencyLimiter(int limit, int maxQueued) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Concurrency limit must be positive");
+        }
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("Queue size cannot be negative");
+        }
+        this.limit = limit;
+        this.maxQueued = maxQueued;
+    }
+    
+    /**
+     * Returns a future that completes with a permit once one is free, or fails with a
+     * {@link RejectedExecutionException} if the queue is full. Cancelling the future gives up the place in the
+     * queue.
+     */
+    public CompletableFuture<Permit> acquire() {
+        CompletableFuture<Permit> waiter;
+        lock.lock();
+        try {
+            if (inFlight < limit) {
+                inFlight++;
+                return CompletableFuture.completedFuture(new Permit(inFlight));
+            }
+            if (waiters.size() >= maxQueued) {
+                return CompletableFuture.failedFuture(new RejectedExecutionException(
+                        "Concurrency limit of " + limit + " reached with " + waiters.size() + " calls queued"));
+            }
+            waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+        } finally {
+            lock.unlock();
+        }
+        waiter.whenComplete((permit, error) -> {
+            if (waiter.isCancelled()) {
+                remove(waiter);
+            }
+        });
+        return waiter;
+    }
+    
+    /**
+     * Waits for a permit on the calling thread; throws a {@link RejectedExecutionException} if the queue is full
+     */
+    public Permit acquireBlocking() throws InterruptedException {
+        CompletableFuture<Permit> waiter = acquire();
+        try {
+            return waiter.get();
+        } catch (InterruptedException e) {
+            if (!waiter.cancel(false)) {
+                // Granted while being interrupted
+                waiter.join().release();
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Permit future failed", e.getCause());
+        }
+    }
+    
+    public int getLimit() {
+        return limit;
+    }
+    
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public int getQueued() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Changes the limit. A raised limit admits waiting callers at once; a lowered one takes effect as permits
+     * are released.
+     */
+    protected void setLimit(int newLimit) {
+        if (newLimit <= 0) {
+            throw new IllegalArgumentException("Concurrency limit must be positive");
+        }
+        limit = newLimit;
+        while (true) {
+            CompletableFuture<Permit> next;
+            int admitted;
+            lock.lock();
+            try {
+                if (inFlight >= limit || waiters.isEmpty()) {
+                    return;
+                }
+                next = waiters.poll();
+                admitted = ++inFlight;
+            } finally {
+                lock.unlock();
+            }
+            if (!next.complete(new Permit(admitted))) {
+                release();
+            }
+        }
+    }
+    
+    /**
+     * Called when a permit is released, with the time it was held and the number of permits in flight when it
+     * was granted. {@code dropped} tells whether the call failed in a way that suggests overload.
+     */
+    protected void onSample(long heldNanos, int inFlightWhenAcquired, boolean dropped) {
+    }
+    
+    /**
+     * Hands the permit to the next waiter, or frees it. Waiters are completed outside the lock, because their
+     * continuations may start a request.
+     */
+    private void release() {
+        while (true) {
+            CompletableFuture<Permit> next;
+            int admitted;
+            lock.lock();
+            try {
+                if (inFlight > limit || waiters.isEmpty()) {
+                    inFlight--;
+                    return;
+                }
+                next = waiters.poll();
+                admitted = inFlight;
+            } finally {
+                lock.unlock();
+            }
+            if (next.complete(new Permit(admitted))) {
+                return;
+            }
+        }
+    }
+    
+    private void remove(CompletableFuture<Permit> waiter) {
+        lock.lock();
+        try {
+            waiters.remove(waiter);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * The right to run one request; only the first {@link #release()} or {@link #drop()} has an effect
+     */
+    public final class Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final long acquiredNanos = System.nanoTime();
+        private final int inFlightWhenAcquired;
+        
+        private Permit(int inFlightWhenAcquired) {
+            this.inFlightWhenAcquired = inFlightWhenAcquired;
+        }
+        
+        /**
+         * Returns the permit after a call that completed normally
+         */
+        public void release() {
+            finish(false);
+        }
+        
+        /**
+         * Returns the permit after a call that timed out or was refused because the server is overloaded
+         */
+        public void drop() {
+            finish(true);
+        }
+        
+        private void finish(boolean dropped) {
+            if (released.compareAndSet(false, true)) {
+                ConcurrencyLimiter.this.release();
+                onSample(System.nanoTime() - acquiredNanos, inFlightWhenAcquired, dropped);
+            }
+        }
+    }
+}
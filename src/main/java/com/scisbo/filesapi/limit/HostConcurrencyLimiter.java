@@ -0,0 +1,41 @@
+package com.scisbo.filesapi.limit;
+
+import java.net.URI;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps one {@link ConcurrencyLimiter} per scheme, host and port, so each server sees at most {@code limit}
+ * concurrent requests regardless of which operation sends them.
+ */
+public class HostConcurrencyLimiter {
+    
+    private final int limit;
+    private final ConcurrentMap<String, ConcurrencyLimiter> hosts = new ConcurrentHashMap<>();
+    
+    public HostConcurrencyLimiter(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Concurrency limit must be positive");
+        }
+        this.limit = limit;
+    }
+    
+    /**
+     * Returns the limiter for the server {@code uri} points to
+     */
+    public ConcurrencyLimiter forHost(URI uri) {
+        return hosts.computeIfAbsent(key(uri), host -> new ConcurrencyLimiter(limit));
+    }
+    
+    public int getLimit() {
+        return limit;
+    }
+    
+    private static String key(URI uri) {
+        String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase(Locale.ROOT) : "";
+        String host = uri.getHost() != null ? uri.getHost().toLowerCase(Locale.ROOT) : "";
+        int port = uri.getPort() >= 0 ? uri.getPort() : "https".equals(scheme) ? 443 : 80;
+        return scheme + "://" + host + ":" + port;
+    }
+}
@@ -0,0 +1,50 @@
+package com.scisbo.filesapi.metrics;
+
+import com.scisbo.filesapi.api.Operation;
+
+/**
+ * Receives measurements of every HTTP exchange made by the client.
+ * <p>
+ * Each attempt, including retries, is one request: {@link #requestStarted} when it is sent and
+ * {@link #requestCompleted} once its response body has been received, failed or been discarded. Implementations
+ * are called concurrently from request and callback threads and must not block.
+ */
+public interface FilesApiMetrics {
+    
+    /**
+     * Returns the implementation that records nothing. The client skips all measurement work for it.
+     */
+    static FilesApiMetrics noop() {
+        return NoopMetrics.INSTANCE;
+    }
+    
+    /**
+     * Whether measurements should be taken at all
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+    
+    void requestStarted(Operation operation);
+    
+    /**
+     * @param statusCode response status, or -1 if no response was received
+     * @param latencyNanos time from sending the request until its response body was received
+     */
+    void requestCompleted(Operation operation, int statusCode, long latencyNanos);
+    
+    void bytesSent(Operation operation, long bytes);
+    
+    void bytesReceived(Operation operation, long bytes);
+    
+    /**
+     * Called when an attempt is followed by a retry
+     */
+    void retried(Operation operation);
+    
+    /**
+     * Time spent turning a response body into a result. Synchronous calls parse the body while it arrives, so
+     * for them this includes receiving it.
+     */
+    void parsed(Operation operation, long nanos);
+}
@@ -0,0 +1,111 @@
+package com.scisbo.filesapi.metrics;
+
+import com.scisbo.filesapi.api.Operation;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps all measurements in memory, per operation. Useful in tests and for exporting to a monitoring system
+ * by polling.
+ */
+public class InMemoryMetrics implements FilesApiMetrics {
+    
+    private final Map<Operation, OperationMetrics> operations = new EnumMap<>(Operation.class);
+    
+    public InMemoryMetrics() {
+        for (Operation operation : Operation.values()) {
+            operations.put(operation, new OperationMetrics());
+        }
+    }
+    
+    /**
+     * Returns the live measurements of one operation
+     */
+    public OperationMetrics get(Operation operation) {
+        return operations.get(operation);
+    }
+    
+    @Override
+    public void requestStarted(Operation operation) {
+        operations.get(operation).inFlight.incrementAndGet();
+    }
+    
+    @Override
+    public void requestCompleted(Operation operation, int statusCode, long latencyNanos) {
+        OperationMetrics metrics = operations.get(operation);
+        metrics.inFlight.decrementAndGet();
+        metrics.latency.record(latencyNanos);
+        metrics.statusCodes.computeIfAbsent(statusCode, code -> new LongAdder()).increment();
+    }
+    
+    @Override
+    public void bytesSent(Operation operation, long bytes) {
+        operations.get(operation).bytesSent.add(bytes);
+    }
+    
+    @Override
+    public void bytesReceived(Operation operation, long bytes) {
+        operations.get(operation).bytesReceived.add(bytes);
+    }
+    
+    @Override
+    public void retried(Operation operation) {
+        operations.get(operation).retries.increment();
+    }
+    
+    @Override
+    public void parsed(Operation operation, long nanos) {
+        operations.get(operation).parseTime.record(nanos);
+    }
+    
+    /**
+     * Measurements of one operation. Latencies and parse times are in nanoseconds.
+     */
+    public static class OperationMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram parseTime = new LatencyHistogram();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final AtomicLong inFlight = new AtomicLong();
+        private final Map<Integer, LongAdder> statusCodes = new ConcurrentHashMap<>();
+        
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+        
+        public LatencyHistogram getParseTime() {
+            return parseTime;
+        }
+        
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+        
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+        
+        public long getRetries() {
+            return retries.sum();
+        }
+        
+        public long getInFlight() {
+            return inFlight.get();
+        }
+        
+        /**
+         * Returns completed requests by status code; -1 counts requests that got no response
+         */
+        public Map<Integer, Long> getStatusCodes() {
+            Map<Integer, Long> snapshot = new TreeMap<>();
+            statusCodes.forEach((code, counter) -> snapshot.put(code, counter.sum()));
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.scisbo.filesapi.metrics;
+
+import com.scisbo.filesapi.api.Operation;
+
+/**
+ * Metrics implementation that records nothing
+ */
+final class NoopMetrics implements FilesApiMetrics {
+    
+    static final NoopMetrics INSTANCE = new NoopMetrics();
+    
+    private NoopMetrics() {
+    }
+    
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+    
+    @Override
+    public void requestStarted(Operation operation) {
+    }
+    
+    @Override
+    public void requestCompleted(Operation operation, int statusCode, long latencyNanos) {
+    }
+    
+    @Override
+    public void bytesSent(Operation operation, long bytes) {
+    }
+    
+    @Override
+    public void bytesReceived(Operation operation, long bytes) {
+    }
+    
+    @Override
+    public void retried(Operation operation) {
+    }
+    
+    @Override
+    public void parsed(Operation operation, long nanos) {
+    }
+}
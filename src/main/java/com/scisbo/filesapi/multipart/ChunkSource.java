@@ -0,0 +1,22 @@
+package com.scisbo.filesapi.multipart;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Produces the chunks of one body subscription
+ */
+interface ChunkSource extends Closeable {
+    
+    /**
+     * Returns the next chunk, or null once the body is complete
+     */
+    ByteBuffer next() throws IOException;
+    
+    /**
+     * Releases open files; never throws
+     */
+    @Override
+    void close();
+}
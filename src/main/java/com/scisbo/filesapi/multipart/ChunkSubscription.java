@@ -0,0 +1,84 @@
+package com.scisbo.filesapi.multipart;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Emits chunks on demand. Reads happen on the thread that signals demand, one chunk per requested item. Every
+ * signal to the subscriber, including the error for a non-positive request, is sent from the serialised drain
+ * loop.
+ */
+final class ChunkSubscription implements Flow.Subscription {
+    
+    private final Flow.Subscriber<? super ByteBuffer> subscriber;
+    private final ChunkSource reader;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile Throwable invalidRequest;
+    private boolean done;
+    
+    ChunkSubscription(Flow.Subscriber<? super ByteBuffer> subscriber, ChunkSource reader) {
+        this.subscriber = subscriber;
+        this.reader = reader;
+    }
+    
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            if (invalidRequest == null) {
+                invalidRequest = new IllegalArgumentException("Requested demand must be positive: " + n);
+            }
+            drain();
+            return;
+        }
+        demand.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+        drain();
+    }
+    
+    @Override
+    public void cancel() {
+        cancelled = true;
+        drain();
+    }
+    
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            while (!done && !cancelled && invalidRequest == null && demand.get() > 0) {
+                ByteBuffer chunk;
+                try {
+                    chunk = reader.next();
+                } catch (IOException | RuntimeException e) {
+                    fail(e);
+                    break;
+                }
+                if (chunk == null) {
+                    done = true;
+                    reader.close();
+                    subscriber.onComplete();
+                    break;
+                }
+                demand.decrementAndGet();
+                subscriber.onNext(chunk);
+            }
+            if (!done && cancelled) {
+                done = true;
+                reader.close();
+            } else if (!done && invalidRequest != null) {
+                fail(invalidRequest);
+            }
+        } while (wip.decrementAndGet() != 0);
+    }
+    
+    private void fail(Throwable error) {
+        done = true;
+        reader.close();
+        subscriber.onError(error);
+    }
+}
@@ -0,0 +1,119 @@
+package com.scisbo.filesapi.multipart;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Reads another stream and returns its bytes gzip- or zlib-compressed, compressing only as much as the
+ * reader asks for. Memory use is one input buffer and the deflater's window, whatever the content size.
+ */
+final class CompressingInputStream extends InputStream {
+    
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    
+    private final InputStream in;
+    private final Deflater deflater;
+    private final CRC32 crc;
+    private final byte[] input = new byte[16 * 1024];
+    private byte[] header;
+    private int headerPosition;
+    private byte[] trailer;
+    private int trailerPosition;
+    private boolean closed;
+    
+    private CompressingInputStream(InputStream in, int level, boolean gzip) {
+        this.in = in;
+        this.deflater = new Deflater(level, gzip);
+        this.crc = gzip ? new CRC32() : null;
+        this.header = gzip ? GZIP_HEADER : null;
+    }
+    
+    static CompressingInputStream gzip(InputStream in, int level) {
+        return new CompressingInputStream(in, level, true);
+    }
+    
+    static CompressingInputStream deflate(InputStream in, int level) {
+        return new CompressingInputStream(in, level, false);
+    }
+    
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (header != null) {
+            int length = Math.min(len, header.length - headerPosition);
+            System.arraycopy(header, headerPosition, b, off, length);
+            headerPosition += length;
+            if (headerPosition == header.length) {
+                header = null;
+            }
+            return length;
+        }
+        while (!deflater.finished()) {
+            int produced = deflater.deflate(b, off, len);
+            if (produced > 0) {
+                return produced;
+            }
+            if (deflater.needsInput()) {
+                int read = in.read(input);
+                if (read < 0) {
+                    deflater.finish();
+                } else if (read > 0) {
+                    if (crc != null) {
+                        crc.update(input, 0, read);
+                    }
+                    deflater.setInput(input, 0, read);
+                }
+            }
+        }
+        return readTrailer(b, off, len);
+    }
+    
+    /**
+     * Emits the gzip trailer: CRC-32 and input size modulo 2^32, both little-endian
+     */
+    private int readTrailer(byte[] b, int off, int len) {
+        if (crc == null) {
+            return -1;
+        }
+        if (trailer == null) {
+            trailer = new byte[8];
+            writeIntLE(trailer, 0, crc.getValue());
+            writeIntLE(trailer, 4, deflater.getBytesRead());
+        }
+        if (trailerPosition == trailer.length) {
+            return -1;
+        }
+        int length = Math.min(len, trailer.length - trailerPosition);
+        System.arraycopy(trailer, trailerPosition, b, off, length);
+        trailerPosition += length;
+        return length;
+    }
+    
+    private static void writeIntLE(byte[] target, int offset, long value) {
+        for (int i = 0; i < 4; i++) {
+            target[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            deflater.end();
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,547 @@
+package com.scisbo.filesapi.multipart;
+
+import com.scisbo.filesapi.buffer.BufferPool;
+import com.scisbo.filesapi.config.Compression;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.source.ContentSource;
+import com.scisbo.filesapi.data.source.PathSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Streaming multipart/form-data body publisher.
+ * <p>
+ * Parts are encoded lazily while the HTTP client requests data, and emitted as chunks of at most
+ * {@code chunkSize} bytes, so heap use per upload is bounded by the chunk size rather than the payload size.
+ * File-backed parts larger than a chunk are sent as memory-mapped regions straight from the page cache.
+ * When every part has a known length the exact Content-Length is reported, so the request is not sent chunked.
+ * <p>
+ * With compression enabled, compressible file parts are compressed while they are streamed and carry a
+ * {@code Content-Encoding} part header; the body length is then unknown up front.
+ * <p>
+ * With a {@link BufferPool}, chunks are leased from the pool instead of being allocated, up to the pool's
+ * {@linkplain BufferPool#getMaxBytesPerBody() limit per body}. The HTTP client gives no signal when it is done
+ * with a chunk, and over TLS or HTTP/2 it still holds chunks after asking for the next one, so leased chunks
+ * are only handed back by {@link #release(boolean)} once the whole exchange is over.
+ */
+public class MultipartBodyPublisher implements HttpRequest.BodyPublisher {
+    
+    private static final String BOUNDARY = "JavaBoundary" + System.currentTimeMillis();
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final long MAP_WINDOW = 16L * 1024 * 1024;
+    private static final int SCRATCH_SIZE = 16 * 1024;
+    
+    private final int chunkSize;
+    private final PartCompression compression;
+    private final List<Segment> segments = new ArrayList<>();
+    private final StringBuilder header = new StringBuilder();
+    private final BufferPool pool;
+    private final ReentrantLock leaseLock = new ReentrantLock();
+    private final List<ByteBuffer> leased = new ArrayList<>();
+    private long leasedBytes;
+    private boolean released;
+    private long contentLength;
+    
+    public MultipartBodyPublisher(int chunkSize) {
+        this(chunkSize, Compression.NONE, 0);
+    }
+    
+    /**
+     * Creates a publisher that compresses compressible file parts at {@code compressionLevel}, from 1 (fastest)
+     * to 9 (smallest)
+     */
+    public MultipartBodyPublisher(int chunkSize, Compression compression, int compressionLevel) {
+        this(chunkSize, compression, compressionLevel, null);
+    }
+    
+    /**
+     * Creates a publisher that leases its chunks from {@code pool}; the chunks are allocated when it is null
+     */
+    public MultipartBodyPublisher(int chunkSize, Compression compression, int compressionLevel, BufferPool pool) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.compression = compression != Compression.NONE ? new PartCompression(compression, compressionLevel) : null;
+        this.pool = pool;
+    }
+    
+    /**
+     * Adds a file part. The content is not read until the body is sent.
+     */
+    public MultipartBodyPublisher addFile(String fieldName, FileData file) throws IOException {
+        String contentType = file.getContentType();
+        
+        header.append("--").append(BOUNDARY).append("\r\n")
+                .append("Content-Disposition: form-data; name=\"").append(fieldName)
+                .append("\"; filename=\"").append(file.getFilename()).append("\"\r\n")
+                .append("Content-Type: ").append(contentType != null ? contentType : "application/octet-stream")
+                .append("\r\n");
+        
+        ContentSource source = file.getSource();
+        long length = source.length();
+        PartCompression.Verdict verdict = compression != null
+                ? compression.classify(contentType, length)
+                : PartCompression.Verdict.SKIP;
+        if (verdict == PartCompression.Verdict.SAMPLE && source.isRepeatable()) {
+            verdict = sample(source) ? PartCompression.Verdict.COMPRESS : PartCompression.Verdict.SKIP;
+        }
+        if (verdict == PartCompression.Verdict.COMPRESS && length >= 0) {
+            header.append("Content-Encoding: ").append(compression.getContentEncoding()).append("\r\n\r\n");
+            addBytes(takeHeader());
+            segments.add(new CompressedSegment(source));
+            contentLength = -1;
+            addBytes(CRLF);
+            return this;
+        }
+        if (verdict != PartCompression.Verdict.SKIP) {
+            // A stream is classified when it is read, so the part header is written then as well
+            segments.add(new SampledSegment(takeHeader(), source, verdict));
+            contentLength = -1;
+            addBytes(CRLF);
+            return this;
+        }
+        
+        header.append("\r\n");
+        addBytes(takeHeader());
+        if (source instanceof PathSource) {
+            segments.add(new FileSegment((PathSource) source, length));
+        } else {
+            segments.add(new StreamSegment(source));
+        }
+        contentLength = length < 0 || contentLength < 0 ? -1 : contentLength + length;
+        addBytes(CRLF);
+        
+        return this;
+    }
+    
+    /**
+     * Adds a plain text form field
+     */
+    public MultipartBodyPublisher addPart(String fieldName, String value) {
+        header.append("--").append(BOUNDARY).append("\r\n")
+                .append("Content-Disposition: form-data; name=\"").append(fieldName).append("\"\r\n")
+                .append("Content-Type: text/plain; charset=UTF-8").append("\r\n\r\n")
+                .append(value).append("\r\n");
+        
+        addBytes(takeHeader());
+        
+        return this;
+    }
+    
+    /**
+     * Appends the closing boundary and returns the publisher
+     */
+    public HttpRequest.BodyPublisher build() {
+        addBytes(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+    
+    public String getBoundary() {
+        return BOUNDARY;
+    }
+    
+    public int getChunkSize() {
+        return chunkSize;
+    }
+    
+    /**
+     * Ends the leases of all chunks handed out so far. With {@code recycle} they go back to the pool, which is
+     * only safe once the server has read the whole body, such as after a successful response; otherwise they
+     * are left to the garbage collector. Chunks needed by a later subscription are allocated instead.
+     */
+    public void release(boolean recycle) {
+        List<ByteBuffer> chunks;
+        leaseLock.lock();
+        try {
+            released = true;
+            chunks = new ArrayList<>(leased);
+            leased.clear();
+            leasedBytes = 0;
+        } finally {
+            leaseLock.unlock();
+        }
+        if (recycle && pool != null) {
+            chunks.forEach(pool::release);
+        }
+    }
+    
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+    
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        subscriber.onSubscribe(new ChunkSubscription(subscriber, new BodyReader()));
+    }
+    
+    private void addBytes(byte[] bytes) {
+        segments.add(new BytesSegment(bytes));
+        if (contentLength >= 0) {
+            contentLength += bytes.length;
+        }
+    }
+    
+    private boolean sample(ContentSource source) throws IOException {
+        byte[] sample = new byte[PartCompression.SAMPLE_SIZE];
+        try (InputStream content = source.openStream()) {
+            int length = PartCompression.readSample(content, sample);
+            return compression.isCompressible(sample, length, length < sample.length);
+        }
+    }
+    
+    private ByteBuffer allocate(int size) {
+        if (pool != null) {
+            leaseLock.lock();
+            try {
+                if (!released && leasedBytes + size <= pool.getMaxBytesPerBody()) {
+                    ByteBuffer chunk = pool.acquire(size);
+                    leased.add(chunk);
+                    leasedBytes += chunk.capacity();
+                    return chunk;
+                }
+            } finally {
+                leaseLock.unlock();
+            }
+        }
+        return ByteBuffer.allocate(size);
+    }
+    
+    private byte[] takeHeader() {
+        byte[] bytes = header.toString().getBytes(StandardCharsets.UTF_8);
+        header.setLength(0);
+        return bytes;
+    }
+    
+    /**
+     * A contiguous piece of the encoded body
+     */
+    private interface Segment {
+        Cursor open(BodyReader reader) throws IOException;
+    }
+    
+    /**
+     * Reads one opened segment; either a {@link CopyCursor} or a {@link SliceCursor}
+     */
+    private interface Cursor extends Closeable {
+    }
+    
+    /**
+     * A cursor that copies its bytes into the chunks it is given
+     */
+    private interface CopyCursor extends Cursor {
+        /**
+         * Copies as many bytes as fit into {@code chunk}; returns false once the segment is exhausted
+         */
+        boolean read(ByteBuffer chunk) throws IOException;
+    }
+    
+    /**
+     * A cursor that hands out its own buffers instead of copying into chunks
+     */
+    private interface SliceCursor extends Cursor {
+        /**
+         * Returns the next region of the segment, or null once it is exhausted
+         */
+        ByteBuffer slice() throws IOException;
+    }
+    
+    private static final class BytesSegment implements Segment {
+        private final byte[] bytes;
+        
+        BytesSegment(byte[] bytes) {
+            this.bytes = bytes;
+        }
+        
+        @Override
+        public Cursor open(BodyReader reader) {
+            return new CopyCursor() {
+                private int position;
+                
+                @Override
+                public boolean read(ByteBuffer chunk) {
+                    int length = Math.min(chunk.remaining(), bytes.length - position);
+                    chunk.put(bytes, position, length);
+                    position += length;
+                    return position < bytes.length;
+                }
+                
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+    
+    private static final class StreamSegment implements Segment {
+        private final ContentSource source;
+        
+        StreamSegment(ContentSource source) {
+            this.source = source;
+        }
+        
+        @Override
+        public Cursor open(BodyReader reader) throws IOException {
+            return new StreamCursor(source.openStream(), reader);
+        }
+    }
+    
+    private final class CompressedSegment implements Segment {
+        private final ContentSource source;
+        
+        CompressedSegment(ContentSource source) {
+            this.source = source;
+        }
+        
+        @Override
+        public Cursor open(BodyReader reader) throws IOException {
+            return new StreamCursor(compression.compress(source.openStream()), reader);
+        }
+    }
+    
+    /**
+     * Part header and content of a stream whose compressibility is decided from its first bytes, or only from
+     * its size when the content type is compressible
+     */
+    private final class SampledSegment implements Segment {
+        private final byte[] header;
+        private final ContentSource source;
+        private final PartCompression.Verdict verdict;
+        
+        SampledSegment(byte[] header, ContentSource source, PartCompression.Verdict verdict) {
+            this.header = header;
+            this.source = source;
+            this.verdict = verdict;
+        }
+        
+        @Override
+        public Cursor open(BodyReader reader) throws IOException {
+            InputStream content = source.openStream();
+            byte[] sample = new byte[PartCompression.SAMPLE_SIZE];
+            int length;
+            try {
+                length = PartCompression.readSample(content, sample);
+            } catch (IOException e) {
+                content.close();
+                throw e;
+            }
+            boolean complete = length < sample.length;
+            boolean compress = verdict == PartCompression.Verdict.COMPRESS
+                    ? !complete || length >= PartCompression.MIN_SIZE
+                    : compression.isCompressible(sample, length, complete);
+            InputStream body = new SequenceInputStream(new ByteArrayInputStream(sample, 0, length), content);
+            String end = compress ? "Content-Encoding: " + compression.getContentEncoding() + "\r\n\r\n" : "\r\n";
+            return new StreamCursor(new SequenceInputStream(
+                    new SequenceInputStream(new ByteArrayInputStream(header),
+                            new ByteArrayInputStream(end.getBytes(StandardCharsets.US_ASCII))),
+                    compress ? compression.compress(body) : body), reader);
+        }
+    }
+    
+    private static final class StreamCursor implements CopyCursor {
+        private final InputStream content;
+        private final BodyReader reader;
+        
+        StreamCursor(InputStream content, BodyReader reader) {
+            this.content = content;
+            this.reader = reader;
+        }
+        
+        @Override
+        public boolean read(ByteBuffer chunk) throws IOException {
+            if (!chunk.hasArray()) {
+                // Direct chunks are filled through the reader's scratch array
+                byte[] scratch = reader.scratch();
+                int read = content.read(scratch, 0, Math.min(scratch.length, chunk.remaining()));
+                if (read < 0) {
+                    return false;
+                }
+                chunk.put(scratch, 0, read);
+                return true;
+            }
+            int read = content.read(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+            if (read < 0) {
+                return false;
+            }
+            chunk.position(chunk.position() + read);
+            return true;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            content.close();
+        }
+    }
+    
+    /**
+     * File content of a known length. Files smaller than a chunk are copied into the current chunk;
+     * larger files are mapped read-only and emitted window by window without touching the heap.
+     */
+    private final class FileSegment implements Segment {
+        private final PathSource source;
+        private final long length;
+        
+        FileSegment(PathSource source, long length) {
+            this.source = source;
+            this.length = length;
+        }
+        
+        @Override
+        public Cursor open(BodyReader reader) throws IOException {
+            FileChannel channel = source.openChannel();
+            try {
+                if (channel.size() != length) {
+                    throw new IOException("File " + source.getPath() + " changed size since the request was built");
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            if (length < chunkSize) {
+                return new CopyCursor() {
+                    private long position;
+                    
+                    @Override
+                    public boolean read(ByteBuffer chunk) throws IOException {
+                        int limit = chunk.limit();
+                        chunk.limit(chunk.position() + (int) Math.min(chunk.remaining(), length - position));
+                        int read = channel.read(chunk);
+                        chunk.limit(limit);
+                        if (read > 0) {
+                            position += read;
+                        }
+                        return read >= 0 && position < length;
+                    }
+                    
+                    @Override
+                    public void close() throws IOException {
+                        channel.close();
+                    }
+                };
+            }
+            return new SliceCursor() {
+                private long position;
+                
+                @Override
+                public ByteBuffer slice() throws IOException {
+                    if (position >= length) {
+                        return null;
+                    }
+                    long size = Math.min(MAP_WINDOW, length - position);
+                    MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                    position += size;
+                    return region;
+                }
+                
+                @Override
+                public void close() throws IOException {
+                    channel.close();
+                }
+            };
+        }
+    }
+    
+    /**
+     * Walks the segments of one subscription and packs them into chunks
+     */
+    private final class BodyReader implements ChunkSource {
+        private int index;
+        private Cursor cursor;
+        private long emitted;
+        private byte[] scratch;
+        
+        @Override
+        public ByteBuffer next() throws IOException {
+            ByteBuffer chunk = null;
+            while (index < segments.size()) {
+                if (cursor == null) {
+                    cursor = segments.get(index).open(this);
+                }
+                if (cursor instanceof SliceCursor) {
+                    if (chunk != null && chunk.position() > 0) {
+                        return emit(chunk);
+                    }
+                    ByteBuffer slice = ((SliceCursor) cursor).slice();
+                    if (slice != null) {
+                        emitted += slice.remaining();
+                        return slice;
+                    }
+                    closeCursor();
+                    index++;
+                    chunk = null;
+                    continue;
+                }
+                if (chunk == null) {
+                    chunk = allocate(nextChunkSize());
+                }
+                if (!((CopyCursor) cursor).read(chunk)) {
+                    closeCursor();
+                    index++;
+                }
+                if (!chunk.hasRemaining()) {
+                    break;
+                }
+            }
+            if (chunk == null || chunk.position() == 0) {
+                return null;
+            }
+            return emit(chunk);
+        }
+        
+        private ByteBuffer emit(ByteBuffer chunk) {
+            chunk.flip();
+            emitted += chunk.remaining();
+            return chunk;
+        }
+        
+        /**
+         * A full chunk, or just the rest of a body of known length so small bodies take small buffers
+         */
+        private int nextChunkSize() {
+            if (contentLength < 0) {
+                return chunkSize;
+            }
+            return (int) Math.max(1, Math.min(chunkSize, contentLength - emitted));
+        }
+        
+        byte[] scratch() {
+            if (scratch == null) {
+                scratch = new byte[Math.min(chunkSize, SCRATCH_SIZE)];
+            }
+            return scratch;
+        }
+        
+        private void closeCursor() throws IOException {
+            Cursor current = cursor;
+            cursor = null;
+            if (current != null) {
+                current.close();
+            }
+        }
+        
+        @Override
+        public void close() {
+            try {
+                closeCursor();
+            } catch (IOException ignored) {
+                // Nothing left to report to; the subscriber is already done
+            }
+        }
+    }
+}
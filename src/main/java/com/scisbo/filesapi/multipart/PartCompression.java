@@ -0,0 +1,189 @@
+package com.scisbo.filesapi.multipart;
+
+import com.scisbo.filesapi.config.Compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Decides per file part whether compressing it is worth the CPU, and compresses it.
+ * <p>
+ * The declared content type decides when it is conclusive: text formats are compressed, and media and archive
+ * formats, which are compressed already, are sent as they are. Anything else, including the default
+ * {@code application/octet-stream}, is decided from the first bytes: known compressed formats are recognised
+ * by their magic bytes, and the rest is compressed only if it looks like text. Parts under
+ * {@link #MIN_SIZE} bytes are never compressed.
+ */
+final class PartCompression {
+    
+    /**
+     * Bytes inspected to classify content of an inconclusive type
+     */
+    static final int SAMPLE_SIZE = 1024;
+    
+    /**
+     * Below this size the encoding overhead outweighs the savings
+     */
+    static final int MIN_SIZE = 1024;
+    
+    private static final Set<String> COMPRESSIBLE = Set.of(
+            "application/json", "application/x-ndjson", "application/xml", "application/javascript",
+            "application/ecmascript", "application/x-javascript", "application/csv", "application/yaml",
+            "application/x-yaml", "application/sql", "application/graphql", "application/rtf", "application/x-sh",
+            "application/x-tex", "application/x-www-form-urlencoded", "image/svg+xml", "image/bmp",
+            "image/x-ms-bmp");
+    
+    private static final Set<String> INCOMPRESSIBLE = Set.of(
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2", "application/x-xz",
+            "application/x-7z-compressed", "application/x-rar-compressed", "application/vnd.rar",
+            "application/zstd", "application/x-zstd", "application/x-compress", "application/pdf",
+            "application/java-archive", "application/epub+zip");
+    
+    private static final byte[][] MAGIC = {
+            {0x1f, (byte) 0x8b},                                    // gzip
+            {0x50, 0x4b, 0x03, 0x04},                               // zip and zip-based office formats
+            {0x50, 0x4b, 0x05, 0x06},                               // empty zip
+            {(byte) 0x89, 0x50, 0x4e, 0x47},                        // png
+            {(byte) 0xff, (byte) 0xd8, (byte) 0xff},                // jpeg
+            {0x47, 0x49, 0x46, 0x38},                               // gif
+            {0x25, 0x50, 0x44, 0x46},                               // pdf
+            {0x37, 0x7a, (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c},     // 7z
+            {0x52, 0x61, 0x72, 0x21},                               // rar
+            {(byte) 0xfd, 0x37, 0x7a, 0x58, 0x5a, 0x00},            // xz
+            {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd},                 // zstd
+            {0x42, 0x5a, 0x68},                                     // bzip2
+            {0x52, 0x49, 0x46, 0x46},                               // riff: webp, avi, wav
+            {0x4f, 0x67, 0x67, 0x53},                               // ogg
+            {0x66, 0x4c, 0x61, 0x43},                               // flac
+            {0x49, 0x44, 0x33},                                     // mp3 with id3 tag
+            {0x77, 0x4f, 0x46, 0x46},                               // woff
+            {0x77, 0x4f, 0x46, 0x32},                               // woff2
+    };
+    
+    enum Verdict {
+        COMPRESS,
+        SKIP,
+        SAMPLE
+    }
+    
+    private final Compression compression;
+    private final int level;
+    
+    PartCompression(Compression compression, int level) {
+        if (compression == Compression.NONE) {
+            throw new IllegalArgumentException("No compression to apply");
+        }
+        if (level < 1 || level > 9) {
+            // Level 0 stores the data, which would add a Content-Encoding header for no gain
+            throw new IllegalArgumentException("Compression level must be between 1 and 9");
+        }
+        this.compression = compression;
+        this.level = level;
+    }
+    
+    String getContentEncoding() {
+        return compression.getContentEncoding();
+    }
+    
+    /**
+     * Classifies a part by its declared type and length; {@code length} is -1 when unknown
+     */
+    Verdict classify(String contentType, long length) {
+        if (length >= 0 && length < MIN_SIZE) {
+            return Verdict.SKIP;
+        }
+        String type = mediaType(contentType);
+        if (type.startsWith("text/") || COMPRESSIBLE.contains(type)
+                || type.endsWith("+json") || type.endsWith("+xml")) {
+            return Verdict.COMPRESS;
+        }
+        if (type.startsWith("image/") || type.startsWith("video/") || type.startsWith("audio/")
+                || type.startsWith("font/") || INCOMPRESSIBLE.contains(type)
+                || type.startsWith("application/vnd.openxmlformats-")
+                || type.startsWith("application/vnd.oasis.opendocument.")) {
+            return Verdict.SKIP;
+        }
+        return Verdict.SAMPLE;
+    }
+    
+    /**
+     * Decides from the first {@code length} bytes of the content; {@code complete} tells whether that is all of it
+     */
+    boolean isCompressible(byte[] sample, int length, boolean complete) {
+        if (complete && length < MIN_SIZE) {
+            return false;
+        }
+        for (byte[] magic : MAGIC) {
+            if (startsWith(sample, length, magic, 0)) {
+                return false;
+            }
+        }
+        // ISO base media (mp4, mov, heic, avif) carries its signature after the box size
+        if (startsWith(sample, length, new byte[]{0x66, 0x74, 0x79, 0x70}, 4)) {
+            return false;
+        }
+        return looksLikeText(sample, length);
+    }
+    
+    /**
+     * Reads up to {@link #SAMPLE_SIZE} bytes; returns how many were read
+     */
+    static int readSample(InputStream in, byte[] sample) throws IOException {
+        int length = 0;
+        while (length < sample.length) {
+            int read = in.read(sample, length, sample.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+    
+    InputStream compress(InputStream content) {
+        return compression == Compression.GZIP
+                ? CompressingInputStream.gzip(content, level)
+                : CompressingInputStream.deflate(content, level);
+    }
+    
+    /**
+     * Text, including UTF-8, has almost no control bytes besides tabs and line breaks; compressed or encrypted
+     * data has about one in ten
+     */
+    private static boolean looksLikeText(byte[] sample, int length) {
+        int control = 0;
+        for (int i = 0; i < length; i++) {
+            int b = sample[i] & 0xff;
+            if (b == 0) {
+                return false;
+            }
+            if ((b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f') || b == 0x7f) {
+                control++;
+            }
+        }
+        return control * 32 <= length;
+    }
+    
+    private static boolean startsWith(byte[] sample, int length, byte[] prefix, int offset) {
+        if (length < offset + prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (sample[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static String mediaType(String contentType) {
+        if (contentType == null) {
+            return "";
+        }
+        int parameters = contentType.indexOf(';');
+        String type = parameters >= 0 ? contentType.substring(0, parameters) : contentType;
+        return type.trim().toLowerCase(Locale.ROOT);
+    }
+}
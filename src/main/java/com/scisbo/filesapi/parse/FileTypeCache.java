@@ -0,0 +1,41 @@
+package com.scisbo.filesapi.parse;
+
+import com.scisbo.filesapi.data.file.FileType;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interns the immutable {@link FileType} instances by MIME type and extension, so every file of the same type
+ * shares one instance. Lookups allocate nothing. Once {@code maxSize} types are known, unseen types get fresh
+ * instances that are not cached.
+ */
+final class FileTypeCache {
+    
+    private final Map<String, Map<String, FileType>> byMimeType = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maxSize;
+    
+    FileTypeCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+    
+    FileType get(String mimeType, String extension) {
+        Map<String, FileType> byExtension = byMimeType.get(mimeType);
+        if (byExtension != null) {
+            FileType cached = byExtension.get(extension);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        if (size.get() >= maxSize) {
+            return new FileType(mimeType, extension);
+        }
+        return byMimeType.computeIfAbsent(mimeType, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(extension, key -> {
+                    size.incrementAndGet();
+                    return new FileType(mimeType, extension);
+                });
+    }
+}
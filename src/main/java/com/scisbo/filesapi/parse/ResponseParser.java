@@ -0,0 +1,258 @@
+package com.scisbo.filesapi.parse;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.scisbo.filesapi.data.file.FileInfo;
+import com.scisbo.filesapi.data.response.AccessTokenResponse;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import com.scisbo.filesapi.exception.AccessTokenException;
+import com.scisbo.filesapi.exception.FileUploadException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Parses Files API response bodies into response models.
+ * <p>
+ * Bodies are read token by token with a {@link JsonReader}, so no JSON tree is built and uploaded files are
+ * emitted one at a time while the body is still being read. Files of the same type share one {@link
+ * com.scisbo.filesapi.data.file.FileType} instance, and files without metadata share one empty map.
+ */
+public class ResponseParser {
+    
+    private final Gson gson;
+    private final TimestampDecoder timestamps;
+    private final FileTypeCache fileTypes = new FileTypeCache(1024);
+    
+    public ResponseParser(Gson gson) {
+        this(gson, ZoneId.systemDefault());
+    }
+    
+    /**
+     * Creates a parser that reads {@code createdAt} timestamps as local date-times in {@code zone}
+     */
+    public ResponseParser(Gson gson, ZoneId zone) {
+        this.gson = gson;
+        this.timestamps = new TimestampDecoder(zone);
+    }
+    
+    public FileUploadResponse parseUploadResponse(String responseBody) throws FileUploadException {
+        return parseUploadResponse(new StringReader(responseBody));
+    }
+    
+    /**
+     * Parses a UTF-8 upload response as it is read from {@code responseBody}
+     */
+    public FileUploadResponse parseUploadResponse(InputStream responseBody) throws FileUploadException {
+        return parseUploadResponse(new InputStreamReader(responseBody, StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Parses a UTF-8 upload response and hands each uploaded file to {@code onFile} as soon as it is read. The
+     * returned response carries the outcome only; its file list is empty.
+     */
+    public FileUploadResponse parseUploadResponse(InputStream responseBody, Consumer<FileInfo> onFile)
+            throws FileUploadException {
+        boolean uploaded = readUploadResponse(new InputStreamReader(responseBody, StandardCharsets.UTF_8), onFile);
+        return uploaded
+                ? new FileUploadResponse(true, "Upload successful", List.of())
+                : new FileUploadResponse(false, "No files uploaded", List.of());
+    }
+    
+    private FileUploadResponse parseUploadResponse(Reader responseBody) throws FileUploadException {
+        List<FileInfo> fileInfos = new ArrayList<>();
+        if (readUploadResponse(responseBody, fileInfos::add)) {
+            return new FileUploadResponse(true, "Upload successful", fileInfos);
+        }
+        return new FileUploadResponse(false, "No files uploaded", new ArrayList<>());
+    }
+    
+    public AccessTokenResponse parseAccessTokenResponse(String responseBody) throws AccessTokenException {
+        return parseAccessTokenResponse(new StringReader(responseBody));
+    }
+    
+    /**
+     * Parses a UTF-8 access token response as it is read from {@code responseBody}
+     */
+    public AccessTokenResponse parseAccessTokenResponse(InputStream responseBody) throws AccessTokenException {
+        return parseAccessTokenResponse(new InputStreamReader(responseBody, StandardCharsets.UTF_8));
+    }
+    
+    private AccessTokenResponse parseAccessTokenResponse(Reader responseBody) throws AccessTokenException {
+        try {
+            JsonReader reader = gson.newJsonReader(responseBody);
+            String token = null;
+            boolean found = false;
+            
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("data") && reader.peek() != JsonToken.NULL) {
+                    found = true;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("token")) {
+                            token = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            expectEnd(reader);
+            
+            if (found) {
+                return new AccessTokenResponse(true, "Token generated successfully", require(token, "token"));
+            }
+            
+            return new AccessTokenResponse(false, "No token generated", null);
+            
+        } catch (IOException | RuntimeException e) {
+            throw new AccessTokenException("Failed to parse access token response", e);
+        }
+    }
+    
+    /**
+     * Streams {@code data.uploadedFiles} into {@code onFile}; returns whether the array was present
+     */
+    private boolean readUploadResponse(Reader responseBody, Consumer<FileInfo> onFile) throws FileUploadException {
+        try {
+            JsonReader reader = gson.newJsonReader(responseBody);
+            boolean found = false;
+            
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("data") && reader.peek() != JsonToken.NULL) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("uploadedFiles")) {
+                            found = true;
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                FileInfo fileInfo = readUploadedFile(reader);
+                                try {
+                                    onFile.accept(fileInfo);
+                                } catch (RuntimeException e) {
+                                    throw new CallbackFailure(e);
+                                }
+                            }
+                            reader.endArray();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            expectEnd(reader);
+            return found;
+            
+        } catch (CallbackFailure e) {
+            throw (RuntimeException) e.getCause();
+        } catch (IOException | RuntimeException e) {
+            throw new FileUploadException("Failed to parse upload response", e);
+        }
+    }
+    
+    private FileInfo readUploadedFile(JsonReader reader) throws IOException {
+        String id = null;
+        String storedFilename = null;
+        String originalFilename = null;
+        String mimeType = null;
+        String extension = null;
+        String createdAt = null;
+        
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("fileMetadata")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        id = reader.nextString();
+                        break;
+                    case "storedFilename":
+                        storedFilename = reader.nextString();
+                        break;
+                    case "originalFilename":
+                        originalFilename = reader.nextString();
+                        break;
+                    case "createdAt":
+                        createdAt = reader.nextString();
+                        break;
+                    case "fileType":
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case "mimeType":
+                                    mimeType = reader.nextString();
+                                    break;
+                                case "extension":
+                                    extension = reader.nextString();
+                                    break;
+                                default:
+                                    reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+        
+        return new FileInfo(
+                require(id, "id"),
+                require(storedFilename, "storedFilename"),
+                require(originalFilename, "originalFilename"),
+                fileTypes.get(require(mimeType, "mimeType"), require(extension, "extension")),
+                Map.of(),
+                timestamps.toEpochMilli(require(createdAt, "createdAt"))
+        );
+    }
+    
+    private static String require(String value, String field) {
+        if (value == null) {
+            throw new JsonParseException("Missing field: " + field);
+        }
+        return value;
+    }
+    
+    private static void expectEnd(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.END_DOCUMENT) {
+            throw new JsonParseException("Unexpected content after response body");
+        }
+    }
+    
+    /**
+     * Carries an exception thrown by a caller's file callback past the parse error handling
+     */
+    private static final class CallbackFailure extends RuntimeException {
+        CallbackFailure(RuntimeException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.scisbo.filesapi.parse;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+
+/**
+ * Converts ISO-8601 local date-times such as {@code 2024-05-17T08:21:03.123456} to epoch milliseconds in a
+ * fixed zone.
+ * <p>
+ * The common {@code yyyy-MM-ddTHH:mm[:ss[.fraction]]} shape is decoded by hand, without a
+ * {@link java.time.format.DateTimeFormatter}; for zones with a fixed offset the conversion allocates nothing.
+ * Anything else, including out-of-range fields, goes through {@link LocalDateTime#parse}, so accepted input
+ * and error messages match it exactly.
+ */
+final class TimestampDecoder {
+    
+    private static final int SECONDS_PER_DAY = 86_400;
+    private static final long DAYS_0000_TO_1970 = 719_528L;
+    
+    private final ZoneId zone;
+    private final boolean fixedOffset;
+    private final int offsetSeconds;
+    
+    TimestampDecoder(ZoneId zone) {
+        ZoneRules rules = zone.getRules();
+        this.zone = zone;
+        this.fixedOffset = rules.isFixedOffset();
+        this.offsetSeconds = fixedOffset ? rules.getOffset(Instant.EPOCH).getTotalSeconds() : 0;
+    }
+    
+    long toEpochMilli(String text) {
+        int length = text.length();
+        if (length < 16 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+                || text.charAt(13) != ':') {
+            return slow(text);
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = 0;
+        int nanos = 0;
+        
+        if (length > 16) {
+            if (length < 19 || text.charAt(16) != ':') {
+                return slow(text);
+            }
+            second = digits(text, 17, 2);
+            if (length > 19) {
+                int fractionDigits = length - 20;
+                if (text.charAt(19) != '.' || fractionDigits < 1 || fractionDigits > 9) {
+                    return slow(text);
+                }
+                nanos = digits(text, 20, fractionDigits);
+                if (nanos < 0) {
+                    return slow(text);
+                }
+                for (int i = fractionDigits; i < 9; i++) {
+                    nanos *= 10;
+                }
+            }
+        }
+        
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return slow(text);
+        }
+        
+        if (!fixedOffset) {
+            return LocalDateTime.of(year, month, day, hour, minute, second, nanos)
+                    .atZone(zone)
+                    .toInstant()
+                    .toEpochMilli();
+        }
+        long epochSecond = epochDay(year, month, day) * SECONDS_PER_DAY
+                + hour * 3600L + minute * 60L + second - offsetSeconds;
+        return epochSecond * 1000 + nanos / 1_000_000;
+    }
+    
+    private long slow(String text) {
+        return LocalDateTime.parse(text).atZone(zone).toInstant().toEpochMilli();
+    }
+    
+    /**
+     * Parses {@code count} ASCII digits, or returns -1 if any character is not a digit
+     */
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+    
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+    
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+    
+    /**
+     * Same arithmetic as {@link java.time.LocalDate#toEpochDay()} for non-negative years
+     */
+    private static long epochDay(int year, int month, int day) {
+        long total = 365L * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total--;
+            if (!isLeapYear(year)) {
+                total--;
+            }
+        }
+        return total - DAYS_0000_TO_1970;
+    }
+}
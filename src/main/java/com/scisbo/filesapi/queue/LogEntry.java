@@ -0,0 +1,48 @@
+package com.scisbo.filesapi.queue;
+
+import com.scisbo.filesapi.data.request.FileData;
+
+import java.util.Map;
+
+/**
+ * One queued file with the path and metadata it was submitted with
+ */
+final class LogEntry {
+    
+    private final long sequence;
+    private final String path;
+    private final Map<String, String> metadata;
+    private final FileData file;
+    private final int size;
+    
+    LogEntry(long sequence, String path, Map<String, String> metadata, FileData file, int size) {
+        this.sequence = sequence;
+        this.path = path;
+        this.metadata = metadata;
+        this.file = file;
+        this.size = size;
+    }
+    
+    long getSequence() {
+        return sequence;
+    }
+    
+    String getPath() {
+        return path;
+    }
+    
+    Map<String, String> getMetadata() {
+        return metadata;
+    }
+    
+    FileData getFile() {
+        return file;
+    }
+    
+    /**
+     * Size of the entry in the log, in bytes
+     */
+    int getSize() {
+        return size;
+    }
+}
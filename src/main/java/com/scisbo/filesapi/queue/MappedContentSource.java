@@ -0,0 +1,57 @@
+package com.scisbo.filesapi.queue;
+
+import com.scisbo.filesapi.data.source.ContentSource;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Content of a queued file, read straight from the mapped log segment
+ */
+final class MappedContentSource implements ContentSource {
+    
+    private final ByteBuffer content;
+    
+    MappedContentSource(ByteBuffer content) {
+        this.content = content;
+    }
+    
+    @Override
+    public InputStream openStream() {
+        ByteBuffer view = content.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return view.hasRemaining() ? view.get() & 0xff : -1;
+            }
+            
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                if (length == 0) {
+                    return 0;
+                }
+                if (!view.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(length, view.remaining());
+                view.get(buffer, offset, count);
+                return count;
+            }
+            
+            @Override
+            public int available() {
+                return view.remaining();
+            }
+        };
+    }
+    
+    @Override
+    public long length() {
+        return content.remaining();
+    }
+    
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+}
@@ -0,0 +1,696 @@
+package com.scisbo.filesapi.queue;
+
+import com.scisbo.filesapi.data.request.FileData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of queued files, kept in memory-mapped segment files named after the sequence number of their
+ * first entry.
+ * <p>
+ * An entry is framed as {@code [int bodyLength][int crc32c][body]}, with the path, metadata, filename and content
+ * type at the start of the body and the content after them, so queued content is uploaded straight from the
+ * mapping. An append is forced to disk before it returns. Recovery stops at the first frame with a zero length
+ * or a bad checksum, which drops an entry torn by a crash. Earlier segments are checked as they are read: a damaged
+ * entry there makes {@link #read} skip the rest of its segment and report the skipped entries.
+ * <p>
+ * The files of one append become visible to the reader together. If one of them fails, the entries already
+ * written are zeroed and the segments rolled over to are deleted, so none of them is read, now or after a
+ * restart. A crash in the middle of an append can still leave its first entries in the log.
+ * <p>
+ * The checkpoint file holds the sequence number below which every entry has been handled. It is written to a
+ * temp file and renamed over the old one, and segments that lie entirely below it are deleted. The log drops its
+ * references to a deleted segment first, but the mapping, and with it the disk space, is only released once the
+ * buffer and every slice handed out with a {@link LogEntry} have been garbage collected. Where a mapped file
+ * cannot be deleted, as on Windows, deletion is tried again on the next commit and when the log is reopened.
+ */
+final class QueueLog {
+    
+    private static final Logger logger = Logger.getLogger(QueueLog.class.getName());
+    
+    static final int MIN_SEGMENT_SIZE = 4 * 1024;
+    
+    private static final int FRAME_HEADER = 8;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String CHECKPOINT_TEMP = "checkpoint.tmp";
+    private static final String LOCK = "lock";
+    
+    private final Path directory;
+    private final int segmentSize;
+    private final FileChannel lockChannel;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final List<Path> undeleted = new ArrayList<>();
+    private Segment tail;
+    private long appended;
+    private long checkpoint;
+    private Segment readSegment;
+    private int readPosition;
+    private long readSequence;
+    
+    /**
+     * Opens the log in {@code directory}, creating it if needed, and positions the reader at the checkpoint
+     */
+    QueueLog(Path directory, int segmentSize) throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be at least " + MIN_SEGMENT_SIZE + " bytes");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        try {
+            if (lockChannel.tryLock() == null) {
+                throw new IOException("Upload queue directory is in use: " + directory);
+            }
+        } catch (IOException | OverlappingFileLockException e) {
+            lockChannel.close();
+            throw e instanceof IOException
+                    ? (IOException) e
+                    : new IOException("Upload queue directory is in use: " + directory, e);
+        }
+        long saved = readCheckpoint();
+        
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    bases.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not a segment
+                }
+            }
+        }
+        bases.sort(null);
+        for (int i = 0; i < bases.size(); i++) {
+            if (i + 1 < bases.size() && bases.get(i + 1) <= saved) {
+                // Handled before the last commit, but not deleted then; deleted before it is ever mapped
+                undeleted.add(segmentFile(bases.get(i)));
+                continue;
+            }
+            Segment segment = Segment.open(segmentFile(bases.get(i)));
+            if (i + 1 < bases.size()) {
+                segment.count = (int) (bases.get(i + 1) - segment.base);
+            } else {
+                segment.recover();
+            }
+            segments.put(segment.base, segment);
+        }
+        
+        Map.Entry<Long, Segment> last = segments.lastEntry();
+        if (last == null) {
+            tail = Segment.create(segmentFile(saved), saved, segmentSize);
+            segments.put(saved, tail);
+        } else if (last.getValue().count == 0 && last.getValue().buffer.capacity() != segmentSize) {
+            // An empty leftover is mapped again at the configured size rather than replaced, since deleting a
+            // mapped file fails on some platforms
+            tail = Segment.open(last.getValue().file, segmentSize);
+            segments.put(tail.base, tail);
+        } else {
+            tail = last.getValue();
+        }
+        appended = tail.base + tail.count;
+        checkpoint = Math.min(Math.max(saved, segments.firstKey()), appended);
+        deleteUndeleted();
+        
+        readSegment = segments.floorEntry(checkpoint).getValue();
+        readSequence = readSegment.base;
+        while (readSequence < checkpoint) {
+            int length = bodyLength(readSegment.buffer, readPosition);
+            if (length < 0) {
+                // The first read reports the rest of the segment as damaged
+                readSequence = checkpoint;
+                readPosition = -1;
+                break;
+            }
+            readPosition += FRAME_HEADER + length;
+            readSequence++;
+        }
+    }
+    
+    /**
+     * Appends files that share a path and metadata, and returns the sequence number of the first once all of
+     * them are on disk. If one of them cannot be appended, none is. Appends are serialised; reads can go on while
+     * content is copied in.
+     */
+    long append(String path, Map<String, String> metadata, List<FileData> files) throws IOException {
+        List<byte[]> heads = new ArrayList<>(files.size());
+        for (FileData file : files) {
+            byte[] head = encodeHead(path, metadata, file);
+            long length = file.getSource().length();
+            if (length >= 0 && FRAME_HEADER + head.length + length > segmentSize) {
+                throw tooLarge(file);
+            }
+            heads.add(head);
+        }
+        appendLock.lock();
+        try {
+            Append append = new Append();
+            try {
+                for (int i = 0; i < files.size(); i++) {
+                    append.write(heads.get(i), files.get(i));
+                }
+                append.force();
+            } catch (IOException | RuntimeException e) {
+                append.discard(e);
+                throw e;
+            }
+            return append.publish();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the next entries after those already read, up to {@code maxEntries} and {@code maxBytes} of
+     * log space, stopping before the first entry with a different path or metadata. The first entry is returned
+     * whatever its size. Entries read before a damaged one are returned first; the next call then throws
+     * {@link DamagedEntriesException} and moves the reader past the damage.
+     */
+    List<LogEntry> read(int maxEntries, long maxBytes) throws DamagedEntriesException {
+        List<LogEntry> entries = new ArrayList<>();
+        long bytes = 0;
+        lock.lock();
+        try {
+            while (entries.size() < maxEntries && readSequence < appended) {
+                if (readSequence == readSegment.base + readSegment.count) {
+                    Map.Entry<Long, Segment> next = segments.higherEntry(readSegment.base);
+                    if (next != null) {
+                        readSegment = next.getValue();
+                        readPosition = 0;
+                        continue;
+                    }
+                }
+                LogEntry entry = readSequence < readSegment.base + readSegment.count
+                        ? decode(readSegment, readPosition, readSequence)
+                        : null;
+                if (entry == null) {
+                    if (entries.isEmpty()) {
+                        throw skipDamaged();
+                    }
+                    break;
+                }
+                if (!entries.isEmpty()) {
+                    LogEntry first = entries.get(0);
+                    if (!first.getPath().equals(entry.getPath()) || !first.getMetadata().equals(entry.getMetadata())
+                            || bytes + entry.getSize() > maxBytes) {
+                        break;
+                    }
+                }
+                entries.add(entry);
+                bytes += entry.getSize();
+                readPosition += entry.getSize();
+                readSequence++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return entries;
+    }
+    
+    /**
+     * Records that every entry below {@code sequence} has been handled, then deletes the segments that held
+     * only such entries
+     */
+    void commit(long sequence) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(12).putLong(sequence);
+        record.putInt(crc(record, 0, 8)).flip();
+        Path temp = directory.resolve(CHECKPOINT_TEMP);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        lock.lock();
+        try {
+            checkpoint = sequence;
+        } finally {
+            lock.unlock();
+        }
+        deleteBelow(sequence);
+    }
+    
+    /**
+     * Sequence number the next appended entry will get
+     */
+    long getAppended() {
+        lock.lock();
+        try {
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    long getCheckpoint() {
+        lock.lock();
+        try {
+            return checkpoint;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Number of segment files currently on disk
+     */
+    int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Releases the directory; the log must not be used afterwards
+     */
+    void close() throws IOException {
+        lockChannel.close();
+    }
+    
+    /**
+     * Moves the reader to the start of the segment after the current one, or to the end of the log if there is
+     * none, and describes the entries skipped
+     */
+    private DamagedEntriesException skipDamaged() {
+        long from = readSequence;
+        Path damaged = readSegment.file;
+        Map.Entry<Long, Segment> next = segments.higherEntry(readSegment.base);
+        if (next != null) {
+            readSegment = next.getValue();
+            readPosition = 0;
+            readSequence = readSegment.base;
+        } else {
+            readSegment = tail;
+            readPosition = tail.end;
+            readSequence = appended;
+        }
+        return new DamagedEntriesException(from, readSequence, damaged);
+    }
+    
+    private void deleteBelow(long sequence) {
+        lock.lock();
+        try {
+            Iterator<Segment> it = segments.values().iterator();
+            while (it.hasNext()) {
+                Segment segment = it.next();
+                if (segment == tail || segment.base + segment.count > sequence) {
+                    break;
+                }
+                it.remove();
+                segment.release();
+                undeleted.add(segment.file);
+            }
+            if (readSegment.buffer == null) {
+                // Every entry of it has been read, so the reader goes on at the start of the next one
+                readSegment = segments.firstEntry().getValue();
+                readPosition = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+        deleteUndeleted();
+    }
+    
+    private void deleteUndeleted() {
+        List<Path> files;
+        lock.lock();
+        try {
+            files = new ArrayList<>(undeleted);
+            undeleted.clear();
+        } finally {
+            lock.unlock();
+        }
+        List<Path> failed = new ArrayList<>();
+        for (Path file : files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Failed to delete upload queue segment, will try again", e);
+                failed.add(file);
+            }
+        }
+        if (!failed.isEmpty()) {
+            lock.lock();
+            try {
+                undeleted.addAll(failed);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    private long readCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        ByteBuffer record = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (record.remaining() != 12 || crc(record, 0, 8) != record.getInt(8)) {
+            throw new IOException("Corrupt upload queue checkpoint: " + file);
+        }
+        return record.getLong(0);
+    }
+    
+    private Path segmentFile(long base) {
+        return directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+    
+    /**
+     * Decodes the entry at {@code position}; null if its frame is cut short, fails its checksum or holds a head
+     * that does not parse
+     */
+    private static LogEntry decode(Segment segment, int position, long sequence) {
+        int bodyLength = bodyLength(segment.buffer, position);
+        if (bodyLength < 0) {
+            return null;
+        }
+        ByteBuffer body = segment.buffer.slice(position + FRAME_HEADER, bodyLength).asReadOnlyBuffer();
+        try {
+            String path = readString(body);
+            int pairs = body.getInt();
+            Map<String, String> metadata = new LinkedHashMap<>();
+            for (int i = 0; i < pairs; i++) {
+                metadata.put(readString(body), readString(body));
+            }
+            String filename = readString(body);
+            String contentType = readString(body);
+            FileData file = new FileData(filename, contentType, new MappedContentSource(body.slice()));
+            return new LogEntry(sequence, path, metadata, file, FRAME_HEADER + bodyLength);
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Body length of the frame at {@code position}; -1 if the frame is cut short or fails its checksum
+     */
+    private static int bodyLength(ByteBuffer buffer, int position) {
+        if (position < 0 || position > buffer.capacity() - FRAME_HEADER) {
+            return -1;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || length > buffer.capacity() - position - FRAME_HEADER
+                || crc(buffer, position + FRAME_HEADER, length) != buffer.getInt(position + 4)) {
+            return -1;
+        }
+        return length;
+    }
+    
+    private static byte[] encodeHead(String path, Map<String, String> metadata, FileData file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, Objects.requireNonNullElse(path, ""));
+        Map<String, String> pairs = metadata != null ? metadata : Map.of();
+        out.writeInt(pairs.size());
+        for (Map.Entry<String, String> pair : pairs.entrySet()) {
+            writeString(out, pair.getKey());
+            writeString(out, pair.getValue());
+        }
+        writeString(out, file.getFilename());
+        writeString(out, file.getContentType());
+        return bytes.toByteArray();
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static int crc(ByteBuffer buffer, int position, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(position, length));
+        return (int) crc.getValue();
+    }
+    
+    private static IOException tooLarge(FileData file) {
+        return new IOException(file.getFilename() + " does not fit into an upload queue segment");
+    }
+    
+    /**
+     * Entries from {@code from} up to {@code to} that {@link #read} skipped because they could not be decoded
+     */
+    static final class DamagedEntriesException extends IOException {
+        private final long from;
+        private final long to;
+        
+        DamagedEntriesException(long from, long to, Path segment) {
+            super("Damaged upload queue entries " + from + " to " + (to - 1) + " in " + segment);
+            this.from = from;
+            this.to = to;
+        }
+        
+        long getFrom() {
+            return from;
+        }
+        
+        long getTo() {
+            return to;
+        }
+    }
+    
+    /**
+     * Entries of one append, written after the tail and into any segments rolled over to, which are only added
+     * to the log when the append is published
+     */
+    private final class Append {
+        private final Segment first = tail;
+        private final int firstStart = tail.end;
+        private final List<Segment> rolled = new ArrayList<>();
+        private Segment segment = first;
+        private int end = firstStart;
+        private int count;
+        private int written;
+        private int firstEnd;
+        private int firstCount;
+        private int firstHigh;
+        private int high = firstStart;
+        
+        void write(byte[] head, FileData file) throws IOException {
+            long length = file.getSource().length();
+            if (segment.count + count > 0 && (length >= 0 ? FRAME_HEADER + head.length + length
+                    : FRAME_HEADER + head.length) > segment.buffer.capacity() - end) {
+                roll();
+            }
+            int start = end;
+            ByteBuffer out = segment.buffer.duplicate().position(start + FRAME_HEADER);
+            if (out.remaining() < head.length) {
+                throw tooLarge(file);
+            }
+            out.put(head);
+            high = Math.max(high, out.position());
+            
+            ByteBuffer overflow = ByteBuffer.allocate(1);
+            try (ReadableByteChannel in = Channels.newChannel(file.getSource().openStream())) {
+                while ((out.hasRemaining() ? in.read(out) : in.read(overflow)) >= 0) {
+                    high = Math.max(high, out.position());
+                    if (overflow.position() == 0) {
+                        continue;
+                    }
+                    // Content of unknown length did not fit; moves the entry to a new segment if that helps
+                    if (start == 0) {
+                        throw tooLarge(file);
+                    }
+                    Segment previous = segment;
+                    roll();
+                    out = segment.buffer.duplicate()
+                            .put(previous.buffer.slice(start, out.position() - start))
+                            .put(overflow.flip());
+                    overflow.clear();
+                    start = 0;
+                    high = out.position();
+                }
+            }
+            
+            int bodyLength = out.position() - start - FRAME_HEADER;
+            segment.buffer.putInt(start + 4, crc(segment.buffer, start + FRAME_HEADER, bodyLength));
+            segment.buffer.putInt(start, bodyLength);
+            end = out.position();
+            count++;
+            written++;
+        }
+        
+        void force() {
+            settle();
+            if (firstEnd > firstStart) {
+                first.buffer.force(firstStart, firstEnd - firstStart);
+            }
+            for (Segment next : rolled) {
+                next.buffer.force(0, next.end);
+            }
+        }
+        
+        /**
+         * Adds the entries to the log and returns the sequence number of the first
+         */
+        long publish() {
+            settle();
+            lock.lock();
+            try {
+                first.end = firstEnd;
+                first.count += firstCount;
+                for (Segment next : rolled) {
+                    segments.put(next.base, next);
+                }
+                tail = segment;
+                long sequence = appended;
+                appended += written;
+                return sequence;
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        /**
+         * Zeroes what was written after the tail, which recovery would otherwise count, and deletes the segments
+         * rolled over to
+         */
+        void discard(Exception failure) {
+            settle();
+            int limit = Math.max(firstEnd, firstHigh);
+            if (limit > firstStart) {
+                ByteBuffer zeros = first.buffer.duplicate().position(firstStart).limit(limit);
+                byte[] block = new byte[Math.min(zeros.remaining(), 8192)];
+                while (zeros.hasRemaining()) {
+                    zeros.put(block, 0, Math.min(block.length, zeros.remaining()));
+                }
+                first.buffer.force(firstStart, limit - firstStart);
+            }
+            for (Segment next : rolled) {
+                next.release();
+                try {
+                    Files.deleteIfExists(next.file);
+                } catch (IOException e) {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        
+        private void roll() throws IOException {
+            settle();
+            segment = Segment.create(segmentFile(appended + written), appended + written, segmentSize);
+            rolled.add(segment);
+            end = 0;
+            count = 0;
+            high = 0;
+        }
+        
+        /**
+         * Records where the entries of this append end in the current segment
+         */
+        private void settle() {
+            if (segment == first) {
+                firstEnd = end;
+                firstCount = count;
+                firstHigh = high;
+            } else {
+                segment.end = end;
+                segment.count = count;
+            }
+        }
+    }
+    
+    /**
+     * One mapped segment file. {@code count} and {@code end} only change under the log lock once the segment
+     * is in the log, and {@code buffer} is null once it has been removed.
+     */
+    private static final class Segment {
+        final long base;
+        final Path file;
+        MappedByteBuffer buffer;
+        int count;
+        int end;
+        
+        private Segment(long base, Path file, MappedByteBuffer buffer) {
+            this.base = base;
+            this.file = file;
+            this.buffer = buffer;
+        }
+        
+        static Segment create(Path file, long base, int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Segment(base, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+        
+        static Segment open(Path file) throws IOException {
+            return open(file, -1);
+        }
+        
+        /**
+         * Maps an existing segment file, with {@code size} bytes if that is not negative
+         */
+        static Segment open(Path file, long size) throws IOException {
+            String name = file.getFileName().toString();
+            long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Segment(base, file, channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        size >= 0 ? size : channel.size()));
+            }
+        }
+        
+        /**
+         * Drops the mapping, which is unmapped once no slice of it is left either
+         */
+        void release() {
+            buffer = null;
+        }
+        
+        /**
+         * Counts the intact entries of the last segment, which may end in one torn by a crash
+         */
+        void recover() {
+            int position = 0;
+            int length;
+            while ((length = bodyLength(buffer, position)) > 0) {
+                position += FRAME_HEADER + length;
+                count++;
+            }
+            end = position;
+        }
+    }
+}
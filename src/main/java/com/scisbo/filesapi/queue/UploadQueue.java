@@ -0,0 +1,404 @@
+package com.scisbo.filesapi.queue;
+
+import com.scisbo.filesapi.api.FilesApiClient;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.request.FileUploadRequest;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import com.scisbo.filesapi.exception.FileUploadException;
+import com.scisbo.filesapi.exception.UploadRejectedException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Durable queue in front of {@link FilesApiClient#uploadFiles}: {@link #submit} writes the files to a log on local
+ * disk and returns, and background workers upload them in batches.
+ * <p>
+ * Consecutive files with the same path and metadata are sent together, up to {@code maxFilesPerRequest} files.
+ * A batch that fails because the server could not be reached, or answered 408, 429 or 5xx, is retried by its
+ * worker with exponential backoff between {@value #MIN_BACKOFF_MILLIS} ms and {@value #MAX_BACKOFF_MILLIS} ms
+ * until it is uploaded. Any other failure, such as a 4xx refusal or a local error reading a queued entry, would
+ * recur on every attempt, so the batch is logged and dropped rather than holding up the checkpoint. Entries the
+ * log finds damaged on disk are dropped the same way. Progress is checkpointed after each batch, so a restarted
+ * queue resumes with the first file not yet handled. Files are delivered at least once: batches in flight when
+ * the process stops are sent again.
+ * <p>
+ * A worker that stops on an unexpected error is logged, and the queue then refuses new files and no longer
+ * reports itself drained.
+ * <p>
+ * Queued content lives in the mapped log rather than on the heap, so a long outage costs disk space only.
+ */
+public class UploadQueue implements AutoCloseable {
+    
+    private static final Logger logger = Logger.getLogger(UploadQueue.class.getName());
+    
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+    
+    private final FilesApiClient client;
+    private final QueueLog log;
+    private final int maxFilesPerRequest;
+    private final long maxBytesPerRequest;
+    private final List<Thread> workers = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Deque<Batch> dispatched = new ArrayDeque<>();
+    private final LongAdder uploaded = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private boolean closed;
+    private int running;
+    private boolean closeLogOnExit;
+    private RuntimeException failure;
+    
+    /**
+     * Opens or creates a queue in {@code directory} with 64 MiB segments, 100 files per request and one worker
+     */
+    public UploadQueue(FilesApiClient client, Path directory) throws IOException {
+        this(client, directory, 64 * 1024 * 1024, 100, 64L * 1024 * 1024, 1);
+    }
+    
+    /**
+     * Opens or creates a queue in {@code directory}. A single file, including its name and metadata, must fit
+     * into one segment of {@code segmentSize} bytes.
+     */
+    public UploadQueue(FilesApiClient client, Path directory, int segmentSize, int maxFilesPerRequest,
+                       long maxBytesPerRequest, int workers) throws IOException {
+        if (maxFilesPerRequest <= 0 || maxBytesPerRequest <= 0 || workers <= 0) {
+            throw new IllegalArgumentException("Upload queue limits must be positive");
+        }
+        this.client = client;
+        this.maxFilesPerRequest = maxFilesPerRequest;
+        this.maxBytesPerRequest = maxBytesPerRequest;
+        this.log = new QueueLog(directory, segmentSize);
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::work, "files-api-upload-queue-" + i);
+            worker.setDaemon(true);
+            this.workers.add(worker);
+        }
+        this.running = workers;
+        this.workers.forEach(Thread::start);
+    }
+    
+    /**
+     * Writes the files of {@code request} to the log and returns once they are on disk. Stream content is copied
+     * into the log as it is read, so one-shot streams need no buffering. If one file cannot be queued, none of
+     * them is.
+     */
+    public void submit(FileUploadRequest request) throws FileUploadException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new FileUploadException("Upload queue is closed");
+            }
+            if (failure != null) {
+                throw new FileUploadException("Upload queue has stopped", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+        try {
+            log.append(request.getPath(), request.getMetadata(), request.getFiles());
+        } catch (IOException e) {
+            throw new FileUploadException("Failed to queue upload", e);
+        }
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Waits until every submitted file has been handled; returns false if the timeout passed first or a worker
+     * has stopped
+     */
+    public boolean awaitDrained(Duration timeout) throws InterruptedException {
+        long remaining = timeout.toNanos();
+        lock.lock();
+        try {
+            while (log.getCheckpoint() < log.getAppended()) {
+                if (remaining <= 0 || failure != null) {
+                    return false;
+                }
+                remaining = changed.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Number of submitted files not yet handled
+     */
+    public long getPending() {
+        return log.getAppended() - log.getCheckpoint();
+    }
+    
+    /**
+     * Number of files uploaded since the queue was opened
+     */
+    public long getUploaded() {
+        return uploaded.sum();
+    }
+    
+    /**
+     * Number of files dropped because the server refused them or they failed in a way a retry cannot fix
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+    
+    /**
+     * Number of failed upload attempts that were retried
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+    
+    /**
+     * Stops the workers and releases the directory. Uploads in flight are abandoned and sent again when the queue
+     * is next opened. If the calling thread is interrupted while waiting for the workers, this returns with the
+     * interrupt status set, and the last worker to stop releases the directory.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            lock.lock();
+            try {
+                if (running > 0) {
+                    closeLogOnExit = true;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        log.close();
+    }
+    
+    private void work() {
+        try {
+            uploadAll();
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Upload queue worker stopped", e);
+            lock.lock();
+            try {
+                failure = e;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            stopped();
+        }
+    }
+    
+    /**
+     * Releases the directory when the last worker stops after {@link #close()} gave up waiting for it
+     */
+    private void stopped() {
+        boolean closeLog;
+        lock.lock();
+        try {
+            closeLog = --running == 0 && closeLogOnExit;
+        } finally {
+            lock.unlock();
+        }
+        if (closeLog) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to release upload queue directory", e);
+            }
+        }
+    }
+    
+    private void uploadAll() {
+        Batch batch;
+        while ((batch = next()) != null) {
+            long backoff = MIN_BACKOFF_MILLIS;
+            while (!upload(batch)) {
+                failures.increment();
+                try {
+                    // Jittered, so workers of many nodes do not hit a recovering server in step
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+                if (isClosed()) {
+                    return;
+                }
+            }
+            done(batch);
+        }
+    }
+    
+    /**
+     * Takes the next batch from the log, waiting for files to be submitted; null once the queue is closed
+     */
+    private Batch next() {
+        lock.lock();
+        try {
+            while (!closed) {
+                List<LogEntry> entries;
+                try {
+                    entries = log.read(maxFilesPerRequest, maxBytesPerRequest);
+                } catch (QueueLog.DamagedEntriesException e) {
+                    skip(e);
+                    continue;
+                }
+                if (!entries.isEmpty()) {
+                    Batch batch = new Batch(entries, entries.get(entries.size() - 1).getSequence() + 1);
+                    dispatched.add(batch);
+                    return batch;
+                }
+                changed.awaitUninterruptibly();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Sends a batch once; returns false if it should be sent again
+     */
+    private boolean upload(Batch batch) {
+        LogEntry first = batch.entries.get(0);
+        List<FileData> files = new ArrayList<>(batch.entries.size());
+        batch.entries.forEach(entry -> files.add(entry.getFile()));
+        try {
+            FileUploadResponse response = client.uploadFiles(new FileUploadRequest(first.getPath(), files,
+                    first.getMetadata()));
+            if (response.isSuccess()) {
+                uploaded.add(files.size());
+            } else {
+                reject(batch, response.getMessage(), null);
+            }
+            return true;
+        } catch (FileUploadException e) {
+            if (!isTransient(e)) {
+                reject(batch, e.toString(), e);
+                return true;
+            }
+            logger.log(Level.FINE, "Queued upload failed, retrying", e);
+            return false;
+        } catch (RuntimeException e) {
+            reject(batch, e.toString(), e);
+            return true;
+        }
+    }
+    
+    private void reject(Batch batch, String reason, Throwable cause) {
+        rejected.add(batch.entries.size());
+        logger.log(Level.WARNING, "Dropping " + batch.entries.size() + " queued files from sequence "
+                + batch.entries.get(0).getSequence() + ": " + reason, cause);
+    }
+    
+    /**
+     * Drops entries the log could not decode, and checkpoints past them once the batches before them are handled
+     */
+    private void skip(QueueLog.DamagedEntriesException damage) {
+        long count = damage.getTo() - damage.getFrom();
+        rejected.add(count);
+        logger.log(Level.WARNING, "Dropping " + count + " damaged queued files", damage);
+        Batch batch = new Batch(new ArrayList<>(), damage.getTo());
+        dispatched.add(batch);
+        done(batch);
+    }
+    
+    /**
+     * Marks a batch as handled and moves the checkpoint past every leading handled batch
+     */
+    private void done(Batch batch) {
+        lock.lock();
+        try {
+            batch.done = true;
+            long checkpoint = -1;
+            while (!dispatched.isEmpty() && dispatched.peek().done) {
+                Batch handled = dispatched.poll();
+                checkpoint = handled.end;
+                // Holds slices of segments the commit may delete, which stay mapped while they are referenced
+                handled.entries.clear();
+            }
+            if (checkpoint >= 0) {
+                try {
+                    log.commit(checkpoint);
+                } catch (IOException e) {
+                    // The batches are sent again after a restart
+                    logger.log(Level.WARNING, "Failed to checkpoint upload queue", e);
+                }
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Whether sending the batch again may succeed: the server could not be reached, the client was at its
+     * concurrency limit, or the server answered with a status that asks for a retry
+     */
+    private static boolean isTransient(FileUploadException e) {
+        int statusCode = e.getStatusCode();
+        if (statusCode >= 0) {
+            return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+        }
+        return e instanceof UploadRejectedException || e.getCause() instanceof IOException
+                || e.getCause() instanceof InterruptedException;
+    }
+    
+    /**
+     * Files read from the log together and uploaded as one request, or skipped together, ending before the
+     * sequence number {@code end}
+     */
+    private static final class Batch {
+        final List<LogEntry> entries;
+        final long end;
+        boolean done;
+        
+        Batch(List<LogEntry> entries, long end) {
+            this.entries = entries;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.scisbo.filesapi.retry;
+
+import com.scisbo.filesapi.api.Operation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Runs HTTP exchanges with retries according to a {@link RetryPolicy} and a shared {@link RetryBudget}.
+ * <p>
+ * Retryable responses and transport failures are retried only while the call's {@link RetryScope} allows it,
+ * the retry limit is not reached and the budget has tokens. The last response is returned as-is, so callers map
+ * its status to their own errors. Every attempt is reported to the {@link RetryListener} and counted in
+ * {@link RetryStats}.
+ */
+public class Retrier {
+    
+    private final RetryPolicy policy;
+    private final RetryBudget budget;
+    private final RetryListener listener;
+    private final RetryStats stats = new RetryStats();
+    
+    public Retrier(RetryPolicy policy, RetryBudget budget, RetryListener listener) {
+        this.policy = policy;
+        this.budget = budget;
+        this.listener = listener;
+    }
+    
+    public RetryStats getStats() {
+        return stats;
+    }
+    
+    /**
+     * Sends one attempt of an exchange
+     */
+    @FunctionalInterface
+    public interface Exchange<T> {
+        HttpResponse<T> send() throws IOException, InterruptedException;
+    }
+    
+    /**
+     * Runs the exchange on the calling thread, sleeping between attempts
+     */
+    public <T> HttpResponse<T> execute(Operation operation, RetryScope scope, Exchange<T> exchange)
+            throws IOException, InterruptedException {
+        stats.recordCall();
+        for (int attempt = 1; ; attempt++) {
+            HttpResponse<T> response;
+            try {
+                response = exchange.send();
+            } catch (IOException e) {
+                Duration delay = policy.isRetryable(e, scope) ? nextDelay(attempt, null) : null;
+                record(operation, attempt, -1, e, delay);
+                if (delay == null) {
+                    throw e;
+                }
+                Thread.sleep(delay.toMillis());
+                continue;
+            }
+            Duration delay = policy.isRetryable(response, scope) ? nextDelay(attempt, response) : null;
+            record(operation, attempt, response.statusCode(), null, delay);
+            if (delay == null) {
+                return response;
+            }
+            discard(response);
+            Thread.sleep(delay.toMillis());
+        }
+    }
+    
+    /**
+     * Runs the exchange asynchronously; waits between attempts are scheduled on {@code executor} and hold no
+     * thread. Cancelling the returned future cancels the attempt in flight.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> executeAsync(Operation operation, RetryScope scope,
+                                                               Supplier<CompletableFuture<HttpResponse<T>>> exchange,
+                                                               Executor executor) {
+        stats.recordCall();
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<HttpResponse<T>>> current = new AtomicReference<>();
+        result.whenComplete((response, error) -> {
+            CompletableFuture<HttpResponse<T>> inFlight = current.get();
+            if (result.isCancelled() && inFlight != null) {
+                inFlight.cancel(true);
+            }
+        });
+        attemptAsync(operation, scope, exchange, executor, 1, result, current);
+        return result;
+    }
+    
+    private <T> void attemptAsync(Operation operation, RetryScope scope,
+                                  Supplier<CompletableFuture<HttpResponse<T>>> exchange, Executor executor,
+                                  int attempt, CompletableFuture<HttpResponse<T>> result,
+                                  AtomicReference<CompletableFuture<HttpResponse<T>>> current) {
+        if (result.isDone()) {
+            return;
+        }
+        CompletableFuture<HttpResponse<T>> inFlight;
+        try {
+            inFlight = exchange.get();
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        current.set(inFlight);
+        inFlight.whenComplete((response, error) -> {
+            if (result.isDone()) {
+                return;
+            }
+            Duration delay;
+            if (error != null) {
+                Throwable cause = unwrap(error);
+                delay = policy.isRetryable(cause, scope) ? nextDelay(attempt, null) : null;
+                record(operation, attempt, -1, cause, delay);
+                if (delay == null) {
+                    result.completeExceptionally(cause);
+                    return;
+                }
+            } else {
+                delay = policy.isRetryable(response, scope) ? nextDelay(attempt, response) : null;
+                record(operation, attempt, response.statusCode(), null, delay);
+                if (delay == null) {
+                    result.complete(response);
+                    return;
+                }
+                discard(response);
+            }
+            CompletableFuture.delayedExecutor(delay.toMillis(), TimeUnit.MILLISECONDS, executor)
+                    .execute(() -> attemptAsync(operation, scope, exchange, executor, attempt + 1, result, current));
+        });
+    }
+    
+    /**
+     * Returns the delay before the next attempt, or null if the call should not be retried
+     */
+    private Duration nextDelay(int attempt, HttpResponse<?> response) {
+        if (attempt > policy.getMaxRetries()) {
+            return null;
+        }
+        if (!budget.tryAcquire()) {
+            stats.recordBudgetRejection();
+            return null;
+        }
+        return policy.delay(attempt, response);
+    }
+    
+    private void record(Operation operation, int attempt, int statusCode, Throwable error, Duration delay) {
+        stats.recordAttempt();
+        if (delay == null && error == null && !policy.isRetryableStatus(statusCode)) {
+            budget.onSuccess();
+        }
+        if (listener != null) {
+            listener.onAttempt(new RetryAttempt(operation, attempt, statusCode, error, delay));
+        }
+    }
+    
+    private static void discard(HttpResponse<?> response) {
+        if (response.body() instanceof InputStream) {
+            try {
+                ((InputStream) response.body()).close();
+            } catch (IOException ignored) {
+                // The response is abandoned anyway
+            }
+        }
+    }
+    
+    private static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
@@ -0,0 +1,39 @@
+package com.scisbo.filesapi.retry;
+
+import com.scisbo.filesapi.api.Operation;
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * Outcome of a single attempt of a client call
+ */
+@Value
+public class RetryAttempt {
+    
+    Operation operation;
+    
+    /**
+     * 1-based attempt number
+     */
+    int attempt;
+    
+    /**
+     * Response status, or -1 if the attempt failed without a response
+     */
+    int statusCode;
+    
+    /**
+     * Transport failure, or null if a response was received
+     */
+    Throwable error;
+    
+    /**
+     * Delay before the next attempt, or null if this attempt was the last one
+     */
+    Duration retryDelay;
+    
+    public boolean isRetrying() {
+        return retryDelay != null;
+    }
+}
@@ -0,0 +1,56 @@
+package com.scisbo.filesapi.retry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket that limits retries to a fraction of successful traffic.
+ * <p>
+ * Every retry withdraws one token and every call that completes without needing a retry deposits
+ * {@code ratio} tokens, up to {@code capacity}. When the bucket is empty retries are skipped, so a degraded
+ * backend sees at most {@code ratio} extra requests per successful one instead of a retry storm.
+ */
+public class RetryBudget {
+    
+    private static final long SCALE = 1000;
+    
+    private final long capacity;
+    private final long deposit;
+    private final AtomicLong tokens;
+    
+    public RetryBudget(int capacity, double ratio) {
+        if (capacity < 0 || ratio < 0) {
+            throw new IllegalArgumentException("Retry budget capacity and ratio cannot be negative");
+        }
+        this.capacity = capacity * SCALE;
+        this.deposit = Math.round(ratio * SCALE);
+        this.tokens = new AtomicLong(this.capacity);
+    }
+    
+    /**
+     * Takes one token if available
+     */
+    public boolean tryAcquire() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < SCALE) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - SCALE));
+        return true;
+    }
+    
+    /**
+     * Credits the bucket for a call that did not need a retry
+     */
+    public void onSuccess() {
+        tokens.getAndUpdate(current -> Math.min(capacity, current + deposit));
+    }
+    
+    /**
+     * Returns the number of whole retries currently available
+     */
+    public long available() {
+        return tokens.get() / SCALE;
+    }
+}
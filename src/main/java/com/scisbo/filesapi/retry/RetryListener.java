@@ -0,0 +1,10 @@
+package com.scisbo.filesapi.retry;
+
+/**
+ * Receives every attempt made by the client, including the final one
+ */
+@FunctionalInterface
+public interface RetryListener {
+    
+    void onAttempt(RetryAttempt attempt);
+}
@@ -0,0 +1,138 @@
+package com.scisbo.filesapi.retry;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpResponse;
+import java.nio.file.FileSystemException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.net.ssl.SSLHandshakeException;
+
+/**
+ * Decides which failures are retried and how long to wait before the next attempt.
+ * <p>
+ * Backoff is exponential with full jitter: retry {@code n} waits a random time between zero and
+ * {@code min(maxDelay, baseDelay * 2^(n-1))}. A {@code Retry-After} header on the response takes precedence,
+ * capped at {@code maxDelay}.
+ * <p>
+ * For calls with {@link RetryScope#UNSENT}, only failures that happen before the server can act on the
+ * request are retried, so a non-idempotent call is never repeated after it may have been processed.
+ */
+public class RetryPolicy {
+    
+    private static final Set<Integer> RETRYABLE_STATUSES = Set.of(408, 425, 429, 500, 502, 503, 504);
+    private static final Set<Integer> UNPROCESSED_STATUSES = Set.of(429, 503);
+    
+    private final int maxRetries;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+    
+    public RetryPolicy(int maxRetries, Duration baseDelay, Duration maxDelay) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Max retries cannot be negative");
+        }
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+    
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+    
+    /**
+     * Whether a response with this status is worth another attempt
+     */
+    public boolean isRetryableStatus(int statusCode) {
+        return RETRYABLE_STATUSES.contains(statusCode);
+    }
+    
+    /**
+     * Whether a transport failure is transient. Local file errors and TLS handshake failures are not.
+     */
+    public boolean isRetryable(Throwable error) {
+        if (!(error instanceof IOException)) {
+            return false;
+        }
+        return !(error instanceof FileNotFoundException
+                || error instanceof FileSystemException
+                || error instanceof SSLHandshakeException);
+    }
+    
+    /**
+     * Whether a response is worth another attempt of a call with the given scope
+     */
+    public boolean isRetryable(HttpResponse<?> response, RetryScope scope) {
+        if (scope == RetryScope.UNSENT) {
+            return UNPROCESSED_STATUSES.contains(response.statusCode()) && retryAfter(response).isPresent();
+        }
+        return scope == RetryScope.ALL && isRetryableStatus(response.statusCode());
+    }
+    
+    /**
+     * Whether a transport failure is worth another attempt of a call with the given scope. Connection failures
+     * are the only ones known to happen before the request was sent.
+     */
+    public boolean isRetryable(Throwable error, RetryScope scope) {
+        if (scope == RetryScope.UNSENT) {
+            return error instanceof ConnectException || error instanceof HttpConnectTimeoutException;
+        }
+        return scope == RetryScope.ALL && isRetryable(error);
+    }
+    
+    /**
+     * Returns the delay before retry number {@code retry} (1-based)
+     */
+    public Duration delay(int retry, HttpResponse<?> response) {
+        if (response != null) {
+            Optional<Duration> retryAfter = retryAfter(response);
+            if (retryAfter.isPresent()) {
+                return retryAfter.get().compareTo(maxDelay) > 0 ? maxDelay : retryAfter.get();
+            }
+        }
+        return backoff(retry);
+    }
+    
+    /**
+     * Full-jitter exponential backoff
+     */
+    public Duration backoff(int retry) {
+        long cap = maxDelay.toMillis();
+        long ceiling = baseDelay.toMillis() << Math.min(retry - 1, 30);
+        if (ceiling <= 0 || ceiling > cap) {
+            ceiling = cap;
+        }
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
+    
+    /**
+     * Parses a {@code Retry-After} header given either as seconds or as an HTTP date
+     */
+    static Optional<Duration> retryAfter(HttpResponse<?> response) {
+        Optional<String> header = response.headers().firstValue("Retry-After");
+        if (header.isEmpty()) {
+            return Optional.empty();
+        }
+        String value = header.get().trim();
+        try {
+            long seconds = Long.parseLong(value);
+            return Optional.of(Duration.ofSeconds(Math.max(0, seconds)));
+        } catch (NumberFormatException ignored) {
+            // Not delta-seconds, try an HTTP date
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            Duration delay = Duration.between(ZonedDateTime.now(date.getZone()), date);
+            return Optional.of(delay.isNegative() ? Duration.ZERO : delay);
+        } catch (DateTimeParseException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.scisbo.filesapi.retry;
+
+/**
+ * Which failures of a call may be retried, depending on whether repeating it is safe
+ */
+public enum RetryScope {
+    
+    /**
+     * Never retried, for calls whose request body cannot be sent again
+     */
+    NONE,
+    
+    /**
+     * Retried only when the server cannot have acted on the request: failures to connect, and 429 or 503
+     * responses with a {@code Retry-After} header. For non-idempotent calls such as uploads.
+     */
+    UNSENT,
+    
+    /**
+     * Retried on every transient failure, for idempotent calls
+     */
+    ALL
+}
@@ -0,0 +1,52 @@
+package com.scisbo.filesapi.retry;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals of calls and attempts, used to spot retry amplification
+ */
+public class RetryStats {
+    
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder budgetRejections = new LongAdder();
+    
+    void recordCall() {
+        calls.increment();
+    }
+    
+    void recordAttempt() {
+        attempts.increment();
+    }
+    
+    void recordBudgetRejection() {
+        budgetRejections.increment();
+    }
+    
+    public long getCalls() {
+        return calls.sum();
+    }
+    
+    public long getAttempts() {
+        return attempts.sum();
+    }
+    
+    public long getRetries() {
+        return Math.max(0, getAttempts() - getCalls());
+    }
+    
+    /**
+     * Retries that were skipped because the retry budget was empty
+     */
+    public long getBudgetRejections() {
+        return budgetRejections.sum();
+    }
+    
+    /**
+     * Attempts per call; 1.0 means no retries were needed
+     */
+    public double getAmplification() {
+        long callCount = getCalls();
+        return callCount == 0 ? 1.0 : (double) getAttempts() / callCount;
+    }
+}
@@ -0,0 +1,29 @@
+package com.scisbo.filesapi.spill;
+
+import com.scisbo.filesapi.data.source.PathSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+/**
+ * Stream content written to a temp file. Being a {@link PathSource}, it is sent like any file on disk, straight
+ * from the page cache.
+ */
+final class FileSpillSource extends PathSource {
+    
+    private static final Logger logger = Logger.getLogger(FileSpillSource.class.getName());
+    
+    FileSpillSource(Path file) {
+        super(file);
+    }
+    
+    void delete() {
+        try {
+            Files.deleteIfExists(getPath());
+        } catch (IOException e) {
+            logger.warning("Failed to delete spill file " + getPath() + ": " + e.getMessage());
+        }
+    }
+}
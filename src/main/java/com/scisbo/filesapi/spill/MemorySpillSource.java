@@ -0,0 +1,89 @@
+package com.scisbo.filesapi.spill;
+
+import com.scisbo.filesapi.buffer.BufferPool;
+import com.scisbo.filesapi.data.source.ContentSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Stream content kept in memory after it was read once
+ */
+final class MemorySpillSource implements ContentSource {
+    
+    private final List<ByteBuffer> chunks;
+    private final long length;
+    private final BufferPool pool;
+    private volatile boolean released;
+    
+    MemorySpillSource(List<ByteBuffer> chunks, long length, BufferPool pool) {
+        this.chunks = chunks;
+        this.length = length;
+        this.pool = pool;
+    }
+    
+    @Override
+    public InputStream openStream() throws IOException {
+        if (released) {
+            throw new IOException("Spilled content has already been released");
+        }
+        return new ChunksInputStream();
+    }
+    
+    @Override
+    public long length() {
+        return length;
+    }
+    
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+    
+    void release(boolean recycle) {
+        released = true;
+        if (recycle && pool != null) {
+            chunks.forEach(pool::release);
+        }
+    }
+    
+    /**
+     * Reads the chunks through views of their own, so any number of streams can be open at once
+     */
+    private final class ChunksInputStream extends InputStream {
+        private int index;
+        private ByteBuffer current;
+        
+        @Override
+        public int read() {
+            ByteBuffer chunk = next();
+            return chunk != null ? chunk.get() & 0xff : -1;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            ByteBuffer chunk = next();
+            if (chunk == null) {
+                return -1;
+            }
+            int count = Math.min(length, chunk.remaining());
+            chunk.get(buffer, offset, count);
+            return count;
+        }
+        
+        private ByteBuffer next() {
+            while (current == null || !current.hasRemaining()) {
+                if (index == chunks.size()) {
+                    return null;
+                }
+                current = chunks.get(index++).duplicate();
+            }
+            return current;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.scisbo.filesapi.spill;
+
+import com.scisbo.filesapi.buffer.BufferPool;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.request.FileUploadRequest;
+import com.scisbo.filesapi.data.source.ContentSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns one-shot stream sources into repeatable ones, so they can be retried, hashed and sent with a
+ * Content-Length.
+ * <p>
+ * A stream is read once. If it ends within {@code threshold} bytes it is kept in memory, in buffers leased from
+ * the {@link BufferPool} when there is one. Otherwise what was read so far and the rest of the stream are written
+ * to a temp file, which is then sent through the encoder's file path like any file on disk. Spilled storage
+ * belongs to the request until {@link #release} is called for it; temp files are then deleted, so only a crash
+ * leaves them behind.
+ */
+public class StreamSpiller {
+    
+    private static final int MIN_CHUNK_SIZE = 4 * 1024;
+    private static final int MAX_CHUNK_SIZE = 64 * 1024;
+    
+    private final long threshold;
+    private final Path directory;
+    private final BufferPool pool;
+    
+    /**
+     * Creates a spiller that writes temp files to {@code directory}, or to the default temp directory when it is
+     * null
+     */
+    public StreamSpiller(long threshold, Path directory, BufferPool pool) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Spill threshold cannot be negative");
+        }
+        this.threshold = threshold;
+        this.directory = directory;
+        this.pool = pool;
+    }
+    
+    /**
+     * Returns the request with every one-shot source replaced by a repeatable copy, or the request itself when
+     * all sources are repeatable already. Copies made before a failure are released again; nothing has read
+     * them yet, so their memory goes straight back to the pool.
+     */
+    public FileUploadRequest spill(FileUploadRequest request) throws IOException {
+        List<FileData> files = request.getFiles();
+        if (files.stream().allMatch(file -> file.getSource().isRepeatable())) {
+            return request;
+        }
+        List<FileData> spilled = new ArrayList<>(files.size());
+        try {
+            for (FileData file : files) {
+                ContentSource source = file.getSource();
+                if (!source.isRepeatable()) {
+                    try (InputStream content = source.openStream()) {
+                        source = spill(content);
+                    }
+                }
+                spilled.add(new FileData(file.getFilename(), file.getContentType(), source));
+            }
+        } catch (IOException | RuntimeException e) {
+            spilled.forEach(file -> release(file.getSource(), true));
+            throw e;
+        }
+        return new FileUploadRequest(request.getPath(), spilled, request.getMetadata());
+    }
+    
+    /**
+     * Reads a stream to its end and returns a repeatable source over its content
+     */
+    public ContentSource spill(InputStream content) throws IOException {
+        ReadableByteChannel in = Channels.newChannel(content);
+        List<ByteBuffer> chunks = new ArrayList<>();
+        long length = 0;
+        int chunkSize = MIN_CHUNK_SIZE;
+        try {
+            while (true) {
+                // Reads one byte past the threshold to tell whether the stream goes on
+                int size = (int) Math.min(chunkSize, threshold + 1 - length);
+                ByteBuffer chunk = allocate(size);
+                chunks.add(chunk);
+                int read = fill(in, chunk);
+                length += read;
+                if (chunk.hasRemaining()) {
+                    chunks.forEach(ByteBuffer::flip);
+                    return new MemorySpillSource(chunks, length, pool);
+                }
+                if (length > threshold) {
+                    return spillToFile(in, chunks);
+                }
+                chunkSize = Math.min(chunkSize * 2, MAX_CHUNK_SIZE);
+            }
+        } catch (IOException | RuntimeException e) {
+            recycle(chunks);
+            throw e;
+        }
+    }
+    
+    /**
+     * Ends the spilled storage of a request returned by {@link #spill(FileUploadRequest)}. Memory goes back to
+     * the pool only with {@code recycle}, once nothing may read it any more; temp files are always deleted.
+     */
+    public static void release(FileUploadRequest request, boolean recycle) {
+        request.getFiles().forEach(file -> release(file.getSource(), recycle));
+    }
+    
+    private static void release(ContentSource source, boolean recycle) {
+        if (source instanceof FileSpillSource) {
+            ((FileSpillSource) source).delete();
+        } else if (source instanceof MemorySpillSource) {
+            ((MemorySpillSource) source).release(recycle);
+        }
+    }
+    
+    private ContentSource spillToFile(ReadableByteChannel in, List<ByteBuffer> chunks) throws IOException {
+        Path file = directory != null
+                ? Files.createTempFile(directory, "upload-", ".spill")
+                : Files.createTempFile("upload-", ".spill");
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            for (ByteBuffer chunk : chunks) {
+                chunk.flip();
+                while (chunk.hasRemaining()) {
+                    out.write(chunk);
+                }
+            }
+            // The file now holds a copy, so the chunks can go back to the pool right away
+            recycle(chunks);
+            long position = out.position();
+            long transferred;
+            while ((transferred = out.transferFrom(in, position, MAX_CHUNK_SIZE)) > 0) {
+                position += transferred;
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return new FileSpillSource(file);
+    }
+    
+    private ByteBuffer allocate(int size) {
+        return pool != null ? pool.acquire(size) : ByteBuffer.allocate(size);
+    }
+    
+    private void recycle(List<ByteBuffer> chunks) {
+        if (pool != null) {
+            chunks.forEach(pool::release);
+        }
+        chunks.clear();
+    }
+    
+    private static int fill(ReadableByteChannel in, ByteBuffer chunk) throws IOException {
+        int total = 0;
+        while (chunk.hasRemaining()) {
+            int read = in.read(chunk);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
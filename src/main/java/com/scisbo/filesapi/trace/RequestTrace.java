@@ -0,0 +1,73 @@
+package com.scisbo.filesapi.trace;
+
+import com.scisbo.filesapi.api.Operation;
+import lombok.Value;
+
+/**
+ * Where the time of one client call went. Phases are those of the attempt whose response was used, or of the
+ * last attempt if none got a response; times are in nanoseconds and 0 for phases that did not happen.
+ */
+@Value
+public class RequestTrace {
+    
+    Operation operation;
+    
+    /**
+     * Response status, or -1 if no response was received
+     */
+    int statusCode;
+    
+    /**
+     * Number of attempts made, including retries and hedges
+     */
+    int attempts;
+    
+    /**
+     * Time the HTTP client spent waiting for the request body to be produced: reading sources, compressing and
+     * framing multipart parts
+     */
+    long encodeNanos;
+    
+    /**
+     * From the start of the attempt until the whole request body was handed to the HTTP client, including
+     * connecting and encoding
+     */
+    long sendNanos;
+    
+    /**
+     * From the start of the attempt until the response headers arrived
+     */
+    long timeToFirstByteNanos;
+    
+    /**
+     * From the response headers until the whole response body was received
+     */
+    long receiveNanos;
+    
+    /**
+     * Time spent turning the response body into a result. Synchronous calls parse the body while it arrives,
+     * so for them this includes receiving it.
+     */
+    long parseNanos;
+    
+    /**
+     * From sending the call until its result was ready, including retries
+     */
+    long totalNanos;
+    
+    long bytesSent;
+    
+    long bytesReceived;
+    
+    /**
+     * Failure of the call, or null if it succeeded
+     */
+    Throwable error;
+    
+    /**
+     * Time between sending the request body and receiving the response headers, mostly server processing
+     */
+    public long getWaitNanos() {
+        return Math.max(0, timeToFirstByteNanos - sendNanos);
+    }
+}
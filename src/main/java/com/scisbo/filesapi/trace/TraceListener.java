@@ -0,0 +1,11 @@
+package com.scisbo.filesapi.trace;
+
+/**
+ * Receives the phase timing of every upload and token call once it has finished. Called on the thread that
+ * finished the call; implementations must not block.
+ */
+@FunctionalInterface
+public interface TraceListener {
+    
+    void onTrace(RequestTrace trace);
+}
@@ -0,0 +1,102 @@
+package com.scisbo.filesapi.api;
+
+import com.scisbo.filesapi.data.response.AccessTokenResponse;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccessTokenBatcherTest {
+    
+    private static final Duration DURATION = Duration.ofMinutes(15);
+    
+    private final List<List<String>> batches = new ArrayList<>();
+    private final List<CompletableFuture<AccessTokenResponse>> responses = new ArrayList<>();
+    private final BlockingQueue<Runnable> flushes = new LinkedBlockingQueue<>();
+    
+    @Test
+    void sendsAFullBatchAtOnce() {
+        AccessTokenBatcher batcher = batcher(Duration.ofHours(1), 3);
+        CompletableFuture<AccessTokenResponse> a = batcher.request("a", "user", DURATION);
+        CompletableFuture<AccessTokenResponse> b = batcher.request("b", "user", DURATION);
+        assertTrue(batches.isEmpty());
+        CompletableFuture<AccessTokenResponse> c = batcher.request("c", "user", DURATION);
+        
+        assertEquals(List.of(List.of("a", "b", "c")), batches);
+        AccessTokenResponse response = new AccessTokenResponse(true, "ok", "token");
+        responses.get(0).complete(response);
+        assertSame(response, a.join());
+        assertSame(response, b.join());
+        assertSame(response, c.join());
+    }
+    
+    @Test
+    void sendsAnOpenBatchOnTheExecutorWhenTheWindowCloses() throws InterruptedException {
+        AccessTokenBatcher batcher = batcher(Duration.ofMillis(10), 100);
+        CompletableFuture<AccessTokenResponse> a = batcher.request("a", "user", DURATION);
+        CompletableFuture<AccessTokenResponse> b = batcher.request("b", "user", DURATION);
+        CompletableFuture<AccessTokenResponse> other = batcher.request("c", "other", DURATION);
+        
+        // Each batch is flushed by a task handed to the executor, not on a timer or pool thread
+        for (int i = 0; i < 2; i++) {
+            Runnable flush = flushes.poll(5, TimeUnit.SECONDS);
+            assertNotNull(flush, "batch was not flushed");
+            assertEquals(i, batches.size());
+            flush.run();
+        }
+        
+        assertTrue(batches.contains(List.of("a", "b")));
+        assertTrue(batches.contains(List.of("c")));
+        responses.forEach(response -> response.complete(new AccessTokenResponse(true, "ok", "token")));
+        assertTrue(a.isDone() && b.isDone() && other.isDone());
+    }
+    
+    @Test
+    void aFailedRequestFailsEveryCallerInTheBatch() {
+        AccessTokenBatcher batcher = batcher(Duration.ofHours(1), 2);
+        CompletableFuture<AccessTokenResponse> a = batcher.request("a", "user", DURATION);
+        CompletableFuture<AccessTokenResponse> b = batcher.request("b", "user", DURATION);
+        
+        IllegalStateException failure = new IllegalStateException("boom");
+        responses.get(0).completeExceptionally(failure);
+        
+        assertSame(failure, assertThrows(CompletionException.class, a::join).getCause());
+        assertSame(failure, assertThrows(CompletionException.class, b::join).getCause());
+    }
+    
+    @Test
+    void aLoaderThatThrowsFailsEveryCallerInTheBatch() {
+        IllegalStateException failure = new IllegalStateException("boom");
+        AccessTokenBatcher batcher = new AccessTokenBatcher((fileIds, userId, duration) -> {
+            throw failure;
+        }, Duration.ofHours(1), 2, flushes::add);
+        CompletableFuture<AccessTokenResponse> a = batcher.request("a", "user", DURATION);
+        assertFalse(a.isDone());
+        CompletableFuture<AccessTokenResponse> b = batcher.request("b", "user", DURATION);
+        
+        assertSame(failure, assertThrows(CompletionException.class, a::join).getCause());
+        assertSame(failure, assertThrows(CompletionException.class, b::join).getCause());
+    }
+    
+    private AccessTokenBatcher batcher(Duration window, int maxBatchSize) {
+        return new AccessTokenBatcher((fileIds, userId, duration) -> {
+            CompletableFuture<AccessTokenResponse> response = new CompletableFuture<>();
+            batches.add(fileIds);
+            responses.add(response);
+            return response;
+        }, window, maxBatchSize, flushes::add);
+    }
+}
@@ -0,0 +1,98 @@
+package com.scisbo.filesapi.api;
+
+import com.scisbo.filesapi.config.FilesApiConfig;
+import com.scisbo.filesapi.data.file.FileInfo;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.request.FileUploadRequest;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncResponseTest {
+    
+    private static final int FILES_PER_RESPONSE = 1000;
+    
+    private HttpServer server;
+    private ExecutorService executor;
+    private byte[] response;
+    
+    @BeforeEach
+    void startServer() throws IOException {
+        StringBuilder json = new StringBuilder("{\"data\":{\"uploadedFiles\":[");
+        for (int i = 0; i < FILES_PER_RESPONSE; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"fileMetadata\":{\"id\":\"").append(i)
+                    .append("\",\"storedFilename\":\"s\",\"originalFilename\":\"f").append(i)
+                    .append(".txt\",\"fileType\":{\"mimeType\":\"text/plain\",\"extension\":\"txt\"},")
+                    .append("\"createdAt\":\"2024-01-02T03:04:05\"}}");
+        }
+        response = json.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+        
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/files", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+        executor = Executors.newSingleThreadExecutor();
+    }
+    
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+    
+    @Test
+    void parsesLargeResponsesWithAOneThreadExecutor() throws Exception {
+        FilesApiClient client = new FilesApiClient(FilesApiConfig.builder()
+                .apiKey("key")
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/api/files")
+                .executor(executor)
+                .maxRetries(0)
+                .enableLogging(false)
+                .build());
+        AtomicInteger parsed = new AtomicInteger();
+        
+        List<CompletableFuture<FileUploadResponse>> calls = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            calls.add(client.uploadFilesAsync(new FileUploadRequest("/docs", List.of(new FileData("a.txt",
+                    "text/plain", new ByteArrayInputStream(new byte[10]))), Map.of()), file -> parsed.incrementAndGet()));
+        }
+        
+        for (CompletableFuture<FileUploadResponse> call : calls) {
+            assertTrue(call.get(10, TimeUnit.SECONDS).isSuccess());
+        }
+        assertTrue(response.length > 64 * 1024);
+        assertEquals(4 * FILES_PER_RESPONSE, parsed.get());
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            // Written in pieces, so the client receives the body over many reads
+            for (int i = 0; i < response.length; i += 4096) {
+                out.write(response, i, Math.min(4096, response.length - i));
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.scisbo.filesapi.api;
+
+import com.scisbo.filesapi.data.file.FileInfo;
+import com.scisbo.filesapi.data.file.FileType;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.request.FileUploadRequest;
+import com.scisbo.filesapi.data.response.BulkUploadResult;
+import com.scisbo.filesapi.data.response.BulkUploadSummary;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import com.scisbo.filesapi.exception.FileUploadException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BulkUploaderTest {
+    
+    @Test
+    void aRequestThatFailsBeforeItIsSentReportsItsFilesAndFreesItsSlot() throws Exception {
+        FilesApiClient client = mock(FilesApiClient.class);
+        UncheckedIOException failure = new UncheckedIOException(new IOException("Dedup index unreadable"));
+        when(client.uploadFilesAsync(any(FileUploadRequest.class)))
+                .thenThrow(failure)
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(succeeded(invocation.getArgument(0))));
+        List<BulkUploadResult> results = new ArrayList<>();
+        
+        BulkUploadSummary summary = new BulkUploader(client, 2, Long.MAX_VALUE, 1)
+                .upload("/docs", List.of(file("a"), file("b"), file("c")).iterator(), Map.of(), results::add);
+        
+        assertEquals(2, summary.getRequests());
+        assertEquals(1, summary.getSucceeded());
+        assertEquals(2, summary.getFailed());
+        assertEquals(3, results.size());
+        assertInstanceOf(FileUploadException.class, results.get(0).getError());
+        assertSame(failure, results.get(0).getError().getCause());
+        assertTrue(results.get(2).isSuccess());
+    }
+    
+    @Test
+    void waitsForRequestsInFlightBeforeRethrowingAFailingIterator() {
+        FilesApiClient client = mock(FilesApiClient.class);
+        CompletableFuture<FileUploadResponse> inFlight = new CompletableFuture<>();
+        when(client.uploadFilesAsync(any(FileUploadRequest.class))).thenReturn(inFlight);
+        List<BulkUploadResult> results = new ArrayList<>();
+        Iterator<FileData> files = new Iterator<>() {
+            private int next;
+            
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+            
+            @Override
+            public FileData next() {
+                if (next++ == 2) {
+                    // Answers the first request only after upload has moved on to the failing file
+                    CompletableFuture.runAsync(() -> inFlight.complete(new FileUploadResponse(true, "ok", List.of(
+                            new FileInfo("1", "s", "a", new FileType("a/b", "b"), Map.of(), 0)))));
+                    throw new IllegalStateException("Listing failed");
+                }
+                return file("f" + next);
+            }
+        };
+        
+        assertThrows(IllegalStateException.class, () -> new BulkUploader(client, 1, Long.MAX_VALUE, 1)
+                .upload("/docs", files, Map.of(), results::add));
+        assertEquals(1, results.size());
+    }
+    
+    private static FileUploadResponse succeeded(FileUploadRequest request) {
+        List<FileInfo> uploaded = new ArrayList<>();
+        for (FileData file : request.getFiles()) {
+            uploaded.add(new FileInfo("id-" + file.getFilename(), "s", file.getFilename(),
+                    new FileType("a/b", "b"), Map.of(), 0));
+        }
+        return new FileUploadResponse(true, "ok", uploaded);
+    }
+    
+    private static FileData file(String name) {
+        return new FileData(name, "text/plain", new ByteArrayInputStream(name.getBytes()));
+    }
+}
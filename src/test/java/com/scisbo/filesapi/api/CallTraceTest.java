@@ -0,0 +1,123 @@
+package com.scisbo.filesapi.api;
+
+import com.scisbo.filesapi.config.FilesApiConfig;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.request.FileUploadRequest;
+import com.scisbo.filesapi.trace.RequestTrace;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CallTraceTest {
+    
+    private static final long SERVER_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final byte[] RESPONSE = ("{\"data\":{\"uploadedFiles\":[{\"fileMetadata\":{\"id\":\"1\","
+            + "\"storedFilename\":\"s\",\"originalFilename\":\"a.txt\",\"fileType\":{\"mimeType\":\"text/plain\","
+            + "\"extension\":\"txt\"},\"createdAt\":\"2024-01-02T03:04:05\"}}]}}").getBytes(StandardCharsets.UTF_8);
+    
+    private final BlockingQueue<RequestTrace> traces = new LinkedBlockingQueue<>();
+    private HttpServer server;
+    private FilesApiClient client;
+    
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/files", this::handle);
+        server.start();
+        client = new FilesApiClient(FilesApiConfig.builder()
+                .apiKey("key")
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/api/files")
+                .maxRetries(0)
+                .enableLogging(false)
+                .traceListener(traces::add)
+                .build());
+    }
+    
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+    
+    @Test
+    void asyncTracesReportThePhasesInOrder() throws Exception {
+        client.uploadFilesAsync(request()).get(10, TimeUnit.SECONDS);
+        
+        assertPhasesInOrder(nextTrace());
+    }
+    
+    @Test
+    void syncTracesReportThePhasesInOrder() throws Exception {
+        client.uploadFiles(request());
+        
+        assertPhasesInOrder(nextTrace());
+    }
+    
+    private static void assertPhasesInOrder(RequestTrace trace) {
+        assertEquals(Operation.UPLOAD, trace.getOperation());
+        assertEquals(200, trace.getStatusCode());
+        assertEquals(1, trace.getAttempts());
+        assertNull(trace.getError());
+        assertTrue(trace.getEncodeNanos() <= trace.getSendNanos());
+        assertTrue(trace.getSendNanos() <= trace.getTimeToFirstByteNanos());
+        // Client timestamps can lag the server's pauses a little, so only half of each pause is required
+        assertTrue(trace.getWaitNanos() >= SERVER_DELAY_NANOS / 2, trace.toString());
+        assertTrue(trace.getReceiveNanos() >= SERVER_DELAY_NANOS / 2, trace.toString());
+        assertTrue(trace.getTimeToFirstByteNanos() + trace.getReceiveNanos() <= trace.getTotalNanos());
+        assertTrue(trace.getTimeToFirstByteNanos() + trace.getParseNanos() <= trace.getTotalNanos());
+        assertTrue(trace.getBytesSent() > 10);
+        assertEquals(RESPONSE.length, trace.getBytesReceived());
+    }
+    
+    private RequestTrace nextTrace() throws InterruptedException {
+        RequestTrace trace = traces.poll(5, TimeUnit.SECONDS);
+        assertNotNull(trace, "no trace delivered");
+        assertTrue(traces.isEmpty());
+        return trace;
+    }
+    
+    private static FileUploadRequest request() {
+        return new FileUploadRequest("/docs",
+                List.of(new FileData("a.txt", "text/plain", new ByteArrayInputStream(new byte[10]))), Map.of());
+    }
+    
+    /**
+     * Pauses before the headers and again in the middle of the body, so each phase takes a known minimum time
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        pause();
+        exchange.sendResponseHeaders(200, RESPONSE.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(RESPONSE, 0, 10);
+            out.flush();
+            pause();
+            out.write(RESPONSE, 10, RESPONSE.length - 10);
+        }
+    }
+    
+    private static void pause() {
+        try {
+            TimeUnit.NANOSECONDS.sleep(SERVER_DELAY_NANOS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.scisbo.filesapi.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PreviewUrlsTest {
+    
+    private static final String BASE = "https://files.example.com/api/files";
+    
+    @Test
+    void percentEncodesReservedCharacters() {
+        PreviewUrls urls = new PreviewUrls(BASE, true);
+        
+        assertEquals(BASE + "/a%2Fb%3Fc%23d/download?access_token=t%26u%3Dv%2Bw%25x%20y",
+                urls.build("a/b?c#d", "t&u=v+w%x y"));
+    }
+    
+    @Test
+    void leavesUnreservedCharactersAlone() {
+        PreviewUrls urls = new PreviewUrls(BASE, true);
+        
+        assertEquals(BASE + "/AZaz09-._~/download?access_token=tok-en.1_~",
+                urls.build("AZaz09-._~", "tok-en.1_~"));
+    }
+    
+    @Test
+    void encodesNonAsciiAsUtf8() {
+        PreviewUrls urls = new PreviewUrls(BASE, true);
+        String fileId = "ümlaut-日本-😀-\uD800";
+        
+        assertEquals(BASE + "/" + reference(fileId) + "/download?access_token=t", urls.build(fileId, "t"));
+        assertEquals(BASE + "/%C3%BCmlaut-%E6%97%A5%E6%9C%AC-%F0%9F%98%80-%3F/download?access_token=t",
+                urls.build(fileId, "t"));
+    }
+    
+    @Test
+    void sendsIdsAsTheyAreWithEncodingOff() {
+        PreviewUrls urls = new PreviewUrls(BASE, false);
+        
+        assertEquals(BASE + "/a b/download?access_token=t&u", urls.build("a b", "t&u"));
+    }
+    
+    @Test
+    void buildsListsAndStreamsLikeSingleUrls() {
+        List<String> fileIds = List.of("plain", "with space", "a/b", "ü");
+        for (boolean encode : new boolean[] {true, false}) {
+            PreviewUrls urls = new PreviewUrls(BASE, encode);
+            List<String> expected = fileIds.stream().map(id -> urls.build(id, "t+1")).collect(Collectors.toList());
+            
+            assertEquals(expected, urls.build(fileIds, "t+1"));
+            assertEquals(expected, urls.build(fileIds.stream(), "t+1").collect(Collectors.toList()));
+            assertEquals(List.of(), urls.build(Stream.<String>empty(), "t+1").collect(Collectors.toList()));
+        }
+    }
+    
+    /**
+     * Form encoding turned into RFC 3986 percent-encoding
+     */
+    private static String reference(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8)
+                .replace("+", "%20").replace("*", "%2A").replace("%7E", "~");
+    }
+}
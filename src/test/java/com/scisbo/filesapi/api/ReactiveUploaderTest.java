@@ -0,0 +1,306 @@
+package com.scisbo.filesapi.api;
+
+import com.scisbo.filesapi.data.file.FileInfo;
+import com.scisbo.filesapi.data.file.FileType;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.request.FileUploadRequest;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import com.scisbo.filesapi.data.source.ContentSource;
+import com.scisbo.filesapi.exception.FileUploadException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReactiveUploaderTest {
+    
+    private final List<Call> calls = new ArrayList<>();
+    private FilesApiClient client;
+    
+    @BeforeEach
+    void mockClient() {
+        client = mock(FilesApiClient.class);
+        when(client.uploadFilesAsync(any(FileUploadRequest.class))).thenAnswer(invocation -> {
+            Call call = new Call(invocation.getArgument(0), new CompletableFuture<>());
+            calls.add(call);
+            return call.future;
+        });
+    }
+    
+    @Test
+    void requestsNoMoreFilesThanTheWindow() {
+        Source source = new Source();
+        Results results = new Results();
+        // Window: (concurrency + 1) * maxFilesPerRequest = 4
+        new ReactiveUploader(client, 2, Long.MAX_VALUE, 1).upload("/p", source, Map.of()).subscribe(results);
+        
+        assertEquals(4, source.requested);
+        source.emit(4);
+        
+        // The first file goes out at once; the others wait for the slot
+        assertEquals(List.of("f0"), calls.get(0).filenames());
+        calls.get(0).succeed();
+        assertEquals(List.of("f1", "f2"), calls.get(1).filenames());
+        calls.get(1).succeed();
+        assertEquals(List.of("f3"), calls.get(2).filenames());
+        calls.get(2).succeed();
+        
+        // All four results wait for the subscriber and fill the window
+        assertEquals(4, source.requested);
+        results.subscription.request(3);
+        assertEquals(3, results.items.size());
+        assertEquals(7, source.requested);
+    }
+    
+    @Test
+    void holdsResultsUntilTheSubscriberAsksForThem() {
+        Source source = new Source();
+        Results results = new Results();
+        new ReactiveUploader(client, 2, Long.MAX_VALUE, 2).upload("/p", source, Map.of()).subscribe(results);
+        source.emit(2);
+        source.complete();
+        calls.get(0).succeed();
+        calls.get(1).succeed();
+        
+        assertTrue(results.items.isEmpty());
+        results.subscription.request(1);
+        assertEquals(List.of("f0"), results.names());
+        assertFalse(results.completed);
+        results.subscription.request(5);
+        assertEquals(List.of("f0", "f1"), results.names());
+        assertTrue(results.completed);
+    }
+    
+    @Test
+    void aSlowSubscriberStopsTheSource() {
+        Source source = new Source();
+        Results results = new Results();
+        new ReactiveUploader(client, 1, Long.MAX_VALUE, 1).upload("/p", source, Map.of()).subscribe(results);
+        
+        for (int i = 0; i < 10; i++) {
+            source.emit(source.requested - source.emitted);
+            new ArrayList<>(calls).forEach(Call::succeed);
+        }
+        
+        // Window of 2, all of it taken by results nobody asked for
+        assertEquals(2, source.requested);
+        assertEquals(2, source.emitted);
+        results.subscription.request(Long.MAX_VALUE);
+        assertEquals(2, results.items.size());
+        assertEquals(4, source.requested);
+    }
+    
+    @Test
+    void batchesByByteLimit() {
+        Source source = new Source();
+        Results results = new Results();
+        new ReactiveUploader(client, 10, 10, 1).upload("/p", source, Map.of()).subscribe(results);
+        results.subscription.request(Long.MAX_VALUE);
+        
+        source.emit(1, 6);
+        source.emit(3, 4);
+        source.complete();
+        calls.get(0).succeed();
+        
+        assertEquals(List.of("f1", "f2"), calls.get(1).filenames());
+        calls.get(1).succeed();
+        calls.get(2).succeed();
+        assertEquals(List.of("f3"), calls.get(2).filenames());
+        assertTrue(results.completed);
+        assertEquals(4, results.items.size());
+    }
+    
+    @Test
+    void aFailedRequestCancelsTheSourceButPublishesRequestsInFlight() {
+        Source source = new Source();
+        Results results = new Results();
+        new ReactiveUploader(client, 1, Long.MAX_VALUE, 2).upload("/p", source, Map.of()).subscribe(results);
+        results.subscription.request(Long.MAX_VALUE);
+        source.emit(3);
+        assertEquals(2, calls.size());
+        
+        FileUploadException failure = new FileUploadException("boom");
+        calls.get(0).future.completeExceptionally(failure);
+        assertTrue(source.cancelled);
+        assertNull(results.error);
+        
+        calls.get(1).succeed();
+        assertEquals(List.of("f1"), results.names());
+        assertSame(failure, results.error);
+        assertEquals(2, calls.size());
+    }
+    
+    @Test
+    void aRequestThatCannotStartFailsTheRun() {
+        IllegalStateException rejected = new IllegalStateException("executor shut down");
+        when(client.uploadFilesAsync(any(FileUploadRequest.class))).thenThrow(rejected);
+        Source source = new Source();
+        Results results = new Results();
+        new ReactiveUploader(client, 1, Long.MAX_VALUE, 2).upload("/p", source, Map.of()).subscribe(results);
+        results.subscription.request(Long.MAX_VALUE);
+        
+        source.emit(3);
+        
+        assertTrue(source.cancelled);
+        assertInstanceOf(FileUploadException.class, results.error);
+        assertSame(rejected, results.error.getCause());
+        assertTrue(results.items.isEmpty());
+        assertFalse(results.completed);
+    }
+    
+    @Test
+    void cancellingCancelsTheSourceAndRequestsInFlight() {
+        Source source = new Source();
+        Results results = new Results();
+        new ReactiveUploader(client, 1, Long.MAX_VALUE, 2).upload("/p", source, Map.of()).subscribe(results);
+        source.emit(2);
+        
+        results.subscription.cancel();
+        
+        assertTrue(source.cancelled);
+        assertTrue(calls.get(0).future.isCancelled());
+        assertTrue(calls.get(1).future.isCancelled());
+        assertFalse(results.completed);
+        assertNull(results.error);
+    }
+    
+    @Test
+    void nonPositiveDemandFailsTheSubscription() {
+        Source source = new Source();
+        Results results = new Results();
+        new ReactiveUploader(client).upload("/p", source, Map.of()).subscribe(results);
+        
+        results.subscription.request(0);
+        
+        assertInstanceOf(IllegalArgumentException.class, results.error);
+        assertTrue(source.cancelled);
+    }
+    
+    private static final class Call {
+        final FileUploadRequest request;
+        final CompletableFuture<FileUploadResponse> future;
+        
+        Call(FileUploadRequest request, CompletableFuture<FileUploadResponse> future) {
+            this.request = request;
+            this.future = future;
+        }
+        
+        List<String> filenames() {
+            List<String> names = new ArrayList<>();
+            request.getFiles().forEach(file -> names.add(file.getFilename()));
+            return names;
+        }
+        
+        void succeed() {
+            List<FileInfo> files = new ArrayList<>();
+            for (String name : filenames()) {
+                files.add(new FileInfo("id-" + name, "s", name, new FileType("a/b", "b"), Map.of(), 0));
+            }
+            future.complete(new FileUploadResponse(true, "ok", files));
+        }
+    }
+    
+    /**
+     * Publisher driven by the test; records demand and cancellation
+     */
+    private static final class Source implements Flow.Publisher<FileData>, Flow.Subscription {
+        private Flow.Subscriber<? super FileData> subscriber;
+        private long requested;
+        private int emitted;
+        private boolean cancelled;
+        
+        @Override
+        public void subscribe(Flow.Subscriber<? super FileData> subscriber) {
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(this);
+        }
+        
+        @Override
+        public void request(long n) {
+            requested += n;
+        }
+        
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+        
+        void emit(long count) {
+            emit(count, 1);
+        }
+        
+        void emit(long count, int size) {
+            for (long i = 0; i < count; i++) {
+                subscriber.onNext(new FileData("f" + emitted++, null, new ContentSource() {
+                    @Override
+                    public InputStream openStream() {
+                        return new ByteArrayInputStream(new byte[size]);
+                    }
+                    
+                    @Override
+                    public long length() {
+                        return size;
+                    }
+                    
+                    @Override
+                    public boolean isRepeatable() {
+                        return true;
+                    }
+                }));
+            }
+        }
+        
+        void complete() {
+            subscriber.onComplete();
+        }
+    }
+    
+    private static final class Results implements Flow.Subscriber<FileInfo> {
+        private final List<FileInfo> items = new ArrayList<>();
+        private Flow.Subscription subscription;
+        private boolean completed;
+        private Throwable error;
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+        
+        @Override
+        public void onNext(FileInfo item) {
+            items.add(item);
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+        
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+        
+        List<String> names() {
+            List<String> names = new ArrayList<>();
+            items.forEach(item -> names.add(item.getOriginalFilename()));
+            return names;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.scisbo.filesapi.api;
+
+import com.scisbo.filesapi.builder.FileDataBuilder;
+import com.scisbo.filesapi.config.FilesApiConfig;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import com.scisbo.filesapi.exception.FileUploadException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResumableUploaderTest {
+    
+    private static final long PART_SIZE = 1000;
+    private static final String UPLOAD_RESPONSE = "{\"data\":{\"uploadedFiles\":[{\"fileMetadata\":{\"id\":\"1\","
+            + "\"storedFilename\":\"s\",\"originalFilename\":\"big.bin\",\"fileType\":{\"mimeType\":\"a/b\","
+            + "\"extension\":\"bin\"},\"createdAt\":\"2024-01-02T03:04:05\"}}]}}";
+    
+    @TempDir
+    Path directory;
+    
+    private HttpServer server;
+    private FilesApiClient client;
+    private final List<String> sessions = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> completed = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, Set<Integer>> parts = new ConcurrentHashMap<>();
+    private final List<String> rawPaths = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger partRequests = new AtomicInteger();
+    private volatile String sessionPrefix = "session-";
+    private volatile IntPredicate missingPart = part -> false;
+    private volatile IntPredicate failingPart = part -> false;
+    
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/files/uploads", this::handle);
+        server.start();
+        client = new FilesApiClient(FilesApiConfig.builder()
+                .apiKey("key")
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/api/files")
+                .maxRetries(0)
+                .enableLogging(false)
+                .build());
+    }
+    
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+    
+    @Test
+    void uploadsEveryPartAndCompletes() throws Exception {
+        Path file = file(4500);
+        
+        FileUploadResponse response = uploader().upload("/docs", data(file), Map.of());
+        
+        assertTrue(response.isSuccess());
+        assertEquals(1, sessions.size());
+        assertEquals(Set.of(1, 2, 3, 4, 5), parts.get(sessions.get(0)));
+        assertEquals(List.of(sessions.get(0)), completed);
+        assertTrue(journals().isEmpty());
+    }
+    
+    @Test
+    void resumesWithTheMissingPartsOnly() throws Exception {
+        Path file = file(4500);
+        failingPart = part -> part == 4;
+        assertThrows(FileUploadException.class, () -> uploader().upload("/docs", data(file), Map.of()));
+        assertTrue(completed.isEmpty());
+        assertEquals(1, journals().size());
+        
+        failingPart = part -> false;
+        partRequests.set(0);
+        uploader().upload("/docs", data(file), Map.of());
+        
+        assertEquals(1, sessions.size());
+        assertEquals(1, partRequests.get());
+        assertEquals(List.of(sessions.get(0)), completed);
+    }
+    
+    @Test
+    void restartsOnceWhenTheJournaledSessionIsGone() throws Exception {
+        Path file = file(2500);
+        failingPart = part -> part == 3;
+        assertThrows(FileUploadException.class, () -> uploader().upload("/docs", data(file), Map.of()));
+        
+        failingPart = part -> false;
+        // The server forgets the session
+        parts.remove(sessions.get(0));
+        
+        uploader().upload("/docs", data(file), Map.of());
+        
+        assertEquals(2, sessions.size());
+        assertEquals(Set.of(1, 2, 3), parts.get(sessions.get(1)));
+        assertEquals(List.of(sessions.get(1)), completed);
+    }
+    
+    @Test
+    void neverCompletesASessionWithMissingParts() throws Exception {
+        Path file = file(2500);
+        missingPart = part -> part == 2;
+        
+        FileUploadException error = assertThrows(FileUploadException.class,
+                () -> uploader().upload("/docs", data(file), Map.of()));
+        
+        assertEquals(404, error.getStatusCode());
+        assertEquals(1, sessions.size());
+        assertTrue(completed.isEmpty());
+    }
+    
+    @Test
+    void encodesTheUploadIdInRequestPaths() throws Exception {
+        sessionPrefix = "a/b c?";
+        
+        uploader().upload("/docs", data(file(1500)), Map.of());
+        
+        assertEquals(List.of("a/b c?1"), completed);
+        assertTrue(rawPaths.contains("/api/files/uploads/a%2Fb%20c%3F1/parts/1"));
+        assertTrue(rawPaths.contains("/api/files/uploads/a%2Fb%20c%3F1/complete"));
+    }
+    
+    @Test
+    void journalIgnoresATornLastLineAndCutsItOff() throws Exception {
+        Path journalFile = directory.resolve("torn.journal");
+        Files.writeString(journalFile, "upload id-1 4500 1000\npart 0\npart 1");
+        
+        try (ResumableUploader.Journal journal = ResumableUploader.Journal.open(journalFile, 4500, 1000)) {
+            assertEquals("id-1", journal.getUploadId());
+            assertTrue(journal.isAcknowledged(0));
+            assertFalse(journal.isAcknowledged(1));
+            assertEquals(4, journal.missing(5));
+            assertEquals("upload id-1 4500 1000\npart 0\n", Files.readString(journalFile));
+            
+            journal.acknowledge(3);
+        }
+        assertEquals("upload id-1 4500 1000\npart 0\npart 3\n", Files.readString(journalFile));
+        
+        try (ResumableUploader.Journal journal = ResumableUploader.Journal.open(journalFile, 4500, 1000)) {
+            assertTrue(journal.isAcknowledged(0));
+            assertTrue(journal.isAcknowledged(3));
+            assertEquals(3, journal.missing(5));
+        }
+    }
+    
+    @Test
+    void journalIsDiscardedWhenItsHeaderDoesNotMatchOrIsDamaged() throws Exception {
+        for (String content : new String[]{
+                "upload id-1 9999 1000\npart 0\n",
+                "upload id-1 4500 500\npart 0\n",
+                "upload id-1 45x0 1000\npart 0\n",
+                "upload id-1 4500",
+                "garbage\n",
+                ""}) {
+            Path journalFile = directory.resolve("header.journal");
+            Files.writeString(journalFile, content);
+            
+            try (ResumableUploader.Journal journal = ResumableUploader.Journal.open(journalFile, 4500, 1000)) {
+                assertNull(journal.getUploadId(), content);
+                assertFalse(journal.isAcknowledged(0), content);
+            }
+            assertFalse(Files.exists(journalFile), content);
+        }
+    }
+    
+    @Test
+    void journalSkipsDamagedEntries() throws Exception {
+        Path journalFile = directory.resolve("damaged.journal");
+        Files.writeString(journalFile, "upload id-1 4500 1000\npart x\npart -1\npart 2 3\npart 4\n");
+        
+        try (ResumableUploader.Journal journal = ResumableUploader.Journal.open(journalFile, 4500, 1000)) {
+            assertEquals(4, journal.missing(5));
+            assertTrue(journal.isAcknowledged(4));
+        }
+    }
+    
+    private ResumableUploader uploader() {
+        return new ResumableUploader(client, directory.resolve("journals"), PART_SIZE, 2);
+    }
+    
+    private List<Path> journals() throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve("journals"))) {
+            return files.toList();
+        }
+    }
+    
+    private Path file(int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        Path file = directory.resolve("big.bin");
+        Files.write(file, content);
+        return file;
+    }
+    
+    private static FileData data(Path file) {
+        return FileDataBuilder.builder().file(file).build();
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        String rawPath = exchange.getRequestURI().getRawPath();
+        String path = exchange.getRequestURI().getPath();
+        rawPaths.add(rawPath);
+        String rest = path.substring("/api/files/uploads".length());
+        if (rest.isEmpty()) {
+            String id = sessionPrefix + (sessions.size() + 1);
+            sessions.add(id);
+            parts.put(id, ConcurrentHashMap.newKeySet());
+            respond(exchange, 200, "{\"data\":{\"uploadId\":\"" + id + "\"}}");
+        } else if (rest.endsWith("/complete")) {
+            completed.add(rest.substring(1, rest.length() - "/complete".length()));
+            respond(exchange, 200, UPLOAD_RESPONSE);
+        } else {
+            int split = rest.lastIndexOf("/parts/");
+            String id = rest.substring(1, split);
+            int part = Integer.parseInt(rest.substring(split + "/parts/".length()));
+            partRequests.incrementAndGet();
+            if (missingPart.test(part) || !parts.containsKey(id)) {
+                respond(exchange, 404, "{}");
+            } else if (failingPart.test(part)) {
+                respond(exchange, 500, "{}");
+            } else {
+                assertArrayEquals(expectedPart(part), body);
+                parts.get(id).add(part);
+                respond(exchange, 200, "{}");
+            }
+        }
+    }
+    
+    private byte[] expectedPart(int part) throws IOException {
+        byte[] content = Files.readAllBytes(directory.resolve("big.bin"));
+        int from = (int) ((part - 1) * PART_SIZE);
+        return Arrays.copyOfRange(content, from, (int) Math.min(content.length, from + PART_SIZE));
+    }
+    
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+}
@@ -0,0 +1,125 @@
+package com.scisbo.filesapi.cache;
+
+import com.scisbo.filesapi.data.response.AccessTokenResponse;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccessTokenCacheTest {
+    
+    private static final AccessTokenCache.Key KEY =
+            AccessTokenCache.Key.of(List.of("f1"), "user", Duration.ofMinutes(10));
+    
+    @Test
+    void oneWaiterCancellingDoesNotAffectTheOthers() {
+        AccessTokenCache cache = new AccessTokenCache(10, Duration.ofSeconds(30));
+        CompletableFuture<AccessTokenResponse> request = new CompletableFuture<>();
+        AtomicInteger loads = new AtomicInteger();
+        
+        CompletableFuture<AccessTokenResponse> first = cache.get(KEY, () -> {
+            loads.incrementAndGet();
+            return request;
+        });
+        CompletableFuture<AccessTokenResponse> second = cache.get(KEY, () -> {
+            loads.incrementAndGet();
+            return request;
+        });
+        CompletableFuture<AccessTokenResponse> third = cache.get(KEY, () -> {
+            loads.incrementAndGet();
+            return request;
+        });
+        first.cancel(false);
+        third.obtrudeValue(new AccessTokenResponse(true, null, "wrong"));
+        request.complete(new AccessTokenResponse(true, null, "token"));
+        
+        assertEquals(1, loads.get());
+        assertTrue(first.isCancelled());
+        assertEquals("token", second.join().getToken());
+        assertEquals("token", cache.get(KEY, CompletableFuture::new).join().getToken());
+    }
+    
+    @Test
+    void loaderFailureReachesEveryWaiterAndIsNotCached() {
+        AccessTokenCache cache = new AccessTokenCache(10, Duration.ofSeconds(30));
+        CompletableFuture<AccessTokenResponse> request = new CompletableFuture<>();
+        
+        CompletableFuture<AccessTokenResponse> first = cache.get(KEY, () -> request);
+        CompletableFuture<AccessTokenResponse> second = cache.get(KEY, () -> request);
+        request.completeExceptionally(new IllegalStateException("down"));
+        
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+        assertEquals(0, cache.size());
+    }
+    
+    @Test
+    void refreshesInTheBackgroundAfterEightyPercentOfTheLifetime() {
+        AtomicLong now = new AtomicLong();
+        AccessTokenCache cache = new AccessTokenCache(10, Duration.ofSeconds(30), now::get);
+        List<CompletableFuture<AccessTokenResponse>> loads = new ArrayList<>();
+        Supplier<CompletableFuture<AccessTokenResponse>> loader = () -> {
+            CompletableFuture<AccessTokenResponse> load = new CompletableFuture<>();
+            loads.add(load);
+            return load;
+        };
+        cache.get(KEY, loader);
+        loads.get(0).complete(new AccessTokenResponse(true, null, "first"));
+        
+        // 10 minutes less the 30 second margin leaves 570 seconds, of which 80% is 456
+        now.set(TimeUnit.SECONDS.toNanos(455));
+        assertEquals("first", cache.get(KEY, loader).join().getToken());
+        assertEquals(1, loads.size());
+        
+        now.set(TimeUnit.SECONDS.toNanos(456));
+        assertEquals("first", cache.get(KEY, loader).join().getToken());
+        assertEquals("first", cache.get(KEY, loader).join().getToken());
+        assertEquals(2, loads.size());
+        assertEquals(1, cache.getRefreshes());
+        
+        loads.get(1).complete(new AccessTokenResponse(true, null, "second"));
+        assertEquals("second", cache.get(KEY, loader).join().getToken());
+        assertEquals(2, loads.size());
+        assertEquals(1, cache.getMisses());
+    }
+    
+    @Test
+    void expiresTheSafetyMarginBeforeTheToken() {
+        AtomicLong now = new AtomicLong();
+        AccessTokenCache cache = new AccessTokenCache(10, Duration.ofSeconds(30), now::get);
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<CompletableFuture<AccessTokenResponse>> loader = () -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture(new AccessTokenResponse(true, null, "token-" + loads.get()));
+        };
+        cache.get(KEY, loader);
+        
+        now.set(TimeUnit.SECONDS.toNanos(455));
+        assertEquals("token-1", cache.get(KEY, loader).join().getToken());
+        
+        // Nothing read the entry in the refresh window, so it expires instead of being refreshed
+        now.set(TimeUnit.SECONDS.toNanos(570));
+        assertEquals("token-2", cache.get(KEY, loader).join().getToken());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+    
+    @Test
+    void doesNotCacheTokensShorterThanTheSafetyMargin() {
+        AccessTokenCache cache = new AccessTokenCache(10, Duration.ofSeconds(30), () -> 0);
+        AccessTokenCache.Key shortLived = AccessTokenCache.Key.of(List.of("f1"), "user", Duration.ofSeconds(30));
+        
+        cache.get(shortLived, () -> CompletableFuture.completedFuture(new AccessTokenResponse(true, null, "t")));
+        
+        assertEquals(0, cache.size());
+    }
+}
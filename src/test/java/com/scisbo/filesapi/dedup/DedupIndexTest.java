@@ -0,0 +1,88 @@
+package com.scisbo.filesapi.dedup;
+
+import com.scisbo.filesapi.data.file.FileInfo;
+import com.scisbo.filesapi.data.file.FileType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DedupIndexTest {
+    
+    @Test
+    void returnsCopiesThatCallersCannotChange() {
+        DedupIndex index = DedupIndex.inMemory(10);
+        FileInfo uploaded = fileInfo("1", "a.txt");
+        index.put("hash", "/docs", uploaded);
+        uploaded.setId("changed-by-uploader");
+        
+        FileInfo first = index.get("hash", "/docs", "a.txt");
+        first.setStoredFilename("changed-by-caller");
+        FileInfo second = index.get("hash", "/docs", "a.txt");
+        
+        assertEquals(fileInfo("1", "a.txt"), second);
+        assertNotSame(first, second);
+    }
+    
+    @Test
+    void sameContentUnderAnotherNameOrPathIsAMiss() {
+        DedupIndex index = DedupIndex.inMemory(10);
+        index.put("hash", "/docs", fileInfo("1", "a.txt"));
+        
+        assertNull(index.get("hash", "/docs", "b.txt"));
+        assertNull(index.get("hash", "/other", "a.txt"));
+        assertEquals("1", index.get("hash", "/docs", "a.txt").getId());
+        assertEquals(1, index.getHits());
+        assertEquals(2, index.getMisses());
+    }
+    
+    @Test
+    void evictsTheLeastRecentlyUsedEntries() {
+        DedupIndex index = DedupIndex.inMemory(2);
+        index.put("h1", "", fileInfo("1", "a"));
+        index.put("h2", "", fileInfo("2", "b"));
+        index.get("h1", "", "a");
+        index.put("h3", "", fileInfo("3", "c"));
+        
+        assertEquals(2, index.size());
+        assertNull(index.get("h2", "", "b"));
+        assertEquals("1", index.get("h1", "", "a").getId());
+    }
+    
+    @Test
+    void reloadsFromDiskAndDropsATornRecord(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("dedup.log");
+        try (DedupIndex index = DedupIndex.open(file, 100, 1)) {
+            index.put("h1", "/docs", fileInfo("1", "a.txt"));
+            index.put("h2", "/docs", fileInfo("2", "b.txt"));
+            // Served from the log, since only one entry is cached
+            assertEquals("1", index.get("h1", "/docs", "a.txt").getId());
+        }
+        Files.write(file, "{\"hash\":\"h3\",\"pa".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        long intact;
+        try (DedupIndex index = DedupIndex.open(file, 100, 10)) {
+            intact = Files.size(file);
+            assertEquals(2, index.size());
+            assertEquals(fileInfo("2", "b.txt"), index.get("h2", "/docs", "b.txt"));
+            index.put("h3", "/docs", fileInfo("3", "c.txt"));
+        }
+        try (DedupIndex index = DedupIndex.open(file, 100, 10)) {
+            assertEquals(3, index.size());
+            assertEquals("3", index.get("h3", "/docs", "c.txt").getId());
+        }
+        // The new record starts where the torn one was cut off
+        assertEquals(intact, Files.readString(file).indexOf("{\"hash\":\"h3\""));
+    }
+    
+    private static FileInfo fileInfo(String id, String name) {
+        return new FileInfo(id, "stored-" + id, name, new FileType("text/plain", "txt"), Map.of("k", "v"), 1000L);
+    }
+}
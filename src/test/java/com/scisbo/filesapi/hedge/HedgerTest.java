@@ -0,0 +1,133 @@
+package com.scisbo.filesapi.hedge;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HedgerTest {
+    
+    private static final Duration DELAY = Duration.ofMillis(50);
+    
+    private final BlockingQueue<Runnable> hedges = new LinkedBlockingQueue<>();
+    private final Hedger hedger = new Hedger(95, DELAY, 100, hedges::add);
+    
+    @BeforeEach
+    void warmUp() {
+        for (int i = 0; i < Hedger.MIN_SAMPLES; i++) {
+            hedger.execute(() -> CompletableFuture.completedFuture("warm-up"));
+        }
+        assertEquals(DELAY, hedger.getDelay());
+    }
+    
+    @Test
+    void aSlowPrimaryIsOvertakenByTheHedgeAndDiscarded() throws Exception {
+        Uncancellable primary = new Uncancellable();
+        Attempts attempts = new Attempts(primary, CompletableFuture.completedFuture("hedge"));
+        List<String> discarded = new ArrayList<>();
+        
+        CompletableFuture<String> result = hedger.execute(attempts::next, discarded::add);
+        assertFalse(result.isDone());
+        fireHedge();
+        
+        assertEquals("hedge", result.getNow(null));
+        assertEquals(2, attempts.calls);
+        assertEquals(1, hedger.getHedged());
+        assertEquals(1, hedger.getWins());
+        assertTrue(primary.cancelRequested);
+        
+        // The primary's response still arrives and is handed back for release
+        primary.complete("primary");
+        assertEquals(List.of("primary"), discarded);
+    }
+    
+    @Test
+    void aFastPrimarySendsNoHedge() throws Exception {
+        CompletableFuture<String> primary = new CompletableFuture<>();
+        Attempts attempts = new Attempts(primary);
+        
+        CompletableFuture<String> result = hedger.execute(attempts::next);
+        primary.complete("primary");
+        
+        assertEquals("primary", result.getNow(null));
+        assertNull(hedges.poll(DELAY.toMillis() * 3, TimeUnit.MILLISECONDS));
+        assertEquals(1, attempts.calls);
+        assertEquals(0, hedger.getHedged());
+        assertEquals(0, hedger.getSkipped());
+    }
+    
+    @Test
+    void failsOnlyOnceBothAttemptsHaveFailed() throws Exception {
+        CompletableFuture<String> primary = new CompletableFuture<>();
+        CompletableFuture<String> hedge = new CompletableFuture<>();
+        Attempts attempts = new Attempts(primary, hedge);
+        
+        CompletableFuture<String> result = hedger.execute(attempts::next);
+        fireHedge();
+        assertEquals(2, attempts.calls);
+        
+        primary.completeExceptionally(new IllegalStateException("primary"));
+        assertFalse(result.isDone());
+        IllegalStateException last = new IllegalStateException("hedge");
+        hedge.completeExceptionally(last);
+        
+        ExecutionException failure = assertThrows(ExecutionException.class, result::get);
+        assertSame(last, failure.getCause());
+        assertEquals(1, hedger.getHedged());
+        assertEquals(0, hedger.getWins());
+    }
+    
+    /**
+     * Runs the hedge that the timer hands to the executor once the delay has passed
+     */
+    private void fireHedge() throws InterruptedException {
+        Runnable fire = hedges.poll(5, TimeUnit.SECONDS);
+        assertNotNull(fire, "hedge timer did not fire");
+        fire.run();
+    }
+    
+    /**
+     * Hands out the given futures in order, one per attempt
+     */
+    private static final class Attempts {
+        final List<CompletableFuture<String>> futures;
+        int calls;
+        
+        @SafeVarargs
+        Attempts(CompletableFuture<String>... futures) {
+            this.futures = List.of(futures);
+        }
+        
+        CompletableFuture<String> next() {
+            return futures.get(calls++);
+        }
+    }
+    
+    /**
+     * An attempt that cannot be aborted once sent, like a response that is already on its way
+     */
+    private static final class Uncancellable extends CompletableFuture<String> {
+        boolean cancelRequested;
+        
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            cancelRequested = true;
+            return false;
+        }
+    }
+}
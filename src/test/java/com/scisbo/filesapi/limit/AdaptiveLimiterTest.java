@@ -0,0 +1,75 @@
+package com.scisbo.filesapi.limit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveLimiterTest {
+    
+    private static final long BASELINE = TimeUnit.MILLISECONDS.toNanos(10);
+    
+    @Test
+    void growsToTheMaximumWhileLatencyStaysAtTheBaseline() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 2, 50, 100);
+        
+        for (int i = 0; i < 100; i++) {
+            limiter.onSample(BASELINE, limiter.getLimit(), false);
+        }
+        
+        assertEquals(50, limiter.getLimit());
+    }
+    
+    @Test
+    void shrinksToTheMinimumWhenLatencyClimbs() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(40, 8, 50, 100);
+        limiter.onSample(BASELINE, 0, false);
+        
+        for (int i = 0; i < 100; i++) {
+            limiter.onSample(BASELINE * 20, limiter.getLimit(), false);
+        }
+        
+        assertEquals(8, limiter.getLimit());
+    }
+    
+    @Test
+    void dropsCutTheLimitDownToTheMinimum() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(40, 4, 50, 100);
+        
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire().join().drop();
+        }
+        
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+    
+    @Test
+    void doesNotGrowWhileMostPermitsAreIdle() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 2, 50, 100);
+        
+        for (int i = 0; i < 100; i++) {
+            limiter.onSample(BASELINE, 1, false);
+        }
+        
+        assertEquals(10, limiter.getLimit());
+    }
+    
+    @Test
+    void aRaisedLimitAdmitsQueuedCallers() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 50, 100);
+        CompletableFuture<ConcurrencyLimiter.Permit> first = limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Permit> second = limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Permit> third = limiter.acquire();
+        
+        // Released at full use with no queueing delay, so the limit grows
+        first.join().release();
+        
+        assertTrue(limiter.getLimit() > 1);
+        assertTrue(second.isDone());
+        assertTrue(third.isDone());
+    }
+}
@@ -0,0 +1,106 @@
+package com.scisbo.filesapi.limit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrencyLimiterTest {
+    
+    @Test
+    void queuesCallersOverTheLimitInOrder() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        CompletableFuture<ConcurrencyLimiter.Permit> first = limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Permit> second = limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Permit> third = limiter.acquire();
+        
+        assertTrue(first.isDone());
+        assertEquals(2, limiter.getQueued());
+        first.join().release();
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+        assertEquals(1, limiter.getInFlight());
+    }
+    
+    @Test
+    void raisingTheLimitAdmitsWaitingCallers() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Permit> second = limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Permit> third = limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Permit> fourth = limiter.acquire();
+        
+        limiter.setLimit(3);
+        
+        assertTrue(second.isDone());
+        assertTrue(third.isDone());
+        assertFalse(fourth.isDone());
+        assertEquals(3, limiter.getInFlight());
+        assertEquals(1, limiter.getQueued());
+    }
+    
+    @Test
+    void aLoweredLimitTakesEffectAsPermitsAreReleased() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2);
+        CompletableFuture<ConcurrencyLimiter.Permit> first = limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Permit> second = limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Permit> third = limiter.acquire();
+        
+        limiter.setLimit(1);
+        first.join().release();
+        assertFalse(third.isDone());
+        assertEquals(1, limiter.getInFlight());
+        second.join().release();
+        assertTrue(third.isDone());
+        assertEquals(1, limiter.getInFlight());
+    }
+    
+    @Test
+    void cancelledWaitersGiveUpTheirPlace() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        CompletableFuture<ConcurrencyLimiter.Permit> first = limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Permit> second = limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Permit> third = limiter.acquire();
+        
+        second.cancel(false);
+        assertEquals(1, limiter.getQueued());
+        first.join().release();
+        
+        assertTrue(third.isDone());
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(0, limiter.getQueued());
+    }
+    
+    @Test
+    void rejectsCallersOnceTheQueueIsFull() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1);
+        limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Permit> queued = limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Permit> rejected = limiter.acquire();
+        
+        assertFalse(queued.isDone());
+        CompletionException failure = assertThrows(CompletionException.class, rejected::join);
+        assertInstanceOf(RejectedExecutionException.class, failure.getCause());
+        assertThrows(RejectedExecutionException.class, limiter::acquireBlocking);
+        assertEquals(1, limiter.getQueued());
+    }
+    
+    @Test
+    void onlyTheFirstReleaseOfAPermitCounts() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2);
+        ConcurrencyLimiter.Permit permit = limiter.acquire().join();
+        limiter.acquire();
+        
+        permit.release();
+        permit.drop();
+        
+        assertEquals(1, limiter.getInFlight());
+    }
+}
@@ -0,0 +1,59 @@
+package com.scisbo.filesapi.limit;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HostConcurrencyLimiterTest {
+    
+    private final HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(2);
+    
+    @Test
+    void sharesOneLimiterPerServerAcrossPaths() {
+        ConcurrencyLimiter files = limiter.forHost(URI.create("https://api.example.com/api/files?path=/a"));
+        ConcurrencyLimiter tokens = limiter.forHost(URI.create("https://api.example.com/api/access-token"));
+        
+        assertSame(files, tokens);
+        assertEquals(2, files.getLimit());
+    }
+    
+    @Test
+    void treatsDefaultPortsAsExplicitOnes() {
+        assertSame(limiter.forHost(URI.create("https://api.example.com/a")),
+                limiter.forHost(URI.create("https://api.example.com:443/b")));
+        assertSame(limiter.forHost(URI.create("http://api.example.com/a")),
+                limiter.forHost(URI.create("http://api.example.com:80/b")));
+    }
+    
+    @Test
+    void ignoresCaseInSchemeAndHost() {
+        assertSame(limiter.forHost(URI.create("https://api.example.com/a")),
+                limiter.forHost(URI.create("HTTPS://API.Example.COM/a")));
+    }
+    
+    @Test
+    void separatesSchemesPortsAndHosts() {
+        ConcurrencyLimiter https = limiter.forHost(URI.create("https://api.example.com/a"));
+        
+        assertNotSame(https, limiter.forHost(URI.create("http://api.example.com/a")));
+        assertNotSame(https, limiter.forHost(URI.create("https://api.example.com:8443/a")));
+        assertNotSame(https, limiter.forHost(URI.create("https://files.example.com/a")));
+    }
+    
+    @Test
+    void limitsEachServerOnItsOwn() {
+        ConcurrencyLimiter first = limiter.forHost(URI.create("https://one.example.com/a"));
+        ConcurrencyLimiter second = limiter.forHost(URI.create("https://two.example.com/a"));
+        first.acquire();
+        first.acquire();
+        
+        assertFalse(first.acquire().isDone());
+        assertTrue(second.acquire().isDone());
+    }
+}
@@ -0,0 +1,70 @@
+package com.scisbo.filesapi.metrics;
+
+import com.scisbo.filesapi.api.Operation;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryMetricsTest {
+    
+    @Test
+    void keepsMeasurementsPerOperation() {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        
+        metrics.requestStarted(Operation.UPLOAD);
+        metrics.requestStarted(Operation.UPLOAD);
+        metrics.requestStarted(Operation.ACCESS_TOKEN);
+        metrics.bytesSent(Operation.UPLOAD, 1000);
+        metrics.bytesSent(Operation.UPLOAD, 500);
+        metrics.bytesReceived(Operation.UPLOAD, 200);
+        metrics.retried(Operation.UPLOAD);
+        metrics.requestCompleted(Operation.UPLOAD, 503, 1_000_000);
+        metrics.requestCompleted(Operation.UPLOAD, 200, 3_000_000);
+        metrics.parsed(Operation.UPLOAD, 40_000);
+        
+        InMemoryMetrics.OperationMetrics upload = metrics.get(Operation.UPLOAD);
+        assertEquals(0, upload.getInFlight());
+        assertEquals(1500, upload.getBytesSent());
+        assertEquals(200, upload.getBytesReceived());
+        assertEquals(1, upload.getRetries());
+        assertEquals(Map.of(200, 1L, 503, 1L), upload.getStatusCodes());
+        assertEquals(2, upload.getLatency().getCount());
+        assertEquals(3_000_000, upload.getLatency().getMax());
+        assertEquals(2_000_000, upload.getLatency().getMean());
+        assertEquals(1, upload.getParseTime().getCount());
+        
+        InMemoryMetrics.OperationMetrics token = metrics.get(Operation.ACCESS_TOKEN);
+        assertEquals(1, token.getInFlight());
+        assertEquals(0, token.getBytesSent());
+        assertTrue(token.getStatusCodes().isEmpty());
+        assertEquals(0, metrics.get(Operation.UPLOAD_PART).getLatency().getCount());
+    }
+    
+    @Test
+    void countsRequestsWithoutAResponseUnderMinusOne() {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        
+        for (int i = 0; i < 3; i++) {
+            metrics.requestStarted(Operation.UPLOAD_PART);
+            metrics.requestCompleted(Operation.UPLOAD_PART, -1, 10);
+        }
+        
+        assertEquals(Map.of(-1, 3L), metrics.get(Operation.UPLOAD_PART).getStatusCodes());
+    }
+    
+    @Test
+    void reportsLatencyPercentilesWithinTheBucketError() {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        for (int millis = 1; millis <= 100; millis++) {
+            metrics.requestCompleted(Operation.UPLOAD, 200, millis * 1_000_000L);
+        }
+        
+        LatencyHistogram latency = metrics.get(Operation.UPLOAD).getLatency();
+        assertEquals(50_000_000, latency.getValueAtPercentile(50), 50_000_000 * 0.035);
+        assertEquals(99_000_000, latency.getValueAtPercentile(99), 99_000_000 * 0.035);
+        assertEquals(100_000_000, latency.getValueAtPercentile(100));
+    }
+}
@@ -0,0 +1,249 @@
+package com.scisbo.filesapi.multipart;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.function.IntConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkSubscriptionTest {
+    
+    @Test
+    void emitsNoMoreThanRequested() {
+        CountingSource source = new CountingSource(5);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ChunkSubscription subscription = new ChunkSubscription(subscriber, source);
+        
+        subscription.request(2);
+        assertEquals(List.of(0, 1), subscriber.items);
+        assertEquals(2, source.reads);
+        
+        subscription.request(1);
+        assertEquals(List.of(0, 1, 2), subscriber.items);
+        assertFalse(subscriber.completed);
+    }
+    
+    @Test
+    void completesAndClosesOnceTheSourceIsExhausted() {
+        CountingSource source = new CountingSource(2);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ChunkSubscription subscription = new ChunkSubscription(subscriber, source);
+        
+        subscription.request(Long.MAX_VALUE);
+        subscription.request(Long.MAX_VALUE);
+        
+        assertEquals(List.of(0, 1), subscriber.items);
+        assertTrue(subscriber.completed);
+        assertEquals(1, source.closes);
+    }
+    
+    @Test
+    void cancelStopsEmittingAndClosesTheSource() {
+        CountingSource source = new CountingSource(10);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ChunkSubscription subscription = new ChunkSubscription(subscriber, source);
+        
+        subscription.request(1);
+        subscription.cancel();
+        subscription.request(5);
+        subscription.cancel();
+        
+        assertEquals(List.of(0), subscriber.items);
+        assertFalse(subscriber.completed);
+        assertNull(subscriber.error);
+        assertEquals(1, source.closes);
+    }
+    
+    @Test
+    void cancelFromOnNextStopsTheDrainLoop() {
+        CountingSource source = new CountingSource(10);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ChunkSubscription subscription = new ChunkSubscription(subscriber, source);
+        subscriber.onItem = item -> {
+            if (item == 2) {
+                subscription.cancel();
+            }
+        };
+        
+        subscription.request(Long.MAX_VALUE);
+        
+        assertEquals(List.of(0, 1, 2), subscriber.items);
+        assertEquals(3, source.reads);
+        assertEquals(1, source.closes);
+    }
+    
+    @Test
+    void requestFromOnNextDoesNotRecurse() {
+        CountingSource source = new CountingSource(1000);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ChunkSubscription subscription = new ChunkSubscription(subscriber, source);
+        int[] depth = {0, 0};
+        subscriber.onItem = item -> {
+            depth[0]++;
+            depth[1] = Math.max(depth[1], depth[0]);
+            subscription.request(1);
+            depth[0]--;
+        };
+        
+        subscription.request(1);
+        
+        assertEquals(1000, subscriber.items.size());
+        assertTrue(subscriber.completed);
+        assertEquals(1, depth[1]);
+    }
+    
+    @Test
+    void nonPositiveRequestSignalsAnErrorAndClosesTheSource() {
+        CountingSource source = new CountingSource(10);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ChunkSubscription subscription = new ChunkSubscription(subscriber, source);
+        
+        subscription.request(0);
+        
+        assertInstanceOf(IllegalArgumentException.class, subscriber.error);
+        assertEquals(0, source.reads);
+        assertEquals(1, source.closes);
+    }
+    
+    @Test
+    void readFailureSignalsTheErrorAndClosesTheSource() {
+        CountingSource source = new CountingSource(10);
+        source.failAt = 1;
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ChunkSubscription subscription = new ChunkSubscription(subscriber, source);
+        
+        subscription.request(5);
+        
+        assertEquals(List.of(0), subscriber.items);
+        assertInstanceOf(IOException.class, subscriber.error);
+        assertFalse(subscriber.completed);
+        assertEquals(1, source.closes);
+    }
+    
+    @Test
+    void uncheckedReadFailureSignalsTheErrorAndClosesTheSource() {
+        CountingSource source = new CountingSource(10);
+        source.failAt = 2;
+        source.failUnchecked = true;
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ChunkSubscription subscription = new ChunkSubscription(subscriber, source);
+        
+        subscription.request(5);
+        subscription.request(5);
+        
+        assertEquals(List.of(0, 1), subscriber.items);
+        assertInstanceOf(IllegalStateException.class, subscriber.error);
+        assertEquals(1, subscriber.terminals);
+        assertEquals(1, source.closes);
+    }
+    
+    @Test
+    void nonPositiveRequestAfterCompletionSignalsNothing() {
+        CountingSource source = new CountingSource(1);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ChunkSubscription subscription = new ChunkSubscription(subscriber, source);
+        
+        subscription.request(5);
+        subscription.request(-1);
+        
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+        assertEquals(1, subscriber.terminals);
+    }
+    
+    @Test
+    void nonPositiveRequestFromOnNextIsSignalledAfterItReturns() {
+        CountingSource source = new CountingSource(10);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        ChunkSubscription subscription = new ChunkSubscription(subscriber, source);
+        boolean[] errorInsideOnNext = {false};
+        subscriber.onItem = item -> {
+            subscription.request(0);
+            errorInsideOnNext[0] = subscriber.error != null;
+        };
+        
+        subscription.request(5);
+        
+        assertFalse(errorInsideOnNext[0]);
+        assertEquals(List.of(0), subscriber.items);
+        assertInstanceOf(IllegalArgumentException.class, subscriber.error);
+        assertEquals(1, subscriber.terminals);
+        assertEquals(1, source.closes);
+    }
+    
+    /**
+     * Emits {@code count} one-int chunks holding their index
+     */
+    private static final class CountingSource implements ChunkSource {
+        private final int count;
+        private int reads;
+        private int closes;
+        private int failAt = -1;
+        private boolean failUnchecked;
+        
+        CountingSource(int count) {
+            this.count = count;
+        }
+        
+        @Override
+        public ByteBuffer next() throws IOException {
+            if (reads == failAt) {
+                if (failUnchecked) {
+                    throw new IllegalStateException("Source failed");
+                }
+                throw new IOException("Read failed");
+            }
+            if (reads == count) {
+                return null;
+            }
+            ByteBuffer chunk = ByteBuffer.allocate(Integer.BYTES).putInt(0, reads);
+            reads++;
+            return chunk;
+        }
+        
+        @Override
+        public void close() {
+            closes++;
+        }
+    }
+    
+    private static final class RecordingSubscriber implements Flow.Subscriber<ByteBuffer> {
+        private final List<Integer> items = new ArrayList<>();
+        private IntConsumer onItem = item -> { };
+        private boolean completed;
+        private Throwable error;
+        private int terminals;
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+        }
+        
+        @Override
+        public void onNext(ByteBuffer item) {
+            int value = item.getInt(0);
+            items.add(value);
+            onItem.accept(value);
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            terminals++;
+        }
+        
+        @Override
+        public void onComplete() {
+            completed = true;
+            terminals++;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.scisbo.filesapi.multipart;
+
+import com.scisbo.filesapi.buffer.BufferPool;
+import com.scisbo.filesapi.config.Compression;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.source.ContentSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Flow;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MultipartBodyPublisherTest {
+    
+    private static final int[] CHUNK_SIZES = {1, 7, 64, 8192, 65536};
+    
+    @Test
+    void matchesTheBufferedEncoder() throws IOException {
+        byte[] small = "hello world".getBytes(StandardCharsets.UTF_8);
+        byte[] large = randomBytes(200_000);
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put("owner", "alice");
+        metadata.put("note", "ümlaut");
+        
+        for (int chunkSize : CHUNK_SIZES) {
+            MultipartBodyPublisher publisher = new MultipartBodyPublisher(chunkSize);
+            publisher.addFile("files", file("a.txt", "text/plain", small));
+            publisher.addFile("files", file("b.bin", null, large));
+            publisher.addFile("files", file("empty", null, new byte[0]));
+            metadata.forEach(publisher::addPart);
+            HttpRequest.BodyPublisher body = publisher.build();
+            
+            LegacyEncoder legacy = new LegacyEncoder(publisher.getBoundary());
+            legacy.addFile("files", "a.txt", "text/plain", small);
+            legacy.addFile("files", "b.bin", "application/octet-stream", large);
+            legacy.addFile("files", "empty", "application/octet-stream", new byte[0]);
+            metadata.forEach(legacy::addPart);
+            
+            Collected collected = collect(body);
+            assertNull(collected.error);
+            assertArrayEquals(legacy.build(), collected.bytes.toByteArray(), "chunk size " + chunkSize);
+            assertTrue(collected.largestChunk <= chunkSize, "chunk size " + chunkSize);
+        }
+    }
+    
+    @Test
+    void sendsFilesAsMappedRegionsOrCopiesWithTheSameBytes(@TempDir Path directory) throws IOException {
+        byte[] small = randomBytes(100);
+        byte[] large = randomBytes(300_000);
+        Path smallFile = Files.write(directory.resolve("small.bin"), small);
+        Path largeFile = Files.write(directory.resolve("large.bin"), large);
+        
+        MultipartBodyPublisher publisher = new MultipartBodyPublisher(4096);
+        publisher.addFile("files", new FileData("small.bin", null, ContentSource.of(smallFile)));
+        publisher.addFile("files", new FileData("large.bin", null, ContentSource.of(largeFile)));
+        publisher.addPart("k", "v");
+        HttpRequest.BodyPublisher body = publisher.build();
+        
+        LegacyEncoder legacy = new LegacyEncoder(publisher.getBoundary());
+        legacy.addFile("files", "small.bin", "application/octet-stream", small);
+        legacy.addFile("files", "large.bin", "application/octet-stream", large);
+        legacy.addPart("k", "v");
+        byte[] expected = legacy.build();
+        
+        Collected collected = collect(body);
+        assertNull(collected.error);
+        assertTrue(collected.completed);
+        assertArrayEquals(expected, collected.bytes.toByteArray());
+        assertEquals(expected.length, body.contentLength());
+        // The large file is emitted as one region rather than in chunks
+        assertEquals(large.length, collected.largestChunk);
+    }
+    
+    @Test
+    void readsMultipartFilesLazilyAndOnce() throws IOException {
+        byte[] content = randomBytes(50_000);
+        MultipartFile upload = mock(MultipartFile.class);
+        when(upload.getSize()).thenReturn((long) content.length);
+        when(upload.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(content));
+        
+        MultipartBodyPublisher publisher = new MultipartBodyPublisher(4096);
+        publisher.addFile("files", new FileData("upload.bin", null, ContentSource.of(upload)));
+        HttpRequest.BodyPublisher body = publisher.build();
+        verify(upload, never()).getInputStream();
+        
+        LegacyEncoder legacy = new LegacyEncoder(publisher.getBoundary());
+        legacy.addFile("files", "upload.bin", "application/octet-stream", content);
+        byte[] expected = legacy.build();
+        
+        Collected collected = collect(body);
+        assertNull(collected.error);
+        assertArrayEquals(expected, collected.bytes.toByteArray());
+        assertEquals(expected.length, body.contentLength());
+        verify(upload, times(1)).getInputStream();
+    }
+    
+    @Test
+    void compressedPartsDecompressToTheOriginalBytes() throws IOException {
+        byte[] json = "{\"name\": \"report\", \"values\": [1, 2, 3]}\n".repeat(2000).getBytes(StandardCharsets.UTF_8);
+        byte[] archive = randomBytes(50_000);
+        
+        for (Compression compression : new Compression[] {Compression.GZIP, Compression.DEFLATE}) {
+            MultipartBodyPublisher publisher = new MultipartBodyPublisher(4096, compression, 6);
+            publisher.addFile("files", file("data.json", "application/json", json));
+            publisher.addFile("files", file("data.zip", "application/zip", archive));
+            Collected collected = collect(publisher.build());
+            assertNull(collected.error);
+            assertTrue(collected.bytes.size() < json.length, compression.name());
+            
+            Map<String, String> headers = new LinkedHashMap<>();
+            Map<String, byte[]> contents = new LinkedHashMap<>();
+            split(collected.bytes.toByteArray(), publisher.getBoundary(), headers, contents);
+            
+            assertTrue(headers.get("data.json").contains("Content-Encoding: " + compression.getContentEncoding()));
+            assertArrayEquals(json, decompress(compression, contents.get("data.json")), compression.name());
+            assertFalse(headers.get("data.zip").contains("Content-Encoding"));
+            assertArrayEquals(archive, contents.get("data.zip"), compression.name());
+        }
+    }
+    
+    @Test
+    void reportsTheExactLengthWhenEveryPartIsKnown() {
+        MultipartBodyPublisher publisher = new MultipartBodyPublisher(16);
+        publisher.addPart("a", "1");
+        publisher.addPart("b", "2");
+        HttpRequest.BodyPublisher body = publisher.build();
+        
+        assertEquals(collect(body).bytes.size(), body.contentLength());
+    }
+    
+    @Test
+    void reportsAnUnknownLengthForStreams() throws IOException {
+        MultipartBodyPublisher publisher = new MultipartBodyPublisher(16);
+        publisher.addFile("files", file("a.txt", "text/plain", new byte[10]));
+        
+        assertEquals(-1, publisher.build().contentLength());
+    }
+    
+    @Test
+    void leasesChunksUpToThePoolsLimitPerBody() throws IOException {
+        byte[] content = randomBytes(4 * 1024 * 1024);
+        
+        BufferPool capped = send(new BufferPool(16L * 1024 * 1024), content);
+        assertEquals(BufferPool.DEFAULT_MAX_BYTES_PER_BODY, capped.getRetainedBytes());
+        
+        BufferPool large = send(new BufferPool(16L * 1024 * 1024, 8L * 1024 * 1024), content);
+        assertTrue(large.getRetainedBytes() > content.length);
+        assertEquals(large.getAcquired(), large.getReleased());
+    }
+    
+    /**
+     * Sends {@code content} as one stream part with chunks from {@code pool}, and recycles them afterwards
+     */
+    private static BufferPool send(BufferPool pool, byte[] content) throws IOException {
+        MultipartBodyPublisher publisher = new MultipartBodyPublisher(65536, Compression.NONE, 0, pool);
+        publisher.addFile("files", file("big.bin", null, content));
+        Collected collected = collect(publisher.build());
+        publisher.release(true);
+        assertNull(collected.error);
+        return pool;
+    }
+    
+    /**
+     * Splits a multipart body into the headers and content of each file part, keyed by filename
+     */
+    private static void split(byte[] body, String boundary, Map<String, String> headers,
+                              Map<String, byte[]> contents) {
+        // ISO-8859-1 maps every byte to one char, so offsets in the string are offsets in the body
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        String delimiter = "--" + boundary;
+        int start = text.indexOf(delimiter);
+        while (!text.startsWith("--", start + delimiter.length())) {
+            int headerStart = start + delimiter.length() + 2;
+            int contentStart = text.indexOf("\r\n\r\n", headerStart) + 4;
+            int next = text.indexOf("\r\n" + delimiter, contentStart);
+            String header = text.substring(headerStart, contentStart);
+            int name = header.indexOf("filename=\"") + 10;
+            String filename = header.substring(name, header.indexOf('"', name));
+            headers.put(filename, header);
+            contents.put(filename, Arrays.copyOfRange(body, contentStart, next));
+            start = next + 2;
+        }
+    }
+    
+    private static byte[] decompress(Compression compression, byte[] content) throws IOException {
+        InputStream raw = new ByteArrayInputStream(content);
+        try (InputStream in = compression == Compression.GZIP
+                ? new GZIPInputStream(raw) : new InflaterInputStream(raw)) {
+            return in.readAllBytes();
+        }
+    }
+    
+    static FileData file(String name, String contentType, byte[] content) {
+        return new FileData(name, contentType, new ByteArrayInputStream(content));
+    }
+    
+    static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+    
+    /**
+     * Subscribes to {@code body} and requests one chunk at a time until it completes
+     */
+    static Collected collect(HttpRequest.BodyPublisher body) {
+        Collected collected = new Collected();
+        body.subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+            
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+            
+            @Override
+            public void onNext(ByteBuffer item) {
+                collected.largestChunk = Math.max(collected.largestChunk, item.remaining());
+                byte[] bytes = new byte[item.remaining()];
+                item.get(bytes);
+                collected.bytes.writeBytes(bytes);
+                subscription.request(1);
+            }
+            
+            @Override
+            public void onError(Throwable throwable) {
+                collected.error = throwable;
+            }
+            
+            @Override
+            public void onComplete() {
+                collected.completed = true;
+            }
+        });
+        return collected;
+    }
+    
+    static final class Collected {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int largestChunk;
+        boolean completed;
+        Throwable error;
+    }
+    
+    /**
+     * The encoder the client used before bodies were streamed: the whole body buffered in one array
+     */
+    static final class LegacyEncoder {
+        private final String boundary;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        
+        LegacyEncoder(String boundary) {
+            this.boundary = boundary;
+        }
+        
+        void addFile(String fieldName, String filename, String contentType, byte[] content) {
+            write("--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"" + fieldName + "\"; filename=\"" + filename + "\"\r\n"
+                    + "Content-Type: " + contentType + "\r\n\r\n");
+            try (InputStream in = new ByteArrayInputStream(content)) {
+                in.transferTo(out);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            write("\r\n");
+        }
+        
+        void addPart(String fieldName, String value) {
+            write("--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"" + fieldName + "\"\r\n"
+                    + "Content-Type: text/plain; charset=UTF-8\r\n\r\n"
+                    + value + "\r\n");
+        }
+        
+        byte[] build() {
+            write("--" + boundary + "--\r\n");
+            return out.toByteArray();
+        }
+        
+        private void write(String text) {
+            out.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
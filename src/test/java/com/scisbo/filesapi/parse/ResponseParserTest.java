@@ -0,0 +1,60 @@
+package com.scisbo.filesapi.parse;
+
+import com.google.gson.Gson;
+import com.scisbo.filesapi.data.file.FileInfo;
+import com.scisbo.filesapi.data.file.FileType;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseParserTest {
+    
+    private static final String RESPONSE = "{\"data\":{\"uploadedFiles\":["
+            + file("1", "a.pdf", "application/pdf", "pdf", "2024-05-17T08:21:03.123456") + ","
+            + file("2", "b.pdf", "application/pdf", "pdf", "2024-05-17T08:21:04") + ","
+            + file("3", "c.txt", "text/plain", "txt", "2024-05-17T08:21") + "]}}";
+    
+    private final Gson gson = new Gson();
+    
+    @Test
+    void parsesFilesAndSharesTheirTypes() throws Exception {
+        ResponseParser parser = new ResponseParser(gson, ZoneOffset.UTC);
+        
+        FileUploadResponse response = parser.parseUploadResponse(RESPONSE);
+        FileUploadResponse again = parser.parseUploadResponse(RESPONSE);
+        
+        assertTrue(response.isSuccess());
+        List<FileInfo> files = response.getUploadedFiles();
+        assertEquals(3, files.size());
+        assertEquals(new FileType("application/pdf", "pdf"), files.get(0).getFileType());
+        assertSame(files.get(0).getFileType(), files.get(1).getFileType());
+        assertSame(files.get(0).getFileType(), again.getUploadedFiles().get(0).getFileType());
+        assertEquals(new FileType("text/plain", "txt"), files.get(2).getFileType());
+        assertEquals(LocalDateTime.parse("2024-05-17T08:21:03.123456").toInstant(ZoneOffset.UTC).toEpochMilli(),
+                files.get(0).getCreatedAt());
+        assertTrue(files.get(0).getMetadata().isEmpty());
+    }
+    
+    @Test
+    void fileTypeRoundTripsThroughGson() {
+        FileType type = new FileType("image/png", "png");
+        
+        String json = gson.toJson(type);
+        
+        assertEquals("{\"mimeType\":\"image/png\",\"extension\":\"png\"}", json);
+        assertEquals(type, gson.fromJson(json, FileType.class));
+    }
+    
+    private static String file(String id, String name, String mimeType, String extension, String createdAt) {
+        return "{\"fileMetadata\":{\"id\":\"" + id + "\",\"storedFilename\":\"s" + id + "\",\"originalFilename\":\""
+                + name + "\",\"fileType\":{\"mimeType\":\"" + mimeType + "\",\"extension\":\"" + extension
+                + "\"},\"createdAt\":\"" + createdAt + "\"}}";
+    }
+}
@@ -0,0 +1,88 @@
+package com.scisbo.filesapi.parse;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TimestampDecoderTest {
+    
+    private static final List<ZoneId> ZONES = List.of(ZoneOffset.UTC, ZoneOffset.ofHoursMinutes(5, 30),
+            ZoneOffset.ofHours(-8), ZoneId.of("Europe/Berlin"), ZoneId.of("America/New_York"));
+    
+    @Test
+    void matchesLocalDateTimeParseOnRandomInput() {
+        Random random = new Random(42);
+        for (ZoneId zone : ZONES) {
+            TimestampDecoder decoder = new TimestampDecoder(zone);
+            for (int i = 0; i < 20_000; i++) {
+                assertSameResult(decoder, zone, randomTimestamp(random));
+            }
+        }
+    }
+    
+    @Test
+    void matchesLocalDateTimeParseOnEdgeCases() {
+        List<String> inputs = new ArrayList<>(List.of(
+                "1970-01-01T00:00", "1970-01-01T00:00:00", "1969-12-31T23:59:59.999999999",
+                "0000-01-01T00:00", "9999-12-31T23:59:59.999", "2000-02-29T12:00", "2024-02-29T12:00",
+                "1900-02-29T12:00", "2023-02-29T12:00", "2024-04-31T00:00", "2024-13-01T00:00",
+                "2024-00-10T00:00", "2024-01-00T00:00", "2024-01-01T24:00", "2024-01-01T23:60",
+                "2024-01-01T23:59:60", "2024-01-01T10:15:30.", "2024-01-01T10:15:30.1234567890",
+                "2024-01-01T10:15:30.12a", "2024-01-01 10:15", "2024-01-01T10:15Z", "2024-1-01T10:15",
+                "+12024-01-01T10:15", "-0001-01-01T10:15", "２０２４-01-01T10:15", "2024-01-01T10:15:3",
+                "2024-01-01T10", "", "2024-03-31T02:30", "2024-10-27T02:30", "2024-03-10T02:30",
+                "2024-11-03T01:30"));
+        for (ZoneId zone : ZONES) {
+            TimestampDecoder decoder = new TimestampDecoder(zone);
+            for (String input : inputs) {
+                assertSameResult(decoder, zone, input);
+            }
+        }
+    }
+    
+    private static void assertSameResult(TimestampDecoder decoder, ZoneId zone, String input) {
+        long expected;
+        try {
+            expected = LocalDateTime.parse(input).atZone(zone).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            DateTimeException actual = assertThrows(DateTimeException.class, () -> decoder.toEpochMilli(input), input);
+            assertEquals(e.getClass(), actual.getClass(), input);
+            assertEquals(e.getMessage(), actual.getMessage(), input);
+            return;
+        }
+        assertEquals(expected, decoder.toEpochMilli(input), () -> input + " in " + zone);
+    }
+    
+    /**
+     * Mostly well-formed timestamps in every supported shape, with some out-of-range fields and stray characters
+     */
+    private static String randomTimestamp(Random random) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%04d-%02d-%02dT%02d:%02d", random.nextInt(10_000), 1 + random.nextInt(13),
+                1 + random.nextInt(31), random.nextInt(25), random.nextInt(61)));
+        int shape = random.nextInt(4);
+        if (shape > 0) {
+            text.append(String.format(":%02d", random.nextInt(61)));
+        }
+        if (shape > 1) {
+            text.append('.');
+            int digits = 1 + random.nextInt(10);
+            for (int i = 0; i < digits; i++) {
+                text.append((char) ('0' + random.nextInt(10)));
+            }
+        }
+        if (random.nextInt(50) == 0) {
+            text.setCharAt(random.nextInt(text.length()), (char) ('+' + random.nextInt(80)));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,332 @@
+package com.scisbo.filesapi.queue;
+
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.source.ContentSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueueLogTest {
+    
+    private static final int SEGMENT_SIZE = QueueLog.MIN_SEGMENT_SIZE;
+    private static final Map<String, String> METADATA = Map.of("source", "test");
+    
+    @TempDir
+    Path directory;
+    
+    private QueueLog log;
+    
+    @AfterEach
+    void closeLog() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+    }
+    
+    @Test
+    void resumesAtTheCheckpointAfterARestart() throws IOException {
+        log = open();
+        append(file("a", 100));
+        append(file("b", 100));
+        append(file("c", 100));
+        assertEquals(List.of("a", "b", "c"), names(log.read(10, Long.MAX_VALUE)));
+        log.commit(1);
+        
+        // Closing only releases the lock, so reopening sees what a crash would leave
+        reopen();
+        
+        assertEquals(1, log.getCheckpoint());
+        assertEquals(3, log.getAppended());
+        List<LogEntry> entries = log.read(10, Long.MAX_VALUE);
+        assertEquals(List.of("b", "c"), names(entries));
+        assertEquals(1, entries.get(0).getSequence());
+        assertEquals("/docs", entries.get(0).getPath());
+        assertEquals(METADATA, entries.get(0).getMetadata());
+        assertArrayEquals(content("b", 100), read(entries.get(0)));
+    }
+    
+    @Test
+    void dropsAnEntryTornByACrash() throws IOException {
+        log = open();
+        append(file("a", 100));
+        append(file("b", 100));
+        List<LogEntry> entries = log.read(10, Long.MAX_VALUE);
+        int end = entries.get(0).getSize() + entries.get(1).getSize();
+        
+        log.close();
+        corrupt(segmentFiles().get(0), end - 1);
+        log = open();
+        
+        assertEquals(1, log.getAppended());
+        assertEquals(List.of("a"), names(log.read(10, Long.MAX_VALUE)));
+        assertEquals(1, append(file("c", 100)));
+        reopen();
+        assertEquals(List.of("a", "c"), names(log.read(10, Long.MAX_VALUE)));
+    }
+    
+    @Test
+    void skipsTheRestOfARolledSegmentWithADamagedEntry() throws IOException {
+        log = open();
+        append(file("a", 100));
+        append(file("b", 100));
+        append(file("c", 100));
+        append(file("d", 3900));
+        List<LogEntry> entries = log.read(10, Long.MAX_VALUE);
+        int second = entries.get(0).getSize();
+        
+        log.close();
+        corrupt(segmentFiles().get(0), second + 20);
+        log = open();
+        
+        assertEquals(List.of("a"), names(log.read(10, Long.MAX_VALUE)));
+        QueueLog.DamagedEntriesException damage = assertThrows(QueueLog.DamagedEntriesException.class,
+                () -> log.read(10, Long.MAX_VALUE));
+        assertEquals(1, damage.getFrom());
+        assertEquals(3, damage.getTo());
+        assertEquals(List.of("d"), names(log.read(10, Long.MAX_VALUE)));
+    }
+    
+    @Test
+    void reportsADamagedEntryBehindTheCheckpointOnOpen() throws IOException {
+        log = open();
+        append(file("a", 100));
+        append(file("b", 100));
+        append(file("c", 3900));
+        log.read(10, Long.MAX_VALUE);
+        log.commit(1);
+        
+        log.close();
+        corrupt(segmentFiles().get(0), 20);
+        log = open();
+        
+        QueueLog.DamagedEntriesException damage = assertThrows(QueueLog.DamagedEntriesException.class,
+                () -> log.read(10, Long.MAX_VALUE));
+        assertEquals(1, damage.getFrom());
+        assertEquals(2, damage.getTo());
+        assertEquals(List.of("c"), names(log.read(10, Long.MAX_VALUE)));
+    }
+    
+    @Test
+    void aFailedFileLeavesNoneOfItsRequestQueued() throws IOException {
+        log = open();
+        assertThrows(IOException.class, () -> append(file("a", 100), file("b", 100), failing("c")));
+        
+        assertEquals(0, log.getAppended());
+        assertTrue(log.read(10, Long.MAX_VALUE).isEmpty());
+        
+        // The discarded entries are zeroed, so recovery does not find them behind a shorter new entry
+        assertEquals(0, append(file("d", 100)));
+        reopen();
+        assertEquals(List.of("d"), names(log.read(10, Long.MAX_VALUE)));
+    }
+    
+    @Test
+    void aFailedRequestDeletesTheSegmentsItRolledOverTo() throws IOException {
+        log = open();
+        append(file("a", 100));
+        assertThrows(IOException.class, () -> append(file("b", 3000), file("c", 3000), failing("d")));
+        
+        assertEquals(1, log.getSegmentCount());
+        assertEquals(1, segmentFiles().size());
+        assertEquals(List.of("a"), names(log.read(10, Long.MAX_VALUE)));
+        
+        assertEquals(1, append(file("e", 3000)));
+        reopen();
+        assertEquals(List.of("a", "e"), names(log.read(10, Long.MAX_VALUE)));
+    }
+    
+    @Test
+    void refusesARequestWithAFileLargerThanASegmentBeforeWritingAny() throws IOException {
+        log = open();
+        assertThrows(IOException.class, () -> append(file("a", 100), file("b", SEGMENT_SIZE)));
+        
+        assertEquals(0, log.getAppended());
+        reopen();
+        assertEquals(0, log.getAppended());
+    }
+    
+    @Test
+    void entriesOfOneRequestAreReadTogether() throws IOException {
+        log = open();
+        assertEquals(0, append(file("a", 3000), file("b", 3000), file("c", 3000)));
+        
+        assertEquals(3, log.getSegmentCount());
+        assertEquals(List.of("a", "b", "c"), names(log.read(10, Long.MAX_VALUE)));
+        reopen();
+        assertEquals(List.of("a", "b", "c"), names(log.read(10, Long.MAX_VALUE)));
+    }
+    
+    @Test
+    void commitDeletesSegmentsBelowTheCheckpointButKeepsTheTail() throws IOException {
+        log = open();
+        for (int i = 0; i < 5; i++) {
+            append(file("f" + i, 3000));
+        }
+        assertEquals(5, log.getSegmentCount());
+        assertEquals(5, log.read(10, Long.MAX_VALUE).size());
+        
+        log.commit(3);
+        assertEquals(2, log.getSegmentCount());
+        assertEquals(2, segmentFiles().size());
+        
+        log.commit(5);
+        assertEquals(1, log.getSegmentCount());
+        assertEquals(1, segmentFiles().size());
+        
+        assertEquals(5, append(file("f5", 3000)));
+        assertEquals(List.of("f5"), names(log.read(10, Long.MAX_VALUE)));
+        reopen();
+        assertEquals(5, log.getCheckpoint());
+        assertEquals(List.of("f5"), names(log.read(10, Long.MAX_VALUE)));
+    }
+    
+    @Test
+    void deletesLeftoverSegmentsBelowTheCheckpointOnOpen() throws IOException {
+        log = open();
+        append(file("a", 3000));
+        append(file("b", 3000));
+        append(file("c", 3000));
+        Path first = segmentFiles().get(0);
+        byte[] saved = Files.readAllBytes(first);
+        log.read(10, Long.MAX_VALUE);
+        log.commit(2);
+        assertTrue(Files.notExists(first));
+        
+        // As if the process had stopped between the checkpoint and the deletion
+        log.close();
+        Files.write(first, saved);
+        log = open();
+        
+        assertTrue(Files.notExists(first));
+        assertEquals(List.of("c"), names(log.read(10, Long.MAX_VALUE)));
+    }
+    
+    @Test
+    void readStopsAtADifferentPathAndAtTheByteLimit() throws IOException {
+        log = open();
+        append(file("a", 100));
+        append(file("b", 100));
+        log.append("/other", METADATA, List.of(file("c", 100)));
+        
+        List<LogEntry> first = log.read(10, 1);
+        assertEquals(List.of("a"), names(first));
+        assertEquals(List.of("b"), names(log.read(10, Long.MAX_VALUE)));
+        assertEquals(List.of("c"), names(log.read(10, Long.MAX_VALUE)));
+    }
+    
+    @Test
+    void aSecondLogCannotOpenTheDirectory() throws IOException {
+        log = open();
+        
+        assertThrows(IOException.class, this::open);
+    }
+    
+    private QueueLog open() throws IOException {
+        return new QueueLog(directory, SEGMENT_SIZE);
+    }
+    
+    private void reopen() throws IOException {
+        log.close();
+        log = open();
+    }
+    
+    private long append(FileData... files) throws IOException {
+        return log.append("/docs", METADATA, Arrays.asList(files));
+    }
+    
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".log")).sorted().toList();
+        }
+    }
+    
+    private static void corrupt(Path file, int position) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, position);
+            one.put(0, (byte) ~one.get(0));
+            channel.write(one.rewind(), position);
+        }
+    }
+    
+    private static List<String> names(List<LogEntry> entries) {
+        List<String> names = new ArrayList<>();
+        entries.forEach(entry -> names.add(entry.getFile().getFilename()));
+        return names;
+    }
+    
+    private static byte[] read(LogEntry entry) throws IOException {
+        try (InputStream in = entry.getFile().getSource().openStream()) {
+            return in.readAllBytes();
+        }
+    }
+    
+    private static byte[] content(String name, int size) {
+        byte[] bytes = new byte[size];
+        byte[] seed = name.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (seed[i % seed.length] + i);
+        }
+        return bytes;
+    }
+    
+    /**
+     * File of known length
+     */
+    private static FileData file(String name, int size) {
+        byte[] bytes = content(name, size);
+        return new FileData(name, "application/octet-stream", new ContentSource() {
+            @Override
+            public InputStream openStream() {
+                return new ByteArrayInputStream(bytes);
+            }
+            
+            @Override
+            public long length() {
+                return bytes.length;
+            }
+            
+            @Override
+            public boolean isRepeatable() {
+                return true;
+            }
+        });
+    }
+    
+    /**
+     * Stream of unknown length that fails after a few bytes
+     */
+    private static FileData failing(String name) {
+        return new FileData(name, "application/octet-stream", new InputStream() {
+            private int read;
+            
+            @Override
+            public int read() throws IOException {
+                if (read++ == 10) {
+                    throw new IOException("Disk read failed");
+                }
+                return 'x';
+            }
+        });
+    }
+}
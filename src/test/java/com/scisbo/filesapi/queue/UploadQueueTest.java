@@ -0,0 +1,207 @@
+package com.scisbo.filesapi.queue;
+
+import com.scisbo.filesapi.api.FilesApiClient;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.request.FileUploadRequest;
+import com.scisbo.filesapi.data.response.FileUploadResponse;
+import com.scisbo.filesapi.exception.FileUploadException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UploadQueueTest {
+    
+    private static final FileUploadResponse OK = new FileUploadResponse(true, "ok", List.of());
+    
+    @TempDir
+    Path directory;
+    
+    private FilesApiClient client;
+    private UploadQueue queue;
+    
+    @BeforeEach
+    void setUp() {
+        client = mock(FilesApiClient.class);
+    }
+    
+    @AfterEach
+    void closeQueue() throws Exception {
+        if (queue != null) {
+            queue.close();
+        }
+    }
+    
+    @Test
+    void retriesWhileTheServerCannotBeReached() throws Exception {
+        when(client.uploadFiles(any(FileUploadRequest.class)))
+                .thenThrow(new FileUploadException("Failed to upload files", new ConnectException("refused")))
+                .thenThrow(new FileUploadException("File upload failed with status: 503", 503, "busy"))
+                .thenReturn(OK);
+        queue = open();
+        queue.submit(request("/docs", file("a"), file("b")));
+        
+        assertTrue(queue.awaitDrained(Duration.ofSeconds(10)));
+        assertEquals(2, queue.getUploaded());
+        assertEquals(2, queue.getFailures());
+        assertEquals(0, queue.getRejected());
+    }
+    
+    @Test
+    void dropsABatchThatFailsLocallyInsteadOfRetryingIt() throws Exception {
+        when(client.uploadFiles(any(FileUploadRequest.class)))
+                .thenThrow(new BufferUnderflowException())
+                .thenReturn(OK);
+        queue = open();
+        queue.submit(request("/first", file("a")));
+        queue.submit(request("/second", file("b")));
+        
+        assertTrue(queue.awaitDrained(Duration.ofSeconds(10)));
+        assertEquals(1, queue.getRejected());
+        assertEquals(1, queue.getUploaded());
+        assertEquals(0, queue.getFailures());
+        verify(client, times(2)).uploadFiles(any(FileUploadRequest.class));
+    }
+    
+    @Test
+    void dropsBatchesTheServerRefusesOrThatFailWithoutAResponse() throws Exception {
+        when(client.uploadFiles(any(FileUploadRequest.class)))
+                .thenThrow(new FileUploadException("File upload failed with status: 400", 400, "bad"))
+                .thenThrow(new FileUploadException("Failed to parse upload response",
+                        new IllegalStateException("not an object")))
+                .thenReturn(OK);
+        queue = open();
+        queue.submit(request("/first", file("a")));
+        queue.submit(request("/second", file("b")));
+        queue.submit(request("/third", file("c")));
+        
+        assertTrue(queue.awaitDrained(Duration.ofSeconds(10)));
+        assertEquals(2, queue.getRejected());
+        assertEquals(1, queue.getUploaded());
+        assertEquals(0, queue.getFailures());
+    }
+    
+    @Test
+    void aRequestWithAnUnreadableFileIsNotQueuedAtAll() throws Exception {
+        queue = open();
+        
+        assertThrows(FileUploadException.class, () -> queue.submit(request("/docs", file("a"), unreadable("b"))));
+        assertEquals(0, queue.getPending());
+        
+        queue.close();
+        queue = open();
+        assertEquals(0, queue.getPending());
+        verify(client, never()).uploadFiles(any(FileUploadRequest.class));
+    }
+    
+    @Test
+    void dropsDamagedEntriesOfARolledSegmentAndUploadsTheRest() throws Exception {
+        when(client.uploadFiles(any(FileUploadRequest.class))).thenReturn(OK);
+        QueueLog log = new QueueLog(directory, QueueLog.MIN_SEGMENT_SIZE);
+        log.append("/docs", Map.of(), List.of(file("a")));
+        log.append("/docs", Map.of(), List.of(file("b")));
+        log.append("/docs", Map.of(), List.of(file("c", 4000)));
+        int second = log.read(1, Long.MAX_VALUE).get(0).getSize();
+        log.close();
+        corrupt(directory.resolve(String.format("%020d.log", 0)), second + 20);
+        
+        queue = open();
+        
+        assertTrue(queue.awaitDrained(Duration.ofSeconds(10)));
+        assertEquals(1, queue.getRejected());
+        assertEquals(2, queue.getUploaded());
+        verify(client, times(2)).uploadFiles(any(FileUploadRequest.class));
+    }
+    
+    @Test
+    void anInterruptedCloseLeavesReleasingTheDirectoryToTheLastWorker() throws Exception {
+        CountDownLatch uploading = new CountDownLatch(1);
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        when(client.uploadFiles(any(FileUploadRequest.class))).thenAnswer(invocation -> {
+            uploading.countDown();
+            // Ignores the interrupt from close, like an upload that cannot be aborted
+            release.join();
+            return OK;
+        });
+        UploadQueue busy = open();
+        busy.submit(request("/docs", file("a")));
+        assertTrue(uploading.await(10, TimeUnit.SECONDS));
+        
+        Thread.currentThread().interrupt();
+        busy.close();
+        
+        assertTrue(Thread.interrupted());
+        assertThrows(IOException.class, this::open);
+        release.complete(null);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (queue == null) {
+            try {
+                queue = open();
+            } catch (IOException e) {
+                assertTrue(System.nanoTime() < deadline, "directory was not released");
+                Thread.sleep(10);
+            }
+        }
+        assertTrue(queue.awaitDrained(Duration.ofSeconds(10)));
+    }
+    
+    private UploadQueue open() throws IOException {
+        return new UploadQueue(client, directory, QueueLog.MIN_SEGMENT_SIZE, 100, 1024 * 1024, 1);
+    }
+    
+    private static FileUploadRequest request(String path, FileData... files) {
+        return new FileUploadRequest(path, List.of(files), Map.of());
+    }
+    
+    private static FileData file(String name) {
+        return new FileData(name, "text/plain", new ByteArrayInputStream(name.getBytes()));
+    }
+    
+    private static FileData file(String name, int size) {
+        return new FileData(name, "text/plain", new ByteArrayInputStream(new byte[size]));
+    }
+    
+    private static void corrupt(Path file, int position) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, position);
+            one.put(0, (byte) ~one.get(0));
+            channel.write(one.rewind(), position);
+        }
+    }
+    
+    private static FileData unreadable(String name) {
+        return new FileData(name, "text/plain", new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Disk read failed");
+            }
+        });
+    }
+}
@@ -0,0 +1,255 @@
+package com.scisbo.filesapi.retry;
+
+import com.scisbo.filesapi.api.Operation;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetrierTest {
+    
+    private final List<RetryAttempt> attempts = new ArrayList<>();
+    
+    @Test
+    void retriesTransientStatusesOfIdempotentCalls() throws Exception {
+        Script script = new Script(new StubResponse(500), new StubResponse(502), new StubResponse(200));
+        
+        HttpResponse<String> response = retrier(3, 10).execute(Operation.ACCESS_TOKEN, RetryScope.ALL, script);
+        
+        assertEquals(200, response.statusCode());
+        assertEquals(3, script.sent);
+        assertEquals(List.of(true, true, false), retrying());
+    }
+    
+    @Test
+    void returnsTheLastResponseOnceRetriesAreUsedUp() throws Exception {
+        Script script = new Script(new StubResponse(500), new StubResponse(500), new StubResponse(500));
+        
+        HttpResponse<String> response = retrier(2, 10).execute(Operation.ACCESS_TOKEN, RetryScope.ALL, script);
+        
+        assertEquals(500, response.statusCode());
+        assertEquals(3, script.sent);
+    }
+    
+    @Test
+    void doesNotRetryClientErrors() throws Exception {
+        Script script = new Script(new StubResponse(400), new StubResponse(200));
+        
+        assertEquals(400, retrier(3, 10).execute(Operation.ACCESS_TOKEN, RetryScope.ALL, script).statusCode());
+        assertEquals(1, script.sent);
+    }
+    
+    @Test
+    void doesNotRetryLocalFileErrors() {
+        Script script = new Script(new FileNotFoundException("gone"), new StubResponse(200));
+        
+        assertThrows(FileNotFoundException.class,
+                () -> retrier(3, 10).execute(Operation.ACCESS_TOKEN, RetryScope.ALL, script));
+        assertEquals(1, script.sent);
+    }
+    
+    @Test
+    void neverRetriesCallsThatCannotBeReplayed() throws Exception {
+        Script script = new Script(new StubResponse(503, "Retry-After", "0"), new StubResponse(200));
+        
+        assertEquals(503, retrier(3, 10).execute(Operation.UPLOAD, RetryScope.NONE, script).statusCode());
+        assertEquals(1, script.sent);
+    }
+    
+    @Test
+    void unsentScopeDoesNotRetryResponsesTheServerMayHaveActedOn() throws Exception {
+        for (int status : new int[]{500, 502, 504, 408}) {
+            Script script = new Script(new StubResponse(status), new StubResponse(200));
+            
+            assertEquals(status, retrier(3, 10).execute(Operation.UPLOAD, RetryScope.UNSENT, script).statusCode());
+            assertEquals(1, script.sent, "status " + status);
+        }
+        Script withoutRetryAfter = new Script(new StubResponse(503), new StubResponse(200));
+        assertEquals(503, retrier(3, 10).execute(Operation.UPLOAD, RetryScope.UNSENT, withoutRetryAfter).statusCode());
+    }
+    
+    @Test
+    void unsentScopeRetriesRefusalsWithRetryAfter() throws Exception {
+        Script script = new Script(new StubResponse(503, "Retry-After", "0"),
+                new StubResponse(429, "Retry-After", "0"), new StubResponse(200));
+        
+        assertEquals(200, retrier(3, 10).execute(Operation.UPLOAD, RetryScope.UNSENT, script).statusCode());
+        assertEquals(3, script.sent);
+    }
+    
+    @Test
+    void unsentScopeRetriesOnlyConnectFailures() throws Exception {
+        Script connect = new Script(new ConnectException("refused"),
+                new HttpConnectTimeoutException("connect timed out"), new StubResponse(200));
+        assertEquals(200, retrier(3, 10).execute(Operation.UPLOAD, RetryScope.UNSENT, connect).statusCode());
+        assertEquals(3, connect.sent);
+        
+        Script timeout = new Script(new HttpTimeoutException("request timed out"), new StubResponse(200));
+        assertThrows(HttpTimeoutException.class,
+                () -> retrier(3, 10).execute(Operation.UPLOAD, RetryScope.UNSENT, timeout));
+        assertEquals(1, timeout.sent);
+        
+        Script reset = new Script(new IOException("connection reset"), new StubResponse(200));
+        assertThrows(IOException.class, () -> retrier(3, 10).execute(Operation.UPLOAD, RetryScope.UNSENT, reset));
+        assertEquals(1, reset.sent);
+    }
+    
+    @Test
+    void emptyBudgetStopsRetries() throws Exception {
+        Retrier retrier = new Retrier(policy(5), new RetryBudget(1, 0), attempts::add);
+        
+        Script first = new Script(new StubResponse(500), new StubResponse(500), new StubResponse(200));
+        assertEquals(500, retrier.execute(Operation.ACCESS_TOKEN, RetryScope.ALL, first).statusCode());
+        assertEquals(2, first.sent);
+        
+        Script second = new Script(new StubResponse(500), new StubResponse(200));
+        assertEquals(500, retrier.execute(Operation.ACCESS_TOKEN, RetryScope.ALL, second).statusCode());
+        assertEquals(1, second.sent);
+        
+        assertEquals(2, retrier.getStats().getBudgetRejections());
+        assertEquals(2, retrier.getStats().getCalls());
+        assertEquals(3, retrier.getStats().getAttempts());
+        assertEquals(1, retrier.getStats().getRetries());
+    }
+    
+    @Test
+    void successfulCallsRefillTheBudget() {
+        RetryBudget budget = new RetryBudget(2, 0.5);
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+        
+        budget.onSuccess();
+        assertFalse(budget.tryAcquire());
+        budget.onSuccess();
+        assertTrue(budget.tryAcquire());
+        
+        for (int i = 0; i < 10; i++) {
+            budget.onSuccess();
+        }
+        assertEquals(2, budget.available());
+    }
+    
+    @Test
+    void asyncRetriesFollowTheSameRules() throws Exception {
+        Script script = new Script(new StubResponse(500), new ConnectException("refused"), new StubResponse(200));
+        
+        HttpResponse<String> response = retrier(3, 10)
+                .executeAsync(Operation.ACCESS_TOKEN, RetryScope.ALL, script::async, ForkJoinPool.commonPool())
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(200, response.statusCode());
+        assertEquals(3, script.sent);
+        
+        Script upload = new Script(new StubResponse(502), new StubResponse(200));
+        assertEquals(502, retrier(3, 10)
+                .executeAsync(Operation.UPLOAD, RetryScope.UNSENT, upload::async, ForkJoinPool.commonPool())
+                .get(5, TimeUnit.SECONDS).statusCode());
+        assertEquals(1, upload.sent);
+    }
+    
+    @Test
+    void asyncFailuresCompleteTheFutureWithTheCause() {
+        Script script = new Script(new HttpTimeoutException("request timed out"));
+        
+        CompletableFuture<HttpResponse<String>> future = retrier(3, 10)
+                .executeAsync(Operation.UPLOAD, RetryScope.UNSENT, script::async, ForkJoinPool.commonPool());
+        
+        ExecutionException error = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(HttpTimeoutException.class, error.getCause());
+        assertEquals(1, script.sent);
+    }
+    
+    @Test
+    void retryAfterIsHonouredAndCapped() {
+        RetryPolicy policy = new RetryPolicy(3, Duration.ofMillis(100), Duration.ofSeconds(5));
+        
+        assertEquals(Duration.ofSeconds(2), policy.delay(1, new StubResponse(503, "Retry-After", "2")));
+        assertEquals(Duration.ofSeconds(5), policy.delay(1, new StubResponse(503, "Retry-After", "120")));
+        for (int retry = 1; retry < 40; retry++) {
+            Duration backoff = policy.delay(retry, new StubResponse(503));
+            assertFalse(backoff.isNegative());
+            assertTrue(backoff.compareTo(Duration.ofSeconds(5)) <= 0);
+        }
+    }
+    
+    @Test
+    void reportsEveryAttemptToTheListener() throws Exception {
+        IOException refused = new ConnectException("refused");
+        Script script = new Script(refused, new StubResponse(200));
+        
+        retrier(3, 10).execute(Operation.UPLOAD, RetryScope.UNSENT, script);
+        
+        assertEquals(2, attempts.size());
+        assertSame(refused, attempts.get(0).getError());
+        assertEquals(-1, attempts.get(0).getStatusCode());
+        assertEquals(1, attempts.get(0).getAttempt());
+        assertEquals(200, attempts.get(1).getStatusCode());
+        assertEquals(2, attempts.get(1).getAttempt());
+    }
+    
+    private Retrier retrier(int maxRetries, int budget) {
+        return new Retrier(policy(maxRetries), new RetryBudget(budget, 0.1), attempts::add);
+    }
+    
+    private static RetryPolicy policy(int maxRetries) {
+        return new RetryPolicy(maxRetries, Duration.ofMillis(1), Duration.ofMillis(1));
+    }
+    
+    private List<Boolean> retrying() {
+        List<Boolean> result = new ArrayList<>();
+        attempts.forEach(attempt -> result.add(attempt.isRetrying()));
+        return result;
+    }
+    
+    /**
+     * Answers each attempt with the next scripted response or failure
+     */
+    private static final class Script implements Retrier.Exchange<String> {
+        private final Deque<Object> outcomes;
+        private int sent;
+        
+        Script(Object... outcomes) {
+            this.outcomes = new ArrayDeque<>(Arrays.asList(outcomes));
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public HttpResponse<String> send() throws IOException {
+            sent++;
+            Object outcome = outcomes.poll();
+            if (outcome instanceof IOException) {
+                throw (IOException) outcome;
+            }
+            return (HttpResponse<String>) outcome;
+        }
+        
+        CompletableFuture<HttpResponse<String>> async() {
+            try {
+                return CompletableFuture.completedFuture(send());
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+    }
+}
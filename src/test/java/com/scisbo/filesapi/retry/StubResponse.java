@@ -0,0 +1,70 @@
+package com.scisbo.filesapi.retry;
+
+import javax.net.ssl.SSLSession;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Response with a status, optional headers and a string body
+ */
+final class StubResponse implements HttpResponse<String> {
+    
+    private final int statusCode;
+    private final HttpHeaders headers;
+    
+    StubResponse(int statusCode, String... headerPairs) {
+        this.statusCode = statusCode;
+        Map<String, List<String>> map = new HashMap<>();
+        for (int i = 0; i < headerPairs.length; i += 2) {
+            map.put(headerPairs[i], List.of(headerPairs[i + 1]));
+        }
+        this.headers = HttpHeaders.of(map, (name, value) -> true);
+    }
+    
+    @Override
+    public int statusCode() {
+        return statusCode;
+    }
+    
+    @Override
+    public HttpRequest request() {
+        return HttpRequest.newBuilder(URI.create("http://localhost/")).build();
+    }
+    
+    @Override
+    public Optional<HttpResponse<String>> previousResponse() {
+        return Optional.empty();
+    }
+    
+    @Override
+    public HttpHeaders headers() {
+        return headers;
+    }
+    
+    @Override
+    public String body() {
+        return "";
+    }
+    
+    @Override
+    public Optional<SSLSession> sslSession() {
+        return Optional.empty();
+    }
+    
+    @Override
+    public URI uri() {
+        return URI.create("http://localhost/");
+    }
+    
+    @Override
+    public HttpClient.Version version() {
+        return HttpClient.Version.HTTP_1_1;
+    }
+}
@@ -0,0 +1,177 @@
+package com.scisbo.filesapi.spill;
+
+import com.scisbo.filesapi.buffer.BufferPool;
+import com.scisbo.filesapi.data.request.FileData;
+import com.scisbo.filesapi.data.request.FileUploadRequest;
+import com.scisbo.filesapi.data.source.ContentSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamSpillerTest {
+    
+    private static final int THRESHOLD = 20_000;
+    
+    @TempDir
+    Path directory;
+    
+    private final BufferPool pool = new BufferPool(1024 * 1024);
+    
+    @Test
+    void keepsStreamsUpToTheThresholdInMemory() throws IOException {
+        byte[] content = randomBytes(THRESHOLD);
+        StreamSpiller spiller = new StreamSpiller(THRESHOLD, directory, pool);
+        
+        ContentSource source = spiller.spill(new ByteArrayInputStream(content));
+        
+        assertInstanceOf(MemorySpillSource.class, source);
+        assertEquals(THRESHOLD, source.length());
+        assertArrayEquals(content, read(source));
+        assertArrayEquals(content, read(source));
+        assertEquals(0, files().size());
+    }
+    
+    @Test
+    void spillsStreamsPastTheThresholdToATempFile() throws IOException {
+        byte[] content = randomBytes(THRESHOLD + 1);
+        StreamSpiller spiller = new StreamSpiller(THRESHOLD, directory, pool);
+        
+        ContentSource source = spiller.spill(new ByteArrayInputStream(content));
+        
+        assertInstanceOf(FileSpillSource.class, source);
+        assertEquals(THRESHOLD + 1, source.length());
+        assertArrayEquals(content, read(source));
+        assertEquals(List.of(((FileSpillSource) source).getPath()), files());
+        // The chunks read before the switch went back to the pool as soon as they were copied
+        assertEquals(pool.getAcquired(), pool.getReleased());
+    }
+    
+    @Test
+    void releasingARequestDeletesItsTempFilesAndRecyclesItsBuffers() throws IOException {
+        StreamSpiller spiller = new StreamSpiller(THRESHOLD, directory, pool);
+        FileUploadRequest spilled = spiller.spill(request(randomBytes(100), randomBytes(THRESHOLD * 3)));
+        assertEquals(1, files().size());
+        assertTrue(pool.getAcquired() > pool.getReleased());
+        
+        StreamSpiller.release(spilled, true);
+        
+        assertEquals(0, files().size());
+        assertEquals(pool.getAcquired(), pool.getReleased());
+    }
+    
+    @Test
+    void memoryIsOnlyRecycledWhenAsked() throws IOException {
+        StreamSpiller spiller = new StreamSpiller(THRESHOLD, directory, pool);
+        FileUploadRequest spilled = spiller.spill(request(randomBytes(100)));
+        long released = pool.getReleased();
+        
+        StreamSpiller.release(spilled, false);
+        
+        assertEquals(released, pool.getReleased());
+        assertThrows(IOException.class, () -> spilled.getFiles().get(0).getSource().openStream());
+    }
+    
+    @Test
+    void aStreamThatFailsAfterSpillingLeavesNoTempFile() {
+        StreamSpiller spiller = new StreamSpiller(THRESHOLD, directory, pool);
+        
+        assertThrows(IOException.class, () -> spiller.spill(new FailingStream(THRESHOLD * 3)));
+        
+        assertEquals(0, files().size());
+        assertEquals(pool.getAcquired(), pool.getReleased());
+    }
+    
+    @Test
+    void aFailedRequestReleasesWhatWasAlreadySpilled() {
+        StreamSpiller spiller = new StreamSpiller(THRESHOLD, directory, pool);
+        List<FileData> files = List.of(
+                new FileData("small", null, new ByteArrayInputStream(randomBytes(100))),
+                new FileData("large", null, new ByteArrayInputStream(randomBytes(THRESHOLD * 2))),
+                new FileData("broken", null, new FailingStream(THRESHOLD / 2)));
+        
+        assertThrows(IOException.class, () -> spiller.spill(new FileUploadRequest("/p", files, Map.of())));
+        
+        assertEquals(0, files().size());
+        assertEquals(pool.getAcquired(), pool.getReleased());
+    }
+    
+    @Test
+    void returnsRequestsWithRepeatableSourcesAsTheyAre() throws IOException {
+        Path file = Files.write(directory.resolve("input.bin"), randomBytes(10));
+        FileUploadRequest request = new FileUploadRequest("/p",
+                List.of(new FileData("input.bin", null, ContentSource.of(file))), Map.of());
+        
+        assertSame(request, new StreamSpiller(0, directory, pool).spill(request));
+    }
+    
+    private static FileUploadRequest request(byte[]... contents) {
+        FileData[] files = new FileData[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            files[i] = new FileData("f" + i, null, new ByteArrayInputStream(contents[i]));
+        }
+        return new FileUploadRequest("/p", List.of(files), Map.of());
+    }
+    
+    private List<Path> files() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.toList();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+    
+    private static byte[] read(ContentSource source) throws IOException {
+        try (InputStream in = source.openStream()) {
+            return in.readAllBytes();
+        }
+    }
+    
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+    
+    /**
+     * Returns zeros and then fails, like a connection that drops
+     */
+    private static final class FailingStream extends InputStream {
+        private int remaining;
+        
+        FailingStream(int length) {
+            this.remaining = length;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0];
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining == 0) {
+                throw new IOException("Connection reset");
+            }
+            int count = Math.min(length, remaining);
+            remaining -= count;
+            return count;
+        }
+    }
+}